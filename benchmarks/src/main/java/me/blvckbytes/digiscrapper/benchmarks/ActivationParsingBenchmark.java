@@ -0,0 +1,42 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.BookDownloader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing done once per book while activating it: the hidden form of both LTI
+ * steps and the last page out of the book's index. Recorded responses are picked
+ * up from -Dfixtures.dir as lti.html and index.html, otherwise they get generated
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ActivationParsingBenchmark {
+
+  private String lti, index;
+
+  @Setup
+  public void setup() throws Exception {
+    this.lti = SiteFixtures.lti();
+    this.index = SiteFixtures.index( 248 );
+
+    // A broken fixture would only measure the exception
+    BookDownloader.LtiForm.parse( this.lti );
+    BookDownloader.parseLastPage( this.index );
+  }
+
+  @Benchmark
+  public BookDownloader.LtiForm ltiForm() {
+    return BookDownloader.LtiForm.parse( this.lti );
+  }
+
+  @Benchmark
+  public int lastPage() {
+    return BookDownloader.parseLastPage( this.index );
+  }
+}
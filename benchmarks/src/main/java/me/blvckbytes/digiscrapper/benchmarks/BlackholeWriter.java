@@ -0,0 +1,37 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.Writer;
+
+public class BlackholeWriter extends Writer {
+
+  private Blackhole bh;
+
+  /**
+   * Writer which hands everything to the blackhole instead of a file, so
+   * only the cost of producing the output gets measured
+   * @param bh Blackhole of the running benchmark
+   */
+  public BlackholeWriter( Blackhole bh ) {
+    this.bh = bh;
+  }
+
+  @Override
+  public void write( char[] cbuf, int off, int len ) {
+    this.bh.consume( cbuf );
+    this.bh.consume( len );
+  }
+
+  @Override
+  public void write( String str, int off, int len ) {
+    this.bh.consume( str );
+    this.bh.consume( len );
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() {}
+}
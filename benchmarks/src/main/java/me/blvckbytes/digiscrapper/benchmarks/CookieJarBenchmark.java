@@ -0,0 +1,54 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.CookieJar;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating the Cookie header happens for every page and image request. Between
+ * changes the serialized headers of a snapshot are reused, a changed cookie
+ * forces a new snapshot. Run with -prof gc to see the allocation of both
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class CookieJarBenchmark {
+
+  private static final String[] URLS = {
+    "https://a.digi4school.at/ebook/5541/12/12.svg",
+    "https://a.digi4school.at/ebook/5541/12/img/3.png",
+    "https://kat.digi4school.at/lti",
+    "https://digi4school.at/token/abc"
+  };
+
+  private CookieJar jar;
+  private int next, version;
+
+  @Setup
+  public void setup() {
+    this.jar = new CookieJar();
+    for( String[] cookie : SiteFixtures.cookies() )
+      this.jar.write( cookie[ 0 ], cookie[ 1 ] );
+  }
+
+  private String nextUrl() {
+    String url = URLS[ this.next ];
+    this.next = ( this.next + 1 ) % URLS.length;
+    return url;
+  }
+
+  @Benchmark
+  public String generate() {
+    return this.jar.generate( nextUrl() );
+  }
+
+  @Benchmark
+  public String writeThenGenerate() {
+    this.jar.write( "https://a.digi4school.at/ebook/5541/", "zoom=" + ( this.version++ & 7 ) + "; path=/ebook/" );
+    return this.jar.generate( nextUrl() );
+  }
+}
@@ -0,0 +1,129 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import me.blvckbytes.digiscrapper.*;
+
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads pages with their images from a local mock server and reports pages/sec
+ * and peak RSS. The execution mode is picked up like in the real run, so compare with:
+ * java -cp benchmarks.jar me.blvckbytes.digiscrapper.benchmarks.ExecutionModeBench
+ * java -Ddigiscrapper.mode=virtual -cp benchmarks.jar me.blvckbytes.digiscrapper.benchmarks.ExecutionModeBench
+ * Add -Ddigiscrapper.transport=async to use the non-blocking engine
+ * Options: -Dpages=5000 -Dlatency=50 (ms per response)
+ */
+public class ExecutionModeBench {
+
+  public static void main( String[] args ) throws Exception {
+    int pages = Integer.getInteger( "pages", 5000 );
+    int latency = Integer.getInteger( "latency", 50 );
+    byte[] page = SvgFixtures.load( "small" );
+    byte[] image = new byte[ 16 * 1024 ];
+
+    // Mock server answering with a fixed latency, like a far away host would
+    HttpServer server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 1024 );
+    server.setExecutor( Executors.newCachedThreadPool() );
+    server.createContext( "/", exchange -> {
+      try {
+        Thread.sleep( latency );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+
+      byte[] body = exchange.getRequestURI().getPath().endsWith( ".svg" ) ? page : image;
+      exchange.sendResponseHeaders( 200, body.length );
+      try ( OutputStream os = exchange.getResponseBody() ) {
+        os.write( body );
+      }
+    } );
+    server.start();
+
+    String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    Transport transport = Utils.createTransport();
+    ExecutorService pageExec = Workers.create( 40 );
+    ExecutorService depExec = Workers.create( 150 );
+
+    long begin = System.nanoTime();
+
+    CompletableFuture< ? >[] futures = new CompletableFuture< ? >[ pages ];
+    for( int i = 0; i < pages; i++ ) {
+      String url = base + ( i + 1 ) + "/" + ( i + 1 ) + ".svg";
+      futures[ i ] = transport.send( TransportRequest.get( url ) )
+        .thenApplyAsync( resp -> readPage( transport, url, resp, depExec ), pageExec )
+        .thenCompose( deps -> CompletableFuture.allOf( deps.toArray( new CompletableFuture< ? >[ 0 ] ) ) );
+    }
+    CompletableFuture.allOf( futures ).join();
+
+    double secs = ( System.nanoTime() - begin ) / 1e9;
+    System.out.printf(
+      "mode=%s transport=%s pages=%d latency=%dms hostConcurrency=%d -> %.1f pages/sec, peak RSS %s%n",
+      Workers.isVirtual() ? "virtual" : "pooled", Config.getString( "transport", "blocking" ),
+      pages, latency, HostLimiter.get().getPermits(), pages / secs, peakRss()
+    );
+    System.out.println( "Hosts: " + HostLimiter.get().describe() );
+
+    pageExec.shutdown();
+    depExec.shutdown();
+    transport.close();
+    server.stop( 0 );
+  }
+
+  /**
+   * Stream a page and start downloads for all of its images
+   */
+  private static List< CompletableFuture< Void > > readPage( Transport transport, String url, TransportResponse resp, ExecutorService depExec ) {
+    List< CompletableFuture< Void > > deps = new ArrayList<>();
+    String dir = url.substring( 0, url.lastIndexOf( '/' ) + 1 );
+
+    try ( resp ) {
+      SvgRewriter.rewrite( new InputStreamReader( resp.getBody(), StandardCharsets.UTF_8 ), Writer.nullWriter(), imgName -> {
+        deps.add( transport.send( TransportRequest.get( dir + imgName ) ).thenAcceptAsync( ExecutionModeBench::consume, depExec ) );
+        return imgName;
+      } );
+    } catch ( Exception e ) {
+      throw new CompletionException( e );
+    }
+
+    return deps;
+  }
+
+  /**
+   * Read an image and discard it
+   */
+  private static void consume( TransportResponse resp ) {
+    try ( resp ) {
+      resp.getBody().transferTo( OutputStream.nullOutputStream() );
+    } catch ( Exception e ) {
+      throw new CompletionException( e );
+    }
+  }
+
+  /**
+   * Read the peak resident set size of this process
+   * @return Human readable peak RSS
+   */
+  static String peakRss() {
+    try {
+      for( String line : Files.readAllLines( Paths.get( "/proc/self/status" ) ) ) {
+        if( line.startsWith( "VmHWM:" ) )
+          return line.substring( 6 ).trim();
+      }
+    } catch ( Exception ignored ) {}
+
+    Runtime rt = Runtime.getRuntime();
+    return ( ( rt.totalMemory() - rt.freeMemory() ) / 1024 / 1024 ) + "MB heap (no /proc)";
+  }
+}
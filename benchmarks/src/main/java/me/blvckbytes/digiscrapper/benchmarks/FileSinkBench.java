@@ -0,0 +1,144 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.BufferPool;
+import me.blvckbytes.digiscrapper.FileSink;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Writes image bodies into book folders, once like the old downloader did (checking
+ * and creating the folder and file for every image, then copying the stream with a
+ * heap buffer) and once through the file sink. Reports MB/s and heap bytes allocated
+ * per MB written, the bodies are kept in memory so only the write path is measured:
+ * java -cp benchmarks.jar me.blvckbytes.digiscrapper.benchmarks.FileSinkBench
+ * Options: -Dimages=20000 -Dbooks=50 -Dthreads=8 -Ddir=/tmp (target file system)
+ */
+public class FileSinkBench {
+
+  public static void main( String[] args ) throws Exception {
+    int images = Integer.getInteger( "images", 20000 );
+    int books = Integer.getInteger( "books", 50 );
+    int threads = Integer.getInteger( "threads", 8 );
+    String dir = System.getProperty( "dir" );
+
+    // Image sizes of a typical book, lots of small shadows and a few large scans
+    Random rand = new Random( 42 );
+    byte[][] bodies = new byte[ 64 ][];
+    for( int i = 0; i < bodies.length; i++ ) {
+      bodies[ i ] = new byte[ i % 8 == 0 ? 256 * 1024 + rand.nextInt( 256 * 1024 ) : 4 * 1024 + rand.nextInt( 60 * 1024 ) ];
+      rand.nextBytes( bodies[ i ] );
+    }
+
+    BufferPool buffers = BufferPool.fromConfig();
+    FileSink sink = new FileSink( buffers );
+
+    // Warm up both paths before measuring
+    for( int round = 0; round < 2; round++ ) {
+      boolean measure = round == 1;
+      run( "legacy", measure, images, books, threads, dir, bodies, ( in, target ) -> writeLegacy( in, target ) );
+      run( "channel", measure, images, books, threads, dir, bodies, sink::write );
+    }
+
+    System.out.println( sink.describe() );
+  }
+
+  private static void run(
+    String name, boolean measure, int images, int books, int threads, String dir,
+    byte[][] bodies, Writer writer
+  ) throws Exception {
+    File root = dir == null ? Files.createTempDirectory( "sinkbench" ).toFile() : Files.createTempDirectory( new File( dir ).toPath(), "sinkbench" ).toFile();
+    ExecutorService exec = Executors.newFixedThreadPool( threads );
+    AtomicLong allocated = new AtomicLong( 0 ), written = new AtomicLong( 0 );
+    com.sun.management.ThreadMXBean mx = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+
+    long begin = System.nanoTime();
+
+    // Every thread takes its share of the images and counts its own allocations
+    List< Future< ? > > futures = new ArrayList<>();
+    for( int t = 0; t < threads; t++ ) {
+      int offset = t;
+      futures.add( exec.submit( () -> {
+        long allocStart = mx.getThreadAllocatedBytes( Thread.currentThread().getId() );
+
+        for( int i = offset; i < images; i += threads ) {
+          byte[] body = bodies[ i % bodies.length ];
+          File target = new File( new File( root, "book" + ( i % books ) + "/img" ), UUID.randomUUID() + ".png" );
+          writer.write( new ByteArrayInputStream( body ), target );
+          written.addAndGet( body.length );
+        }
+
+        allocated.addAndGet( mx.getThreadAllocatedBytes( Thread.currentThread().getId() ) - allocStart );
+        return null;
+      } ) );
+    }
+
+    try {
+      for( Future< ? > future : futures )
+        future.get();
+    } finally {
+      exec.shutdown();
+    }
+
+    double secs = ( System.nanoTime() - begin ) / 1e9;
+    delete( root );
+
+    if( !measure )
+      return;
+
+    double mb = written.get() / 1024.0 / 1024.0;
+    System.out.printf(
+      "%-8s images=%d threads=%d -> %.1f MB/s, %.1f images/sec, %.1fKB allocated per MB written%n",
+      name, images, threads, mb / secs, images / secs, allocated.get() / 1024.0 / mb
+    );
+  }
+
+  /**
+   * Write path of the old downloader, entities were copied with a 4K heap buffer
+   */
+  private static long writeLegacy( InputStream in, File of ) throws IOException {
+    if( !of.getParentFile().exists() && !of.getParentFile().mkdirs() && !of.getParentFile().exists() )
+      throw new IOException( "Unable to create output directory!" );
+
+    if( !of.exists() && !of.createNewFile() )
+      throw new IOException( "Could not create image file!" );
+
+    long size = 0;
+    try ( OutputStream os = new FileOutputStream( of ) ) {
+      byte[] buf = new byte[ 4096 ];
+      int read;
+      while( ( read = in.read( buf ) ) != -1 ) {
+        os.write( buf, 0, read );
+        size += read;
+      }
+    }
+    return size;
+  }
+
+  private static void delete( File root ) throws IOException {
+    try ( Stream< Path > paths = Files.walk( root.toPath() ) ) {
+      paths.sorted( Comparator.reverseOrder() ).forEach( p -> p.toFile().delete() );
+    }
+  }
+
+  private interface Writer {
+    long write( InputStream in, File target ) throws IOException;
+  }
+}
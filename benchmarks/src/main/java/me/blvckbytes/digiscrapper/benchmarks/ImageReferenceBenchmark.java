@@ -0,0 +1,56 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.SvgRewriter;
+import me.blvckbytes.digiscrapper.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding and renaming the image references of a page with the former regex
+ * lookup (pattern compiled per image, split and replaceAll per reference) against the
+ * single pass scanner of the rewriter. The regex only sees double quoted hrefs, so it
+ * misses the single quoted ones and requests data URIs. Run with -prof gc for the allocations
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ImageReferenceBenchmark {
+
+  static final String IDENTIFIER = "0b7c5bd2-3f5e-4d1a-9a57-5c1f0f4c2e11";
+
+  @Param( { "small", "medium", "large" } )
+  private String size;
+
+  private byte[] page;
+
+  @Setup
+  public void setup() throws Exception {
+    this.page = SvgFixtures.load( this.size );
+  }
+
+  @Benchmark
+  public List< String > regex() {
+    return LegacySvgPath.renameReferences( new String( this.page, StandardCharsets.UTF_8 ) );
+  }
+
+  @Benchmark
+  public List< String > scanner() throws Exception {
+    List< String > references = SvgRewriter.imageReferences(
+      new InputStreamReader( new ByteArrayInputStream( this.page ), StandardCharsets.UTF_8 )
+    );
+
+    List< String > names = new ArrayList<>( references.size() );
+    for( String reference : references )
+      names.add( Utils.renameImage( reference, IDENTIFIER ) );
+    return names;
+  }
+}
@@ -0,0 +1,90 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class LegacySvgPath {
+
+  /**
+   * The string based css injection the downloader used before streaming
+   * @param svg Svg file input
+   * @return Svg file output
+   */
+  public static String injectDimCSS( String svg ) {
+    String beginInj = "<style type=\"text/css\"><![CDATA[";
+
+    if( svg.contains( beginInj ) ) {
+      int offset = svg.indexOf( beginInj ) + beginInj.length();
+      String buf = svg.substring( 0, offset );
+      buf += "\nsvg{height: 1300px;width:100%;}";
+      svg = buf + svg.substring( offset );
+    }
+
+    else {
+      String appendPoint = "<defs>";
+      int offset = svg.indexOf( appendPoint ) + appendPoint.length();
+      String buf = svg.substring( 0, offset );
+      buf += "<style type=\"text/css\"><![CDATA[\nsvg{height: 1300px;width:100%;}]]></style>";
+      svg = buf + svg.substring( offset );
+    }
+
+    return svg;
+  }
+
+  /**
+   * The regex and replace based image rewrite the downloader used before streaming
+   * @param svg Svg file input
+   * @return Svg with all image references renamed
+   */
+  public static String rewriteImages( String svg ) {
+    String svgBuf = svg;
+
+    Pattern pattern = Pattern.compile( "<image[^<>]+/>" );
+    Matcher matcher = pattern.matcher( svgBuf );
+
+    while( matcher.find() ) {
+      String found = matcher.group();
+
+      Pattern linkP = Pattern.compile( "href=\"[^\"]+\"" );
+      Matcher linkM = linkP.matcher( found );
+
+      if( !linkM.find() )
+        continue;
+
+      String imgName = linkM.group().split( "=" )[ 1 ].replaceAll( "\"", "" );
+      svgBuf = svgBuf.replace( imgName, SvgFixtures.rename( imgName ) );
+    }
+
+    return svgBuf;
+  }
+
+  /**
+   * The regex based reference lookup of the downloader's former downloadDependencies,
+   * which compiled the href pattern again for every image and renamed by regex
+   * @param svg Svg file input
+   * @return New names of all referenced images
+   */
+  public static List< String > renameReferences( String svg ) {
+    List< String > names = new ArrayList<>();
+
+    Pattern pattern = Pattern.compile( "<image[^<>]+/>" );
+    Matcher matcher = pattern.matcher( svg );
+
+    while( matcher.find() ) {
+      String found = matcher.group();
+
+      Pattern linkP = Pattern.compile( "href=\"[^\"]+\"" );
+      Matcher linkM = linkP.matcher( found );
+
+      if( !linkM.find() )
+        continue;
+
+      String imgName = linkM.group().split( "=" )[ 1 ].replaceAll( "\"", "" );
+      names.add( imgName.replaceAll( "([^./]+).([^.]+)$", ImageReferenceBenchmark.IDENTIFIER + ".$2" ) );
+    }
+
+    return names;
+  }
+}
@@ -0,0 +1,76 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.LinkExtractor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extracting the links of open shelf responses by parsing them into a jsoup
+ * document with the single pass scanner. Every invocation handles one response, so
+ * -prof gc reports the allocation per response. Recorded responses are picked up from
+ * the folder openshelf within -Dfixtures.dir, otherwise searches get replayed against
+ * the generated library
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class LinkExtractorBenchmark {
+
+  private static final String[] TERMS = { "mat", "deu", "the", "ung", "ben", "qui", "yog", "xyl", "zwe", "ein" };
+
+  private String[] responses;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    List< String > responses = new ArrayList<>();
+
+    String dir = System.getProperty( "fixtures.dir" );
+    File[] recorded = dir == null ? null : new File( dir, "openshelf" ).listFiles( ( d, name ) -> name.endsWith( ".html" ) );
+    if( recorded != null && recorded.length > 0 ) {
+      for( File file : recorded )
+        responses.add( new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ) );
+    }
+
+    else {
+      Map< String, String > library = SearchFixtures.library();
+      for( String term : TERMS )
+        responses.add( SearchFixtures.response( SearchFixtures.search( library, term, 100 ) ) );
+    }
+
+    // Both have to agree, otherwise the comparison is meaningless
+    for( String response : responses ) {
+      Map< String, String > scanned = LinkExtractor.scan( response );
+      if( scanned != null && !scanned.equals( LinkExtractor.parseDocument( response ) ) )
+        throw new IllegalStateException( "Scanner and parser disagree on a response" );
+    }
+
+    this.responses = responses.toArray( new String[ 0 ] );
+  }
+
+  private String nextResponse() {
+    String response = this.responses[ this.next ];
+    this.next = ( this.next + 1 ) % this.responses.length;
+    return response;
+  }
+
+  @Benchmark
+  public Map< String, String > jsoupDocument() {
+    return LinkExtractor.parseDocument( nextResponse() );
+  }
+
+  @Benchmark
+  public Map< String, String > singlePass() {
+    return LinkExtractor.extract( nextResponse() );
+  }
+}
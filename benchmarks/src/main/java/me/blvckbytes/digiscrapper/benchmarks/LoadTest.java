@@ -0,0 +1,87 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Runs the whole scrapper against a local mock of the platform: the combination scan
+ * searches the mock's open shelf and streams the tokens into the downloader, which
+ * activates every book over both LTI hops and downloads its pages and images. Reports
+ * books/hour, the p99 latency of pages and images and the peak RSS. Run with:
+ * java -Dbooks=2000 -cp benchmarks.jar me.blvckbytes.digiscrapper.benchmarks.LoadTest
+ * Options: -Dbooks=2500 -DmaxPages=8 -Dlatency=20 (ms per response) -DerrorRate=0.01
+ * -Dbandwidth=0 (MB/s shared by all responses, 0 for no cap) -Dscan=true (false downloads
+ * a written token-file without scanning) -Dkeep=false (keep the downloaded files)
+ * All settings of the scrapper apply as well, like -Ddigiscrapper.parallelBooks=8
+ */
+public class LoadTest {
+
+  public static void main( String[] args ) throws Exception {
+    Map< String, String > library = SearchFixtures.library();
+    int maxPages = Integer.getInteger( "maxPages", 8 );
+    int latency = Integer.getInteger( "latency", 20 );
+    double errorRate = Double.parseDouble( System.getProperty( "errorRate", "0.01" ) );
+    long bandwidth = ( long ) ( Double.parseDouble( System.getProperty( "bandwidth", "0" ) ) * 1024 * 1024 );
+    boolean scan = Boolean.parseBoolean( System.getProperty( "scan", "true" ) );
+
+    MockSite site = new MockSite( library, latency, errorRate, bandwidth, maxPages );
+    String base = site.start();
+
+    // All hosts of the platform are served by the mock, files go into a temporary folder
+    Path dir = Files.createTempDirectory( "digiscrapper-loadtest" );
+    System.setProperty( "digiscrapper.siteUrl", base );
+    System.setProperty( "digiscrapper.catalogUrl", base );
+    System.setProperty( "digiscrapper.bookUrl", base );
+    System.setProperty( "digiscrapper.basePath", dir.toString() );
+    System.setProperty( "digiscrapper.metricsInterval", System.getProperty( "digiscrapper.metricsInterval", "10" ) );
+
+    System.out.println( "Serving " + library.size() + " books on " + base + ", writing into " + dir );
+    Metrics.get().start();
+    long begin = System.nanoTime();
+
+    if( scan )
+      new LinkScrapper();
+    else {
+      File tokenFile = new File( dir.toFile(), "tokenlist.csv" );
+      File outputDir = new File( dir.toFile(), "bookpages" );
+      TokenFile.write( tokenFile, library.entrySet(), 0 );
+      Files.createDirectories( outputDir.toPath() );
+      new BookDownloader( tokenFile, outputDir );
+      FailureReport.get().write( new File( dir.toFile(), "failures.csv" ) );
+    }
+
+    double secs = ( System.nanoTime() - begin ) / 1e9;
+    Metrics.get().stop();
+
+    // Only books which are complete on disk count
+    int books = 0;
+    File[] folders = new File( dir.toFile(), "bookpages" ).listFiles();
+    for( File folder : folders == null ? new File[ 0 ] : folders ) {
+      if( folder.isDirectory() && BookManifest.isFolderDone( folder ) )
+        books++;
+    }
+
+    System.out.println( site.describe() );
+    System.out.printf(
+      "books=%d of %d latency=%dms errorRate=%.3f scan=%b -> %.0f books/hour in %s, p99 page %.0fms, p99 image %.0fms, peak RSS %s%n",
+      books, library.size(), latency, errorRate, scan, books / secs * 3600, Metrics.formatDuration( secs ),
+      Metrics.get().quantile( "pages", 0.99 ) * 1000, Metrics.get().quantile( "images", 0.99 ) * 1000,
+      ExecutionModeBench.peakRss()
+    );
+
+    site.stop();
+    if( !Boolean.getBoolean( "keep" ) ) {
+      try ( Stream< Path > files = Files.walk( dir ) ) {
+        files.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+      }
+    }
+
+    System.exit( 0 );
+  }
+}
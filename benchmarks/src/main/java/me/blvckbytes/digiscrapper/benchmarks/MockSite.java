@@ -0,0 +1,276 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MockSite {
+
+  private static final int CHUNK = 8 * 1024;
+
+  private Map< String, String > library;
+  private Map< String, Integer > books;
+  private int latency, maxPages, pageSize;
+  private double errorRate;
+  private long bandwidth, nextSlot;
+
+  private byte[] page, image;
+  private String lti;
+  private HttpServer server;
+  private LongAdder requests, errors, bytes;
+
+  /**
+   * Emulates the platform on a local port: the open shelf search, token redirects,
+   * both LTI form hops, the book index and the pages with their images. Every
+   * response is delayed, a share of them fails with 503 and all bodies
+   * share a bandwidth cap, so the whole run can be load tested without touching the site
+   * @param library Books of the site, token-sublink to title
+   * @param latency Mean milliseconds before a response starts, jittered by half of it
+   * @param errorRate Share of requests which fail with 503, between 0 and 1
+   * @param bandwidth Bytes per second all bodies share, 0 for no cap
+   * @param maxPages Maximum number of pages of a book, books have between a quarter and all of them
+   */
+  public MockSite( Map< String, String > library, int latency, double errorRate, long bandwidth, int maxPages ) throws Exception {
+    this.library = library;
+    this.latency = latency;
+    this.errorRate = errorRate;
+    this.bandwidth = bandwidth;
+    this.maxPages = Math.max( 1, maxPages );
+    this.pageSize = 100;
+    this.page = SvgFixtures.load( "small" );
+    this.image = new byte[ 16 * 1024 ];
+    this.lti = SiteFixtures.lti();
+    this.requests = new LongAdder();
+    this.errors = new LongAdder();
+    this.bytes = new LongAdder();
+
+    // Books are numbered like the book host's ebook ids
+    this.books = new HashMap<>();
+    for( String sublink : library.keySet() )
+      this.books.put( sublink.replace( "/token/", "" ), this.books.size() + 1 );
+  }
+
+  /**
+   * Start serving on a free port of the loopback interface
+   * @return Base url of the site, like http://127.0.0.1:1234
+   */
+  public String start() throws IOException {
+    this.server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 4096 );
+    this.server.setExecutor( Executors.newCachedThreadPool() );
+    this.server.createContext( "/", exchange -> {
+      try {
+        handle( exchange );
+      } catch ( Exception e ) {
+        e.printStackTrace();
+      } finally {
+        exchange.close();
+      }
+    } );
+    this.server.start();
+    return getBaseUrl();
+  }
+
+  public void stop() {
+    this.server.stop( 0 );
+  }
+
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + this.server.getAddress().getPort();
+  }
+
+  /**
+   * Get the number of pages of a book
+   * @param book Id of the book
+   * @return Last page of the book
+   */
+  public int pages( int book ) {
+    int min = Math.max( 1, this.maxPages / 4 );
+    return min + Math.floorMod( book * 7919, this.maxPages - min + 1 );
+  }
+
+  /**
+   * Describe what has been served so far
+   * @return Human readable stats
+   */
+  public String describe() {
+    return String.format(
+      "Mock: %d requests, %d injected errors, %.1f MB served",
+      this.requests.sum(), this.errors.sum(), this.bytes.sum() / 1024.0 / 1024.0
+    );
+  }
+
+  private void handle( HttpExchange exchange ) throws Exception {
+    this.requests.increment();
+    String path = exchange.getRequestURI().getPath();
+    String query = exchange.getRequestURI().getRawQuery();
+    String base = getBaseUrl();
+
+    ThreadLocalRandom rand = ThreadLocalRandom.current();
+    if( this.latency > 0 )
+      Thread.sleep( this.latency / 2 + rand.nextInt( this.latency + 1 ) );
+
+    if( rand.nextDouble() < this.errorRate ) {
+      this.errors.increment();
+      exchange.sendResponseHeaders( 503, -1 );
+      return;
+    }
+
+    if( path.equals( "/br/openshelf" ) ) {
+      String term = form( new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1 ) ).getOrDefault( "title", "" );
+      Map< String, String > results = SearchFixtures.search( this.library, term.toLowerCase( Locale.ROOT ), this.pageSize );
+      send( exchange, 200, "text/html; charset=utf-8", SearchFixtures.response( results ).getBytes( StandardCharsets.UTF_8 ) );
+      return;
+    }
+
+    // Token activation, the first LTI form
+    if( path.startsWith( "/token/" ) ) {
+      Integer book = this.books.get( path.substring( 7 ) );
+      if( book == null ) {
+        send( exchange, 404, "text/html", new byte[ 0 ] );
+        return;
+      }
+
+      exchange.getResponseHeaders().add( "Set-Cookie", "digi4s=" + Long.toHexString( rand.nextLong() ) + "; path=/; HttpOnly" );
+      send( exchange, 200, "text/html; charset=utf-8", ltiForm( base + "/lti/1?book=" + book ) );
+      return;
+    }
+
+    // Second LTI form, then the redirect to the book
+    if( path.equals( "/lti/1" ) ) {
+      exchange.getRequestBody().readAllBytes();
+      exchange.getResponseHeaders().add( "Set-Cookie", "kat_session=" + Long.toHexString( rand.nextLong() ) + "; path=/" );
+      send( exchange, 200, "text/html; charset=utf-8", ltiForm( base + "/lti/2?" + query ) );
+      return;
+    }
+
+    if( path.equals( "/lti/2" ) ) {
+      exchange.getRequestBody().readAllBytes();
+      exchange.getResponseHeaders().add( "Location", base + "/ebook/" + query.substring( query.indexOf( '=' ) + 1 ) + "/" );
+      exchange.sendResponseHeaders( 302, -1 );
+      return;
+    }
+
+    if( path.startsWith( "/ebook/" ) ) {
+      serveBook( exchange, path.substring( 7 ) );
+      return;
+    }
+
+    send( exchange, 404, "text/html", new byte[ 0 ] );
+  }
+
+  /**
+   * Serve the files of a book: its landing page, index, pages and images. Every
+   * tenth book has extra material, so the book itself lives one folder deeper
+   * @param exchange Exchange to answer
+   * @param path Path within /ebook/
+   */
+  private void serveBook( HttpExchange exchange, String path ) throws Exception {
+    List< String > parts = new ArrayList<>( List.of( path.split( "/" ) ) );
+    int book = Integer.parseInt( parts.remove( 0 ) );
+    boolean extra = book % 10 == 0;
+
+    // Landing page, either the book or a list of its material
+    if( parts.isEmpty() ) {
+      String html = extra
+        ? "<html><body><div id=\"content\"><a href=\"1/\"><img src=\"1/thumb.png\"></a><a href=\"2/\">Extra</a></div></body></html>"
+        : "<html><body><div id=\"mainContent\"></div></body></html>";
+      send( exchange, 200, "text/html; charset=utf-8", html.getBytes( StandardCharsets.UTF_8 ) );
+      return;
+    }
+
+    if( extra && !parts.remove( 0 ).equals( "1" ) ) {
+      send( exchange, 404, "text/html", new byte[ 0 ] );
+      return;
+    }
+
+    if( parts.size() == 1 && parts.get( 0 ).equals( "index.html" ) ) {
+      send( exchange, 200, "text/html; charset=utf-8", SiteFixtures.generateIndex( pages( book ) ).getBytes( StandardCharsets.UTF_8 ) );
+      return;
+    }
+
+    // Pages and their images, beyond the last page there's nothing
+    int page = parts.isEmpty() ? 0 : Integer.parseInt( parts.get( 0 ) );
+    if( page < 1 || page > pages( book ) ) {
+      send( exchange, 404, "text/html", new byte[ 0 ] );
+      return;
+    }
+
+    if( parts.size() == 2 && parts.get( 1 ).equals( page + ".svg" ) )
+      send( exchange, 200, "image/svg+xml; charset=utf-8", this.page );
+    else if( parts.size() == 3 )
+      send( exchange, 200, "image/png", this.image );
+    else
+      send( exchange, 404, "text/html", new byte[ 0 ] );
+  }
+
+  /**
+   * Send a response, the body is paced in chunks if the bandwidth is capped
+   */
+  private void send( HttpExchange exchange, int status, String type, byte[] body ) throws Exception {
+    exchange.getResponseHeaders().set( "Content-Type", type );
+    exchange.sendResponseHeaders( status, body.length == 0 ? -1 : body.length );
+    if( body.length == 0 )
+      return;
+
+    try ( OutputStream out = exchange.getResponseBody() ) {
+      for( int off = 0; off < body.length; off += CHUNK ) {
+        int len = Math.min( CHUNK, body.length - off );
+        pace( len );
+        out.write( body, off, len );
+        this.bytes.add( len );
+      }
+    }
+  }
+
+  /**
+   * Wait until the shared bandwidth has room for a chunk
+   * @param len Bytes of the chunk
+   */
+  private void pace( int len ) throws InterruptedException {
+    if( this.bandwidth <= 0 )
+      return;
+
+    long slot;
+    synchronized ( this ) {
+      long now = System.nanoTime();
+      slot = Math.max( now, this.nextSlot );
+      this.nextSlot = slot + len * 1_000_000_000L / this.bandwidth;
+    }
+
+    long wait = slot - System.nanoTime();
+    if( wait > 0 )
+      Thread.sleep( wait / 1_000_000, ( int ) ( wait % 1_000_000 ) );
+  }
+
+  /**
+   * Render a hidden LTI form like the platform's activation steps
+   * @param action Url the form gets posted to
+   * @return Html of the form
+   */
+  private byte[] ltiForm( String action ) {
+    return this.lti.replaceFirst( "action=\"[^\"]*\"", "action=\"" + action + "\"" ).getBytes( StandardCharsets.UTF_8 );
+  }
+
+  private static Map< String, String > form( String body ) {
+    Map< String, String > fields = new HashMap<>();
+    for( String pair : body.split( "&" ) ) {
+      int eq = pair.indexOf( '=' );
+      if( eq > 0 )
+        fields.put( URLDecoder.decode( pair.substring( 0, eq ), StandardCharsets.ISO_8859_1 ), URLDecoder.decode( pair.substring( eq + 1 ), StandardCharsets.ISO_8859_1 ) );
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,69 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.SearchExplorer;
+import me.blvckbytes.digiscrapper.TokenStore;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays the open shelf search against a library and compares the number of
+ * requests and the token coverage of brute-forcing all three letter terms
+ * with the adaptive explorer:
+ * java -cp benchmarks.jar me.blvckbytes.digiscrapper.benchmarks.SearchExplorerBench
+ * Options: -Dfixtures.dir=fixtures (tokenlist.csv of a real run) -Dbooks=2500 -Dpagesize=100
+ * -Dalphabet=abcdefghijklmnopqrstuvwxyz -DpruneAfter=3
+ */
+public class SearchExplorerBench {
+
+  public static void main( String[] args ) throws Exception {
+    Map< String, String > library = SearchFixtures.library();
+    int pageSize = Integer.getInteger( "pagesize", 100 );
+    String alphabet = System.getProperty( "alphabet", "abcdefghijklmnopqrstuvwxyz" );
+    ExecutorService exec = Executors.newFixedThreadPool( 8 );
+
+    // Brute force, like the scan did before
+    Map< String, String > bruteFound = new ConcurrentHashMap<>();
+    int bruteRequests = 0;
+    for( char a : alphabet.toCharArray() ) {
+      for( char b : alphabet.toCharArray() ) {
+        for( char c : alphabet.toCharArray() ) {
+          bruteFound.putAll( SearchFixtures.search( library, "" + a + b + c, pageSize ) );
+          bruteRequests++;
+        }
+      }
+    }
+    report( "brute-force", bruteRequests, bruteFound.size(), library.size() );
+
+    for( int pruneAfter : new int[] { 0, Integer.getInteger( "pruneAfter", 3 ) } ) {
+      TokenStore found = TokenStore.inMemory();
+      AtomicInteger requests = new AtomicInteger();
+
+      SearchExplorer explorer = new SearchExplorer(
+        alphabet, 0, 50, pruneAfter,
+        term -> CompletableFuture.supplyAsync( () -> {
+          requests.incrementAndGet();
+          return SearchFixtures.search( library, term, pageSize );
+        }, exec ),
+        found
+      );
+
+      long begin = System.nanoTime();
+      explorer.explore( ( term, results, fresh, e ) -> {} ).join();
+      report(
+        "explorer pruneAfter=" + pruneAfter + " (" + ( System.nanoTime() - begin ) / 1_000_000 + "ms)",
+        requests.get(), found.size(), library.size()
+      );
+    }
+
+    exec.shutdown();
+  }
+
+  private static void report( String name, int requests, int found, int total ) {
+    System.out.printf( "%-40s %6d requests, %5d / %d tokens (%.1f%%)%n", name, requests, found, total, found * 100.0 / total );
+  }
+}
@@ -0,0 +1,131 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+public class SearchFixtures {
+
+  private static final String[] SERIES = {
+    "Das ist", "Mach mit", "Lösungswege", "Expedition", "Blickpunkt", "Faszination", "Durchblick",
+    "Meilensteine", "Sprachräume", "Prima", "Red Line", "Make your way", "More!", "Solutions",
+    "Genial", "Kompass", "Querdenken", "Zeitbilder", "Begegnungen", "Wege", "Am Puls", "Netzwerk"
+  };
+
+  private static final String[] SUBJECTS = {
+    "Mathematik", "Deutsch", "Englisch", "Biologie", "Chemie", "Physik", "Geschichte",
+    "Geografie und Wirtschaftskunde", "Religion", "Musik", "Informatik", "Latein", "Französisch",
+    "Spanisch", "Italienisch", "Rechnungswesen", "Betriebswirtschaft", "Volkswirtschaft",
+    "Psychologie", "Philosophie", "Bildnerische Erziehung", "Ernährung", "Politische Bildung"
+  };
+
+  private static final String[] LEVELS = {
+    "1", "2", "3", "4", "5", "6", "7", "8", "HAK", "HLW", "AHS", "NMS", "Oberstufe", "Unterstufe", "HTL"
+  };
+
+  private static final String[] EXTRAS = {
+    "", "", "", "Arbeitsheft", "Übungsbuch", "Lösungen", "Kompetenztraining", "Teil A", "Teil B", "mit E-Book+"
+  };
+
+  private static final String[] RARE = {
+    "Quizbox", "Xylophon", "Yoga", "Zwetschke", "Jiu-Jitsu", "Pfadfinder", "Quantenwelt", "Kybernetik",
+    "Ökologie", "Äquator", "Übersicht", "Typografie", "Wolkenkuckucksheim", "Schwyzerdütsch", "Fjord",
+    "Hygiene", "Zytologie", "Bauhaus", "Krimskrams", "Dschungel", "Ikebana", "Quiz", "Mythos", "Vlog",
+    "Judo", "Jazz", "Pyjama", "Gymnastik", "Skizzen", "Oxymoron", "Walzer", "Knigge", "Xenia", "Zwölf",
+    "Byzanz", "Phönix", "Kuckuck", "Hexenjagd", "Pixel", "Yeti"
+  };
+
+  /**
+   * Load the library the search gets replayed against. A token-file recorded by a
+   * real run is picked up from -Dfixtures.dir as tokenlist.csv, otherwise a library
+   * of school book titles with a few rare words gets generated
+   * @return Map of token-sublink to title
+   */
+  public static Map< String, String > library() throws Exception {
+    Map< String, String > library = new LinkedHashMap<>();
+
+    String dir = System.getProperty( "fixtures.dir" );
+    File recorded = dir == null ? null : new File( dir, "tokenlist.csv" );
+    if( recorded != null && recorded.exists() ) {
+      for( String line : Files.readAllLines( recorded.toPath(), StandardCharsets.UTF_8 ) ) {
+        String[] data = line.split( ";", 2 );
+        if( !line.startsWith( "#" ) && data.length == 2 )
+          library.put( data[ 0 ], data[ 1 ] );
+      }
+      return library;
+    }
+
+    Random rand = new Random( 42 );
+    int books = Integer.getInteger( "books", 2500 );
+    for( int i = 0; i < books; i++ ) {
+      String title;
+
+      // Some titles don't follow any series
+      if( i % 40 == 0 )
+        title = RARE[ rand.nextInt( RARE.length ) ] + " " + RARE[ rand.nextInt( RARE.length ) ];
+      else {
+        title = SERIES[ rand.nextInt( SERIES.length ) ] + " " + SUBJECTS[ rand.nextInt( SUBJECTS.length ) ] +
+          " " + LEVELS[ rand.nextInt( LEVELS.length ) ];
+
+        String extra = EXTRAS[ rand.nextInt( EXTRAS.length ) ];
+        if( !extra.isEmpty() )
+          title += " " + extra;
+      }
+
+      library.put( "/token/" + Long.toHexString( rand.nextLong() ), title );
+    }
+
+    return library;
+  }
+
+  /**
+   * Answer a search like the open shelf does, every title containing the term
+   * matches and the page is cut off after a given number of results
+   * @param library Library to search in
+   * @param term Search term
+   * @param pageSize Maximum results on a page
+   * @return Map of token-sublink to title
+   */
+  public static Map< String, String > search( Map< String, String > library, String term, int pageSize ) {
+    Map< String, String > results = new LinkedHashMap<>();
+    for( Map.Entry< String, String > book : library.entrySet() ) {
+      if( results.size() >= pageSize )
+        break;
+
+      if( book.getValue().toLowerCase( Locale.ROOT ).contains( term ) )
+        results.put( book.getKey(), book.getValue() );
+    }
+    return results;
+  }
+
+  /**
+   * Render the results of a search into a response which mimics the open shelf's markup,
+   * every book is an anchor around its cover, title, publisher and level of education
+   * @param results Map of token-sublink to title
+   * @return Html of the response
+   */
+  public static String response( Map< String, String > results ) {
+    StringBuilder sb = new StringBuilder( 2048 + results.size() * 640 );
+    sb.append( "<!DOCTYPE html>\n<html lang=\"de\">\n<head>\n<meta charset=\"utf-8\">\n<title>digi4school - Open Library</title>\n" );
+    sb.append( "<script type=\"text/javascript\">var shelf = { books: " ).append( results.size() ).append( ", sort: 'title' };</script>\n" );
+    sb.append( "</head>\n<body>\n<div id=\"shelf\" class=\"shelf open\">\n" );
+
+    int i = 0;
+    for( Map.Entry< String, String > book : results.entrySet() ) {
+      String id = book.getKey().substring( book.getKey().lastIndexOf( '/' ) + 1 );
+      sb.append( "  <a class=\"tooltip\" href=\"" ).append( book.getKey() ).append( "\" target=\"_blank\" data-id=\"" ).append( id ).append( "\">\n" );
+      sb.append( "    <div class=\"img\"><img src=\"/cover/" ).append( id ).append( ".jpg\" alt=\"\" loading=\"lazy\"></div>\n" );
+      sb.append( "    <!-- book " ).append( i++ ).append( " -->\n" );
+      sb.append( "    <h1>" ).append( book.getValue() ).append( "</h1>\n" );
+      sb.append( "    <h2>" ).append( SERIES[ i % SERIES.length ] ).append( " Verlag</h2>\n" );
+      sb.append( "    <span class=\"level\">" ).append( LEVELS[ i % LEVELS.length ] ).append( "</span>\n  </a>\n" );
+    }
+
+    sb.append( "</div>\n</body>\n</html>\n" );
+    return sb.toString();
+  }
+}
@@ -0,0 +1,101 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SiteFixtures {
+
+  /**
+   * Load a recorded response from the directory passed by -Dfixtures.dir
+   * @param name File name of the response
+   * @return Content of the response, null if none was recorded
+   */
+  public static String recorded( String name ) throws Exception {
+    String dir = System.getProperty( "fixtures.dir" );
+    File recorded = dir == null ? null : new File( dir, name );
+    if( recorded == null || !recorded.exists() )
+      return null;
+    return new String( Files.readAllBytes( recorded.toPath() ), StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * Load the index of a book, recorded as index.html or generated like the viewer's
+   * index: a head full of scripts and styles, the thumbnail list and the call to
+   * IDRViewer.makeNavBar close to the end
+   * @param pages Last page of a generated book
+   * @return Html of the index
+   */
+  public static String index( int pages ) throws Exception {
+    String recorded = recorded( "index.html" );
+    return recorded != null ? recorded : generateIndex( pages );
+  }
+
+  /**
+   * Generate the index of a book with the given number of pages
+   * @param pages Last page of the book
+   * @return Html of the index
+   */
+  public static String generateIndex( int pages ) {
+    Random rand = new Random( pages );
+    StringBuilder sb = new StringBuilder( 64 * 1024 );
+    sb.append( "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Book</title>\n" );
+    sb.append( "<link rel=\"stylesheet\" href=\"../../../css/viewer.css\">\n<style>\n" );
+    for( int i = 0; i < 120; i++ )
+      sb.append( "#page" ).append( i ).append( " { width: 595px; height: 842px; margin: " ).append( rand.nextInt( 20 ) ).append( "px auto; }\n" );
+    sb.append( "</style>\n<script src=\"../../../js/idrviewer.js\"></script>\n</head>\n<body>\n<div id=\"thumbnails\">\n" );
+    for( int i = 1; i <= pages; i++ )
+      sb.append( "  <a href=\"?page=" ).append( i ).append( "\"><img src=\"" ).append( i ).append( "/thumb.png\" alt=\"Seite " ).append( i ).append( "\"></a>\n" );
+    sb.append( "</div>\n<div id=\"mainContent\"></div>\n<script type=\"text/javascript\">\n" );
+    sb.append( "  IDRViewer.config = { pagecount: " ).append( pages ).append( ", bounds: [[595,842]] };\n" );
+    sb.append( "  IDRViewer.makeNavBar( " ).append( pages ).append( ", 1, \"thumbnails\", false );\n" );
+    sb.append( "  IDRViewer.setup();\n</script>\n</body>\n</html>\n" );
+    return sb.toString();
+  }
+
+  /**
+   * Load an LTI prompt, recorded as lti.html or generated like the hidden
+   * form of an activation step with its signed oauth fields
+   * @return Html of the prompt
+   */
+  public static String lti() throws Exception {
+    String recorded = recorded( "lti.html" );
+    if( recorded != null )
+      return recorded;
+
+    Random rand = new Random( 7 );
+    String[] fields = {
+      "lti_message_type", "lti_version", "resource_link_id", "user_id", "roles", "context_id",
+      "launch_presentation_locale", "oauth_consumer_key", "oauth_nonce", "oauth_timestamp",
+      "oauth_signature_method", "oauth_version", "oauth_callback", "oauth_signature"
+    };
+
+    StringBuilder sb = new StringBuilder( 4096 );
+    sb.append( "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>digi4school</title>\n</head>\n<body>\n" );
+    sb.append( "<form id=\"lti\" method=\"post\" action=\"https://kat.digi4school.at/lti\" enctype=\"application/x-www-form-urlencoded\" style=\"display: none;\">\n" );
+    for( String field : fields )
+      sb.append( "  <input type=\"hidden\" name=\"" ).append( field ).append( "\" value=\"" ).append( Long.toHexString( rand.nextLong() ) ).append( "\">\n" );
+    sb.append( "</form>\n<script>document.getElementById('lti').submit();</script>\n</body>\n</html>\n" );
+    return sb.toString();
+  }
+
+  /**
+   * Set-Cookie headers of an activated session, as sent by the token, LTI and book hosts
+   * @return Pairs of the url the cookie came from and its header
+   */
+  public static List< String[] > cookies() {
+    List< String[] > cookies = new ArrayList<>();
+    cookies.add( new String[] { "https://digi4school.at/token/abc", "digi4s=8f1c2a; path=/; secure; HttpOnly" } );
+    cookies.add( new String[] { "https://digi4school.at/token/abc", "XSRF-TOKEN=eyJpdiI6IkR2; expires=Fri, 01-Jan-2100 00:00:00 GMT; Max-Age=7200; path=/" } );
+    cookies.add( new String[] { "https://digi4school.at/openlibrary", "cookieconsent=1; path=/" } );
+    cookies.add( new String[] { "https://kat.digi4school.at/lti", "kat_session=1b9d6bcd; path=/; secure; HttpOnly" } );
+    cookies.add( new String[] { "https://kat.digi4school.at/lti", "lti_launch=ok; path=/lti" } );
+    cookies.add( new String[] { "https://a.digi4school.at/ebook/5541/", "ad_session_id=71c2e0f4; path=/; secure" } );
+    cookies.add( new String[] { "https://a.digi4school.at/ebook/5541/", "digi4b=\"5541\"; path=/ebook/5541/" } );
+    cookies.add( new String[] { "https://a.digi4school.at/ebook/5541/", "zoom=1.25; path=/ebook/" } );
+    return cookies;
+  }
+}
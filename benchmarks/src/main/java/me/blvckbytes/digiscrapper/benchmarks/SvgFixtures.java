@@ -0,0 +1,101 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+
+public class SvgFixtures {
+
+  /**
+   * Load a page fixture. Recorded pages are picked up from the directory passed
+   * by -Dfixtures.dir as <size>.svg, otherwise a page which mimics the structure of
+   * the viewer's pages (style CDATA, defs, lots of paths and image references) gets generated
+   * @param size Size of the page, small, medium or large
+   * @return Bytes of the page, just like they come off the socket
+   */
+  public static byte[] load( String size ) throws Exception {
+    String dir = System.getProperty( "fixtures.dir" );
+    if( dir != null ) {
+      File recorded = new File( dir, size + ".svg" );
+      if( recorded.exists() )
+        return Files.readAllBytes( recorded.toPath() );
+    }
+
+    switch ( size ) {
+      case "small":
+        return generate( 64 * 1024, 8 );
+      case "medium":
+        return generate( 1024 * 1024, 40 );
+      case "large":
+        return generate( 4 * 1024 * 1024, 120 );
+      default:
+        throw new IllegalArgumentException( "Unknown fixture size " + size );
+    }
+  }
+
+  /**
+   * Rename an image the same way the downloader names its dependencies
+   * @param imgName Image reference from within the page
+   * @return New image reference
+   */
+  public static String rename( String imgName ) {
+    return imgName.replaceAll( "([^./]+).([^.]+)$", UUID.randomUUID() + ".$2" );
+  }
+
+  /**
+   * Generate a deterministic page of about the requested size
+   * @param bytes Approximate size in bytes
+   * @param images Number of image references within the page
+   * @return Bytes of the page
+   */
+  private static byte[] generate( int bytes, int images ) {
+    Random rand = new Random( bytes );
+    StringBuilder sb = new StringBuilder( bytes + 1024 );
+
+    sb.append( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" );
+    sb.append( "<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" version=\"1.1\" viewBox=\"0 0 595 842\">\n" );
+    sb.append( "<defs>\n<style type=\"text/css\"><![CDATA[\n" );
+    for( int i = 0; i < 40; i++ )
+      sb.append( ".t" ).append( i ).append( "{font-family:f" ).append( i % 7 ).append( ";font-size:" ).append( 8 + i % 12 ).append( "px;}\n" );
+    sb.append( "]]></style>\n<clipPath id=\"c0\"><rect x=\"0\" y=\"0\" width=\"595\" height=\"842\"/></clipPath>\n</defs>\n" );
+
+    // Spread the images over the page, shades reoccur
+    int perImage = bytes / ( images + 1 );
+    for( int i = 0; i < images; i++ ) {
+      String folder = i % 3 == 0 ? "shade" : "img";
+      sb.append( "<image preserveAspectRatio=\"none\" x=\"" ).append( rand.nextInt( 500 ) ).append( "\" y=\"" ).append( rand.nextInt( 800 ) )
+        .append( "\" width=\"" ).append( 20 + rand.nextInt( 300 ) ).append( "\" height=\"" ).append( 20 + rand.nextInt( 300 ) )
+        .append( '"' );
+
+      // Newer pages use plain hrefs in single quotes, some embed tiny images
+      if( i % 10 == 9 )
+        sb.append( " href='data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg=='/>\n" );
+      else if( i % 5 == 4 )
+        sb.append( " href='" ).append( folder ).append( "/" ).append( i + 1 ).append( ".png'/>\n" );
+      else
+        sb.append( " xlink:href=\"" ).append( folder ).append( "/" ).append( i + 1 ).append( ".png\"/>\n" );
+
+      int target = sb.length() + perImage;
+      while( sb.length() < target ) {
+        if( rand.nextInt( 4 ) == 0 ) {
+          sb.append( "<text class=\"t" ).append( rand.nextInt( 40 ) ).append( "\" x=\"" ).append( rand.nextInt( 595 ) ).append( "\" y=\"" )
+            .append( rand.nextInt( 842 ) ).append( "\">" );
+          for( int j = 0, len = 10 + rand.nextInt( 60 ); j < len; j++ )
+            sb.append( ( char ) ( 'a' + rand.nextInt( 26 ) ) );
+          sb.append( "</text>\n" );
+          continue;
+        }
+
+        sb.append( "<path clip-path=\"url(#c0)\" fill=\"#" ).append( Integer.toHexString( 0x100000 + rand.nextInt( 0xEFFFFF ) ) ).append( "\" d=\"" );
+        for( int j = 0, len = 4 + rand.nextInt( 30 ); j < len; j++ )
+          sb.append( j == 0 ? 'M' : 'L' ).append( rand.nextInt( 595 ) ).append( '.' ).append( rand.nextInt( 100 ) ).append( ',' ).append( rand.nextInt( 842 ) );
+        sb.append( "Z\"/>\n" );
+      }
+    }
+
+    sb.append( "</svg>\n" );
+    return sb.toString().getBytes( StandardCharsets.UTF_8 );
+  }
+}
@@ -0,0 +1,53 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.SvgRewriter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming page rewrite against the former string based path
+ * (EntityUtils.toString, injectDimCSS, regex replace per image). Run with -prof gc
+ * to see the allocation rate of both
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class SvgRewriteBenchmark {
+
+  @Param( { "small", "medium", "large" } )
+  private String size;
+
+  private byte[] page;
+
+  @Setup
+  public void setup() throws Exception {
+    this.page = SvgFixtures.load( this.size );
+  }
+
+  @Benchmark
+  public void stringPath( Blackhole bh ) throws Exception {
+    String svg = new String( this.page, StandardCharsets.UTF_8 );
+    svg = LegacySvgPath.injectDimCSS( svg );
+    svg = LegacySvgPath.rewriteImages( svg );
+
+    Writer out = new BlackholeWriter( bh );
+    out.write( svg );
+  }
+
+  @Benchmark
+  public void streamingPath( Blackhole bh ) throws Exception {
+    SvgRewriter.rewrite(
+      new InputStreamReader( new ByteArrayInputStream( this.page ), StandardCharsets.UTF_8 ),
+      new BlackholeWriter( bh ), SvgFixtures::rename
+    );
+  }
+}
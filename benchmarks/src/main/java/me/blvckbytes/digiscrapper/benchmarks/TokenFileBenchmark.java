@@ -0,0 +1,51 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.TokenFile;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the token-file at the end of a scan and reading it back when the downloader
+ * starts. The library is the recorded tokenlist.csv within -Dfixtures.dir or a generated
+ * one, -Dbooks scales the generated library
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TokenFileBenchmark {
+
+  private Map< String, String > library;
+  private File written, read;
+
+  @Setup
+  public void setup() throws Exception {
+    this.library = SearchFixtures.library();
+    this.written = File.createTempFile( "tokenlist-write", ".csv" );
+    this.read = File.createTempFile( "tokenlist-read", ".csv" );
+    TokenFile.write( this.read, this.library.entrySet(), 0 );
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    Files.deleteIfExists( this.written.toPath() );
+    Files.deleteIfExists( this.read.toPath() );
+  }
+
+  @Benchmark
+  public void write() throws Exception {
+    TokenFile.write( this.written, this.library.entrySet(), 17576 );
+  }
+
+  @Benchmark
+  public int read( Blackhole bh ) throws Exception {
+    return TokenFile.read( this.read, ( token, title ) -> bh.consume( token ) );
+  }
+}
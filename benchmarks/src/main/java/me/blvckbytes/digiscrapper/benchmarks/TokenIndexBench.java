@@ -0,0 +1,92 @@
+package me.blvckbytes.digiscrapper.benchmarks;
+
+import me.blvckbytes.digiscrapper.TokenFile;
+import me.blvckbytes.digiscrapper.TokenIndex;
+import me.blvckbytes.digiscrapper.TokenStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Loads a generated token-file with millions of entries into a hash map and into
+ * the token index, then reports the load time and the heap that stays in use:
+ * java -cp benchmarks.jar me.blvckbytes.digiscrapper.benchmarks.TokenIndexBench
+ * Options: -Dentries=2000000
+ */
+public class TokenIndexBench {
+
+  public static void main( String[] args ) throws Exception {
+    int entries = Integer.getInteger( "entries", 2_000_000 );
+    File tokens = File.createTempFile( "tokenlist-index", ".csv" );
+    File index = File.createTempFile( "tokenlist-index", ".index" );
+
+    try {
+      TokenFile.write( tokens, generate( entries ).entrySet(), 0 );
+      System.out.printf( "%d entries, token-file %.1f MB%n", entries, tokens.length() / 1024.0 / 1024.0 );
+
+      load( "hashmap", tokens, TokenStore.inMemory() );
+
+      try ( TokenIndex tokenIndex = new TokenIndex( index ) ) {
+        tokenIndex.open();
+        load( "index", tokens, tokenIndex );
+      }
+    } finally {
+      Files.deleteIfExists( tokens.toPath() );
+      Files.deleteIfExists( index.toPath() );
+    }
+  }
+
+  /**
+   * Read the token-file into a map and print the time it took and the heap it retains
+   */
+  private static void load( String name, File tokens, TokenStore target ) throws Exception {
+    long heap = usedHeap();
+    long begin = System.nanoTime();
+    TokenFile.read( tokens, ( token, title ) -> target.putIfAbsent( "/token/" + token, title ) );
+    double secs = ( System.nanoTime() - begin ) / 1e9;
+
+    long retained = usedHeap() - heap;
+    System.out.printf(
+      "%-8s load %.2fs, %d entries, retained heap %.1f MB (%.0f bytes/entry)%n",
+      name, secs, target.size(), retained / 1024.0 / 1024.0, ( double ) retained / target.size()
+    );
+  }
+
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for( int i = 0; i < 3; i++ )
+      System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  /**
+   * Tokens of random letters and digits with titles taken from the fixture library
+   */
+  private static Map< String, String > generate( int entries ) throws IOException {
+    List< String > titles;
+    try {
+      titles = new ArrayList<>( SearchFixtures.library().values() );
+    } catch ( Exception e ) {
+      throw new IOException( e );
+    }
+
+    Random rand = new Random( 42 );
+    char[] alphabet = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    Map< String, String > library = new HashMap<>( entries * 2 );
+
+    while( library.size() < entries ) {
+      char[] token = new char[ 12 ];
+      for( int i = 0; i < token.length; i++ )
+        token[ i ] = alphabet[ rand.nextInt( alphabet.length ) ];
+      library.put( "/token/" + new String( token ), titles.get( rand.nextInt( titles.size() ) ) );
+    }
+
+    return library;
+  }
+}
@@ -0,0 +1,85 @@
+package me.blvckbytes.digiscrapper;
+
+import org.apache.http.NameValuePair;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AsyncTransport implements Transport {
+
+  // Headers which the client sets on it's own and doesn't allow to be set
+  private static final Set< String > RESTRICTED = new HashSet<>( Arrays.asList(
+    "host", "connection", "content-length", "expect", "upgrade"
+  ) );
+
+  private HttpClient following, direct;
+  private ExecutorService exec;
+
+  /**
+   * Fully asynchronous transport on top of the NIO based java.net.http client,
+   * waiting for a response doesn't occupy any thread, so thousands of requests
+   * can be in flight on a handful of threads
+   */
+  public AsyncTransport() {
+    this.exec = Executors.newFixedThreadPool( Math.max( 1, Config.getInt( "asyncThreads", 4 ) ) );
+
+    // No cookie handler, the session's cookie jar is the only source of cookies
+    HttpClient.Builder builder = HttpClient.newBuilder()
+      .executor( this.exec )
+      .connectTimeout( Duration.ofSeconds( Utils.TIMEOUT_SECONDS ) );
+
+    // Redirect policy is per client, so there's one client for each
+    this.following = builder.followRedirects( HttpClient.Redirect.NORMAL ).build();
+    this.direct = builder.followRedirects( HttpClient.Redirect.NEVER ).build();
+  }
+
+  @Override
+  public CompletableFuture< TransportResponse > send( TransportRequest request ) {
+    HttpRequest.Builder builder;
+
+    try {
+      builder = HttpRequest.newBuilder( URI.create( request.getUrl() ) )
+        .timeout( Duration.ofSeconds( Utils.TIMEOUT_SECONDS ) );
+
+      for( NameValuePair header : request.getHeaders() ) {
+        if( !RESTRICTED.contains( header.getName().toLowerCase() ) )
+          builder.header( header.getName(), header.getValue() );
+      }
+
+      // Attach form body, if any
+      if( request.getForm() != null ) {
+        builder.header( "Content-Type", "application/x-www-form-urlencoded; charset=ISO-8859-1" );
+        builder.POST( HttpRequest.BodyPublishers.ofString( request.encodeForm(), StandardCharsets.ISO_8859_1 ) );
+      }
+      else
+        builder.GET();
+    } catch ( Exception e ) {
+      CompletableFuture< TransportResponse > failed = new CompletableFuture<>();
+      failed.completeExceptionally( e );
+      return failed;
+    }
+
+    HttpClient client = request.isFollowRedirects() ? this.following : this.direct;
+    return client.sendAsync( builder.build(), HttpResponse.BodyHandlers.ofInputStream() )
+      .thenApply( resp -> {
+        InputStream body = resp.body();
+        return new TransportResponse( resp.statusCode(), resp.uri().toString(), resp.headers().map(), body, () -> {} );
+      } );
+  }
+
+  @Override
+  public void close() {
+    this.exec.shutdown();
+  }
+}
@@ -0,0 +1,101 @@
+package me.blvckbytes.digiscrapper;
+
+import org.apache.http.Header;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+public class BlockingTransport implements Transport {
+
+  private CloseableHttpClient client;
+  private ExecutorService exec;
+
+  /**
+   * Transport on top of the pooled blocking client, every request
+   * occupies a thread of the shared worker pool until the response head arrived
+   */
+  public BlockingTransport() {
+    this.client = Utils.createFastClient();
+    this.exec = Workers.shared();
+  }
+
+  @Override
+  public CompletableFuture< TransportResponse > send( TransportRequest request ) {
+    return CompletableFuture.supplyAsync( () -> {
+      try {
+        return execute( request );
+      } catch ( IOException e ) {
+        throw new CompletionException( e );
+      }
+    }, this.exec );
+  }
+
+  /**
+   * Execute a request on the calling thread
+   * @param request Request to execute
+   * @return Response with the streamed entity
+   * @throws IOException Errors while executing
+   */
+  private TransportResponse execute( TransportRequest request ) throws IOException {
+    HttpRequestBase req;
+
+    // Create request with body, if any
+    if( request.getForm() != null ) {
+      HttpPost post = new HttpPost( request.getUrl() );
+      post.setEntity( new UrlEncodedFormEntity( request.getForm() ) );
+      req = post;
+    }
+    else
+      req = new HttpGet( request.getUrl() );
+
+    for( NameValuePair header : request.getHeaders() )
+      req.addHeader( header.getName(), header.getValue() );
+
+    req.setConfig( RequestConfig.copy( Utils.createRequestConfig() ).setRedirectsEnabled( request.isFollowRedirects() ).build() );
+
+    HttpClientContext context = HttpClientContext.create();
+    CloseableHttpResponse resp = this.client.execute( req, context );
+
+    // Resolve the url of the last hop
+    String url = request.getUrl();
+    List< URI > redirects = context.getRedirectLocations();
+    if( redirects != null && !redirects.isEmpty() )
+      url = redirects.get( redirects.size() - 1 ).toString();
+
+    // Collect headers by name
+    Map< String, List< String > > headers = new HashMap<>();
+    for( Header header : resp.getAllHeaders() )
+      headers.computeIfAbsent( header.getName(), k -> new ArrayList<>() ).add( header.getValue() );
+
+    InputStream body = resp.getEntity() == null ? new ByteArrayInputStream( new byte[ 0 ] ) : resp.getEntity().getContent();
+    return new TransportResponse( resp.getStatusLine().getStatusCode(), url, headers, body, () -> {
+      try {
+        resp.close();
+      } catch ( IOException ignored ) {}
+    } );
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The worker pool is shared with the other transports and stays up
+    this.client.close();
+  }
+}
@@ -0,0 +1,499 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class BookArchive implements Closeable {
+
+  /*
+   * Layout of an archive:
+   * header:  "DSBOOK01"
+   * entries: int ENTRY_MAGIC, short name length, name (UTF-8), long length, int crc32, data
+   * index:   records sorted by name: short name length, name, long data offset, long length, int crc32
+   * slots:   int position of every record relative to the index
+   * footer:  long index offset, long slots offset, int count, int SEAL_MAGIC
+   * The index and footer only exist once the archive got sealed
+   */
+  private static final byte[] HEADER = "DSBOOK01".getBytes( StandardCharsets.US_ASCII );
+  private static final int ENTRY_MAGIC = 0x44534245, SEAL_MAGIC = 0x44534258;
+  private static final int ENTRY_HEAD = 4 + 2 + 8 + 4, FOOTER = 8 + 8 + 4 + 4;
+
+  private File file;
+  private FileChannel channel;
+  private Map< String, Entry > entries;
+  private long end;
+
+  private BookArchive( File file, FileChannel channel ) {
+    this.file = file;
+    this.channel = channel;
+    this.entries = new LinkedHashMap<>();
+  }
+
+  /**
+   * Open an archive for appending, it's created if it doesn't exist. A sealed
+   * archive drops its index until it's sealed again, an archive which wasn't
+   * sealed is recovered up to the last complete entry and continues from there
+   * @param file File of the archive
+   * @return Archive ready for appending
+   * @throws IOException Errors while reading or a file which isn't an archive
+   */
+  public static BookArchive open( File file ) throws IOException {
+    FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+    BookArchive archive = new BookArchive( file, channel );
+
+    try {
+      archive.recover();
+    } catch ( IOException e ) {
+      channel.close();
+      throw e;
+    }
+
+    return archive;
+  }
+
+  /**
+   * Check whether an archive got sealed, which means its book is complete
+   * @param file File of the archive
+   * @return True if sealed
+   */
+  public static boolean isSealed( File file ) {
+    try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+      return readFooter( channel ) != null;
+    } catch ( IOException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Check whether the book of an archive is complete, it has to be sealed and must
+   * not carry the error file of a damaged book, like archives of older versions do
+   * @param file File of the archive
+   * @return True if complete
+   */
+  public static boolean isComplete( File file ) {
+    try ( Reader reader = new Reader( file ) ) {
+      return reader.read( "error.txt" ) == null;
+    } catch ( IOException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Check whether an entry has been appended already
+   * @param name Name of the entry
+   * @return True if it exists
+   */
+  public synchronized boolean contains( String name ) {
+    return this.entries.containsKey( name );
+  }
+
+  /**
+   * Forget an entry, it stays within the file but is left out of the index once sealed
+   * @param name Name of the entry
+   */
+  public synchronized void forget( String name ) {
+    this.entries.remove( name );
+  }
+
+  /**
+   * Append an entry from memory
+   * @param name Name of the entry, f.e. 12.svg or img/[uuid].png
+   * @param data Content of the entry
+   * @throws IOException Errors while writing
+   */
+  public synchronized void append( String name, byte[] data ) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update( data );
+
+    long offset = writeHead( name, data.length, crc.getValue() );
+    writeFully( ByteBuffer.wrap( data ) );
+    commit( name, offset, data.length, crc.getValue() );
+  }
+
+  /**
+   * Append an entry from a file written by the sink, the content is copied
+   * by the file system without passing through the heap
+   * @param name Name of the entry, f.e. 12.svg or img/[uuid].png
+   * @param content File containing the content, not committed yet
+   * @param crc CRC32 of the content
+   * @throws IOException Errors while copying
+   */
+  public synchronized void append( String name, FileSink.Output content, long crc ) throws IOException {
+    long length = content.getSize();
+    long offset = writeHead( name, length, crc );
+
+    if( content.transferTo( this.channel ) != length )
+      throw new IOException( "Content of " + name + " changed while appending!" );
+
+    commit( name, offset, length, crc );
+  }
+
+  /**
+   * Seal the archive by writing the index, all entries are forced to disk first
+   * so a sealed archive always contains all of its entries
+   * @throws IOException Errors while writing
+   */
+  public synchronized void seal() throws IOException {
+    this.channel.force( false );
+
+    // Records are sorted by their encoded names, which is what lookups compare
+    byte[][] names = new byte[ this.entries.size() ][];
+    int i = 0;
+    for( String name : this.entries.keySet() )
+      names[ i++ ] = name.getBytes( StandardCharsets.UTF_8 );
+    Arrays.sort( names, Arrays::compareUnsigned );
+
+    int size = 0;
+    for( byte[] name : names )
+      size += 2 + name.length + 8 + 8 + 4;
+
+    ByteBuffer index = ByteBuffer.allocate( size + names.length * 4 + FOOTER );
+    int[] slots = new int[ names.length ];
+    for( i = 0; i < names.length; i++ ) {
+      Entry entry = this.entries.get( new String( names[ i ], StandardCharsets.UTF_8 ) );
+      slots[ i ] = index.position();
+      index.putShort( ( short ) names[ i ].length ).put( names[ i ] );
+      index.putLong( entry.offset ).putLong( entry.length ).putInt( ( int ) entry.crc );
+    }
+
+    for( int slot : slots )
+      index.putInt( slot );
+
+    index.putLong( this.end ).putLong( this.end + size ).putInt( names.length ).putInt( SEAL_MAGIC );
+    index.flip();
+
+    // Drop what's left of a failed append
+    this.channel.truncate( this.end );
+    this.channel.position( this.end );
+    writeFully( index );
+    this.channel.force( true );
+  }
+
+  /**
+   * Get the number of entries
+   * @return Number of entries
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Load the entries of the archive and cut off everything after the last complete one
+   */
+  private void recover() throws IOException {
+    long size = this.channel.size();
+
+    // Fresh archive
+    if( size == 0 ) {
+      writeFully( ByteBuffer.wrap( HEADER ) );
+      this.end = HEADER.length;
+      return;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate( HEADER.length );
+    readFully( header, 0 );
+    if( !Arrays.equals( header.array(), HEADER ) )
+      throw new IOException( this.file + " is not a book archive!" );
+
+    // Sealed archives have an index, which gets overwritten by the next entry
+    Footer footer = readFooter( this.channel );
+    if( footer != null ) {
+      loadIndex( footer );
+      this.end = footer.indexOffset;
+      this.channel.truncate( this.end );
+      dropIncompletePages();
+      return;
+    }
+
+    // Walk all entries, a torn or damaged entry ends the archive
+    long pos = HEADER.length;
+    ByteBuffer head = ByteBuffer.allocate( ENTRY_HEAD );
+    ByteBuffer chunk = ByteBuffer.allocate( 64 * 1024 );
+
+    while( pos + ENTRY_HEAD <= size ) {
+      head.clear();
+      readFully( head, pos );
+      head.flip();
+
+      if( head.getInt() != ENTRY_MAGIC )
+        break;
+
+      int nameLength = head.getShort() & 0xFFFF;
+      long length = head.getLong();
+      long crc = head.getInt() & 0xFFFFFFFFL;
+      long data = pos + ENTRY_HEAD + nameLength;
+      if( length < 0 || data + length > size )
+        break;
+
+      ByteBuffer name = ByteBuffer.allocate( nameLength );
+      readFully( name, pos + ENTRY_HEAD );
+
+      // Data which didn't make it to disk before a crash fails its checksum
+      CRC32 actual = new CRC32();
+      for( long read = 0; read < length; ) {
+        chunk.clear();
+        chunk.limit( ( int ) Math.min( chunk.capacity(), length - read ) );
+        readFully( chunk, data + read );
+        chunk.flip();
+        actual.update( chunk );
+        read += chunk.limit();
+      }
+
+      if( actual.getValue() != crc )
+        break;
+
+      this.entries.put( new String( name.array(), StandardCharsets.UTF_8 ), new Entry( data, length, crc ) );
+      pos = data + length;
+    }
+
+    this.end = pos;
+    this.channel.truncate( pos );
+    dropIncompletePages();
+  }
+
+  /**
+   * Forget pages which reference images that aren't within the archive, so they get
+   * downloaded again. Their entries stay in the file, appending the page anew supersedes them
+   */
+  private void dropIncompletePages() throws IOException {
+    int dropped = 0;
+
+    for( Iterator< Map.Entry< String, Entry > > it = this.entries.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry< String, Entry > entry = it.next();
+      if( !entry.getKey().endsWith( ".svg" ) )
+        continue;
+
+      ByteBuffer data = ByteBuffer.allocate( ( int ) entry.getValue().length );
+      readFully( data, entry.getValue().offset );
+
+      List< String > references = SvgRewriter.imageReferences( new StringReader( new String( data.array(), StandardCharsets.UTF_8 ) ) );
+      for( String reference : references ) {
+        if( !this.entries.containsKey( reference ) ) {
+          it.remove();
+          dropped++;
+          break;
+        }
+      }
+    }
+
+    if( dropped > 0 )
+      System.out.println( "Dropped " + dropped + " pages of " + this.file.getName() + " whose images are missing" );
+  }
+
+  private void loadIndex( Footer footer ) throws IOException {
+    ByteBuffer index = ByteBuffer.allocate( ( int ) ( footer.slotsOffset - footer.indexOffset ) );
+    readFully( index, footer.indexOffset );
+    index.flip();
+
+    // Restore the order the entries were appended in
+    List< Map.Entry< String, Entry > > loaded = new ArrayList<>( footer.count );
+    for( int i = 0; i < footer.count; i++ ) {
+      byte[] name = new byte[ index.getShort() & 0xFFFF ];
+      index.get( name );
+      Entry entry = new Entry( index.getLong(), index.getLong(), index.getInt() & 0xFFFFFFFFL );
+      loaded.add( Map.entry( new String( name, StandardCharsets.UTF_8 ), entry ) );
+    }
+
+    loaded.sort( ( a, b ) -> Long.compare( a.getValue().offset, b.getValue().offset ) );
+    for( Map.Entry< String, Entry > entry : loaded )
+      this.entries.put( entry.getKey(), entry.getValue() );
+  }
+
+  /**
+   * Write the head of an entry at the end of the archive
+   * @return Offset of the entry's data
+   */
+  private long writeHead( String name, long length, long crc ) throws IOException {
+    byte[] encoded = name.getBytes( StandardCharsets.UTF_8 );
+    if( encoded.length > 0xFFFF )
+      throw new IOException( "Entry name too long: " + name );
+
+    ByteBuffer head = ByteBuffer.allocate( ENTRY_HEAD + encoded.length );
+    head.putInt( ENTRY_MAGIC ).putShort( ( short ) encoded.length ).putLong( length ).putInt( ( int ) crc );
+    head.put( encoded ).flip();
+
+    this.channel.position( this.end );
+    writeFully( head );
+    return this.end + head.limit();
+  }
+
+  private void commit( String name, long offset, long length, long crc ) {
+    this.entries.put( name, new Entry( offset, length, crc ) );
+    this.end = offset + length;
+  }
+
+  private void writeFully( ByteBuffer buf ) throws IOException {
+    while( buf.hasRemaining() )
+      this.channel.write( buf );
+  }
+
+  private void readFully( ByteBuffer buf, long pos ) throws IOException {
+    while( buf.hasRemaining() ) {
+      int read = this.channel.read( buf, pos + buf.position() );
+      if( read < 0 )
+        throw new IOException( "Unexpected end of " + this.file );
+    }
+  }
+
+  /**
+   * Read the footer of a sealed archive
+   * @return Footer, null if the archive isn't sealed
+   */
+  private static Footer readFooter( FileChannel channel ) throws IOException {
+    long size = channel.size();
+    if( size < HEADER.length + FOOTER )
+      return null;
+
+    ByteBuffer buf = ByteBuffer.allocate( FOOTER );
+    while( buf.hasRemaining() ) {
+      if( channel.read( buf, size - FOOTER + buf.position() ) < 0 )
+        return null;
+    }
+    buf.flip();
+
+    Footer footer = new Footer( buf.getLong(), buf.getLong(), buf.getInt() );
+    if( buf.getInt() != SEAL_MAGIC )
+      return null;
+
+    // The index has to fit in between the header and the footer
+    boolean valid = footer.indexOffset >= HEADER.length && footer.slotsOffset >= footer.indexOffset &&
+      footer.count >= 0 && footer.slotsOffset + footer.count * 4L + FOOTER == size;
+    return valid ? footer : null;
+  }
+
+  /**
+   * Read access to a sealed archive. The index is memory mapped and looked up by
+   * binary search, so any page can be read without loading the whole book
+   */
+  public static class Reader implements Closeable {
+
+    private FileChannel channel;
+    private MappedByteBuffer index;
+    private int count, slots;
+
+    /**
+     * Open a sealed archive for reading
+     * @param file File of the archive
+     * @throws IOException Errors while mapping or an archive which isn't sealed
+     */
+    public Reader( File file ) throws IOException {
+      this.channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+      Footer footer = readFooter( this.channel );
+      if( footer == null ) {
+        this.channel.close();
+        throw new IOException( file + " is not a sealed book archive!" );
+      }
+
+      this.index = this.channel.map( FileChannel.MapMode.READ_ONLY, footer.indexOffset, this.channel.size() - footer.indexOffset );
+      this.count = footer.count;
+      this.slots = ( int ) ( footer.slotsOffset - footer.indexOffset );
+    }
+
+    /**
+     * Get the number of entries
+     * @return Number of entries
+     */
+    public int size() {
+      return this.count;
+    }
+
+    /**
+     * Read a page of the book
+     * @param page Number of the page
+     * @return Content of the page, null if it doesn't exist
+     * @throws IOException Errors while mapping
+     */
+    public ByteBuffer readPage( int page ) throws IOException {
+      return read( page + ".svg" );
+    }
+
+    /**
+     * Read an entry, the content is mapped and not copied
+     * @param name Name of the entry
+     * @return Content of the entry, null if it doesn't exist
+     * @throws IOException Errors while mapping
+     */
+    public ByteBuffer read( String name ) throws IOException {
+      byte[] key = name.getBytes( StandardCharsets.UTF_8 );
+      int low = 0, high = this.count - 1;
+
+      while( low <= high ) {
+        int mid = ( low + high ) >>> 1;
+        int record = this.index.getInt( this.slots + mid * 4 );
+        int cmp = compare( record, key );
+
+        if( cmp < 0 )
+          low = mid + 1;
+        else if( cmp > 0 )
+          high = mid - 1;
+        else {
+          int data = record + 2 + key.length;
+          long offset = this.index.getLong( data );
+          long length = this.index.getLong( data + 8 );
+          return this.channel.map( FileChannel.MapMode.READ_ONLY, offset, length );
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Compare the name of a record with a key, bytes are compared unsigned
+     */
+    private int compare( int record, byte[] key ) {
+      int length = this.index.getShort( record ) & 0xFFFF;
+      for( int i = 0; i < Math.min( length, key.length ); i++ ) {
+        int cmp = Integer.compare( this.index.get( record + 2 + i ) & 0xFF, key[ i ] & 0xFF );
+        if( cmp != 0 )
+          return cmp;
+      }
+      return Integer.compare( length, key.length );
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.channel.close();
+    }
+  }
+
+  private static class Entry {
+    private final long offset, length, crc;
+
+    private Entry( long offset, long length, long crc ) {
+      this.offset = offset;
+      this.length = length;
+      this.crc = crc;
+    }
+  }
+
+  private static class Footer {
+    private final long indexOffset, slotsOffset;
+    private final int count;
+
+    private Footer( long indexOffset, long slotsOffset, int count ) {
+      this.indexOffset = indexOffset;
+      this.slotsOffset = slotsOffset;
+      this.count = count;
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BookCache implements Closeable {
+
+  private static final char BOOK = 'B', INVALID = 'X';
+
+  private File file;
+  private long ttl;
+  private Writer writer;
+  private Map< String, Entry > entries;
+
+  // Metrics
+  private int hits, misses, invalidations;
+
+  /**
+   * Persistent cache of resolved books, so a later run can skip the token activation,
+   * both LTI stages, the book page and the page count lookup. Entries expire after
+   * a while and get invalidated as soon as the book denies a request.
+   * Lines are written in the following formats:
+   * B;token;created;last page;extra material id;url template;cookies separated by tabs
+   * X;token
+   * Semicolons and percent signs of the url template are percent-encoded
+   * @param file File of the cache, gets created if non existent
+   * @param ttl Milliseconds after which an entry expires, 0 disables the cache
+   */
+  public BookCache( File file, long ttl ) {
+    this.file = file;
+    this.ttl = ttl;
+    this.entries = new HashMap<>();
+  }
+
+  /**
+   * Create a cache with the ttl configured by the setting bookCacheTtl (minutes)
+   * @param file File of the cache
+   * @return Unopened cache
+   */
+  public static BookCache fromConfig( File file ) {
+    return new BookCache( file, Config.getInt( "bookCacheTtl", 720 ) * 60_000L );
+  }
+
+  /**
+   * Load all entries which didn't expire yet and compact the file to them
+   * @throws IOException Errors while reading or writing the cache
+   */
+  public synchronized void open() throws IOException {
+    long now = System.currentTimeMillis();
+
+    // Disabled, nothing is read or written
+    if( this.ttl <= 0 )
+      return;
+
+    if( this.file.exists() ) {
+      for( String line : Files.readAllLines( this.file.toPath(), StandardCharsets.UTF_8 ) ) {
+        String[] parts = line.split( ";", 7 );
+
+        try {
+          if( parts[ 0 ].equals( String.valueOf( INVALID ) ) )
+            this.entries.remove( parts[ 1 ] );
+
+          else if( parts[ 0 ].equals( String.valueOf( BOOK ) ) ) {
+            List< String > cookies = parts[ 6 ].isEmpty() ? Collections.emptyList() : Arrays.asList( parts[ 6 ].split( "\t" ) );
+            Entry entry = new Entry( unescape( parts[ 5 ] ), parts[ 4 ], Integer.parseInt( parts[ 3 ] ), cookies, Long.parseLong( parts[ 2 ] ) );
+            this.entries.put( parts[ 1 ], entry );
+          }
+        } catch ( NumberFormatException | ArrayIndexOutOfBoundsException e ) {
+          System.out.println( "Skipping damaged book cache line: " + line );
+        }
+      }
+    }
+
+    this.entries.values().removeIf( entry -> now - entry.created >= this.ttl );
+
+    // Swap in the compacted cache
+    File temp = new File( this.file.getAbsolutePath() + ".part" );
+    try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( temp ), StandardCharsets.UTF_8 ) ) ) {
+      for( Map.Entry< String, Entry > entry : this.entries.entrySet() )
+        writer.write( line( entry.getKey(), entry.getValue() ) );
+    }
+    Files.move( temp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+
+    this.writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.file, true ), StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * Get the cached location of a book
+   * @param token Token of the book
+   * @return Entry, null if unknown or expired
+   */
+  public synchronized Entry get( String token ) {
+    Entry entry = this.entries.get( token );
+    if( entry != null && System.currentTimeMillis() - entry.created >= this.ttl ) {
+      this.entries.remove( token );
+      entry = null;
+    }
+
+    if( entry == null )
+      this.misses++;
+    else
+      this.hits++;
+
+    return entry;
+  }
+
+  /**
+   * Cache the location of a freshly resolved book
+   * @param token Token of the book
+   * @param entry Resolved location
+   */
+  public synchronized void put( String token, Entry entry ) {
+    if( this.ttl <= 0 )
+      return;
+
+    this.entries.put( token, entry );
+    write( line( token, entry ) );
+  }
+
+  /**
+   * Forget the location of a book since it got denied
+   * @param token Token of the book
+   */
+  public synchronized void invalidate( String token ) {
+    if( this.entries.remove( token ) == null )
+      return;
+
+    this.invalidations++;
+    write( INVALID + ";" + token + "\n" );
+  }
+
+  /**
+   * Describe how well the cache performed
+   * @return Human readable metrics
+   */
+  public synchronized String describe() {
+    return String.format(
+      "Book cache: %d hits, %d misses, %d invalidated, %d entries",
+      this.hits, this.misses, this.invalidations, this.entries.size()
+    );
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if( this.writer != null )
+      this.writer.close();
+  }
+
+  private void write( String line ) {
+    // Cache is best effort, losing a line only costs another activation
+    try {
+      this.writer.write( line );
+      this.writer.flush();
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
+  }
+
+  private static String line( String token, Entry entry ) {
+    return BOOK + ";" + token + ";" + entry.created + ";" + entry.lastPage + ";" + entry.extraId + ";" +
+      escape( entry.urlTemplate ) + ";" + String.join( "\t", entry.cookies ) + "\n";
+  }
+
+  /**
+   * Urls may contain semicolons, which would shift the columns behind them
+   */
+  private static String escape( String value ) {
+    return value.replace( "%", "%25" ).replace( ";", "%3B" );
+  }
+
+  private static String unescape( String value ) {
+    return value.replace( "%3B", ";" ).replace( "%25", "%" );
+  }
+
+  public static class Entry {
+    // Template of the page urls with {{page}} and {{file}} placeholders
+    public final String urlTemplate;
+
+    // Id of the book within its extra material, empty if there's none
+    public final String extraId;
+
+    public final int lastPage;
+
+    // Cookies of the session the book got activated on, as exported by the cookie jar
+    public final List< String > cookies;
+
+    public final long created;
+
+    public Entry( String urlTemplate, String extraId, int lastPage, List< String > cookies, long created ) {
+      this.urlTemplate = urlTemplate;
+      this.extraId = extraId;
+      this.lastPage = lastPage;
+      this.cookies = cookies;
+      this.created = created;
+    }
+  }
+}
@@ -1,39 +1,60 @@
 package me.blvckbytes.digiscrapper;
 
-import org.apache.http.Header;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class BookDownloader {
 
-  private File tokenFile, outputDir;
-  private Map< String, String > tokens;
-  private BrowserCookie cookie;
-  private CloseableHttpClient client;
+  private File outputDir;
+  private TokenQueue tokens;
+  private FileSink files;
+  private Map< String, BookArchive > archives;
+  private Map< String, BookManifest > manifests;
+  private ImageStore imageStore;
+  private SessionPool sessions;
+  private BookCache bookCache;
+  private PageCollector collector;
+  private Set< String > deniedBooks;
   private ExecutorService pageExec;
   private ExecutorService depExec;
+  private FairExecutor bookExec;
+  private int parallelBooks;
+  private boolean archived;
+
+  // Throughput tracking
+  private long runStart;
+  private AtomicLong pagesDone, finishedBookPages;
+  private AtomicInteger booksDone, booksActive;
+  private LongAdder retries;
 
   /**
    * Downloads all books frsom a provided token file. This file needs to contain
@@ -42,472 +63,1009 @@ public class BookDownloader {
    * @param outputDir Folder containing book pages
    */
   public BookDownloader( File tokenFile, File outputDir ) {
-    this.tokenFile = tokenFile;
+    this( readTokens( tokenFile ), outputDir );
+  }
+
+  /**
+   * Downloads all books whose tokens get published to the queue, until the
+   * end of the queue is reached. Already downloaded books are skipped
+   * @param tokens Queue of tokens to download
+   * @param outputDir Folder containing book pages
+   */
+  public BookDownloader( TokenQueue tokens, File outputDir ) {
+    this( tokens, null, outputDir );
+  }
+
+  /**
+   * Downloads all books whose tokens get published to the queue while the scan
+   * is still running, pdfs are named after the titles it found so far
+   * @param tokens Queue of tokens to download
+   * @param titles Tokens of the scan with their titles, null to read them from the token file
+   * @param outputDir Folder containing book pages
+   */
+  public BookDownloader( TokenQueue tokens, TokenStore titles, File outputDir ) {
+    this.tokens = tokens;
     this.outputDir = outputDir;
-    this.tokens = new HashMap<>();
-    this.cookie = new BrowserCookie();
+    this.files = new FileSink( BufferPool.fromConfig() );
+    this.imageStore = new ImageStore( new File( outputDir.getAbsoluteFile().getParentFile(), "imagestore" ), this.files );
 
-    // Threadpools for page download and page dependency download (images)
-    // These numbers could be higher, sure, but my internet speed won't support it anyways...
-    this.pageExec = Executors.newFixedThreadPool( 40 );
-    this.depExec = Executors.newFixedThreadPool( 150 );
+    // Urls of images stored by earlier runs, a broken index only costs requests
+    try {
+      this.imageStore.open();
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
 
-    // Create file if non existent
+    // Books are either written as folders of loose files or packed into one archive each
+    this.archived = Config.getString( "output", "folders" ).equalsIgnoreCase( "archive" );
+    this.archives = new ConcurrentHashMap<>();
+    this.manifests = new ConcurrentHashMap<>();
+
+    // Resolved books of earlier runs, a broken cache only costs activations
+    this.bookCache = BookCache.fromConfig( new File( outputDir.getAbsoluteFile().getParentFile(), "bookcache.csv" ) );
+    this.deniedBooks = ConcurrentHashMap.newKeySet();
     try {
-      if( this.tokenFile.exists() && this.tokenFile.createNewFile() )
-        System.out.println( "Provided tokenfile did not exist, made a new one!" );
+      this.bookCache.open();
     } catch ( IOException e ) {
       e.printStackTrace();
     }
 
+    // Finished books are collected into pdfs while the next ones download
+    if( Config.getBoolean( "pdf", false ) )
+      this.collector = new PageCollector( outputDir, titles );
+
+    // Threadpools for page download and page dependency download (images)
+    // These numbers could be higher, sure, but my internet speed won't support it anyways...
+    // In virtual mode every page and image gets its own thread, bound by the host limits
+    this.pageExec = Workers.create( 40 );
+    this.depExec = Workers.create( 150 );
+
+    // Multiple books are in flight at once, their pages share the page pool in turns
+    this.parallelBooks = Math.max( 1, Config.getInt( "parallelBooks", 4 ) );
+    this.bookExec = new FairExecutor( this.pageExec, Config.getInt( "pageParallelism", 40 ) );
+    this.pagesDone = new AtomicLong( 0 );
+    this.finishedBookPages = new AtomicLong( 0 );
+    this.booksDone = new AtomicInteger( 0 );
+    this.booksActive = new AtomicInteger( 0 );
+    this.retries = Metrics.get().counter( "retries_total", "Requests and books which got retried" );
+    registerMetrics();
+
     System.out.println( "Starting to download book pages..." );
 
     // Begin processing
-    this.client = Utils.createFastClient();
-    readTokens();
+    this.sessions = SessionPool.fromConfig( this.parallelBooks );
     processTokens();
   }
 
   /**
-   * Process all tokens in order to receive all books with corresponding images
+   * Process all tokens in order to receive all books with corresponding images,
+   * tokens are taken from the queue as soon as a book slot is free
    */
   private void processTokens() {
-    // List all book-token folders that already exist
+    // List all books that are already complete, unfinished ones get resumed
     Set< String > done = new HashSet<>();
-    for( File f : Objects.requireNonNull( this.outputDir.listFiles() ) )
-      done.add( f.getName() );
+    for( File f : Objects.requireNonNull( this.outputDir.listFiles() ) ) {
+      if( this.archived ) {
+        if( f.getName().endsWith( ".book" ) && BookArchive.isComplete( f ) )
+          done.add( f.getName().substring( 0, f.getName().length() - 5 ) );
+      }
 
-    // Loop tokens
-    for( String token : this.tokens.keySet() ) {
-      // Check if this book has already been downloaded, then skip it
-      if( done.contains( token ) )
-        continue;
+      else if( f.isDirectory() && BookManifest.isFolderDone( f ) )
+        done.add( f.getName() );
+    }
+
+    // Keep a fixed number of books in flight, every finished book frees its slot
+    this.runStart = System.nanoTime();
+    Semaphore slots = new Semaphore( this.parallelBooks );
+
+    try {
+      String token;
+      while( ( token = this.tokens.take() ) != null ) {
+        // Check if this book has already been downloaded (or is in flight), then skip it
+        if( !done.add( token ) )
+          continue;
+
+        slots.acquire();
+        startBook( token, slots );
+      }
 
-      // Get url template from token activation and download pages
-      downloadBook( token, activateToken( token ) );
+      // Wait for the last books to complete
+      slots.acquire( this.parallelBooks );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      System.out.println( "Interrupted while waiting for books!" );
     }
 
     // Notify of completion
     System.out.println( "All books completed!" );
+    System.out.println( throughput() );
+    System.out.println( this.imageStore.summary() );
+    System.out.println( this.files.describe() );
+    System.out.println( "Hosts: " + HostLimiter.get().describe() );
+    System.out.println( this.sessions.describe() );
+    System.out.println( this.bookCache.describe() );
     System.out.println( "Shutting down..." );
 
     // Shut down threadpools
     this.depExec.shutdown();
     this.pageExec.shutdown();
+
+    // Wait for the last pdfs
+    if( this.collector != null )
+      this.collector.close();
+
+    try {
+      this.sessions.close();
+      this.bookCache.close();
+      this.imageStore.close();
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Start downloading a book, its slot gets released once it's done
+   * @param token Token of the book
+   * @param slots Book slots
+   */
+  private void startBook( String token, Semaphore slots ) {
+    long start = System.nanoTime();
+    this.booksActive.incrementAndGet();
+    downloadBook( token ).whenComplete( ( pages, e ) -> {
+      // Report throughput of this book and of the whole run
+      double secs = ( System.nanoTime() - start ) / 1e9;
+      int count = pages == null ? 0 : pages;
+      this.finishedBookPages.addAndGet( count );
+      this.booksDone.incrementAndGet();
+      this.booksActive.decrementAndGet();
+      System.out.printf(
+        "Book-token %s done: %d pages in %.1fs (%.2f pages/sec), %s%nHosts: %s%n%s%n",
+        token, count, secs, count / secs, throughput(), HostLimiter.get().describe(), this.sessions.describe()
+      );
+
+      slots.release();
+    } );
+  }
+
+  /**
+   * Describe the aggregate throughput of this run
+   * @return Human readable throughput
+   */
+  private String throughput() {
+    return String.format(
+      "total: %d pages (%.2f pages/sec), %d pages queued, %d books waiting",
+      this.pagesDone.get(), pagesPerSecond(), this.bookExec.getQueued(), this.tokens.size()
+    );
+  }
+
+  /**
+   * Describe the progress of this run for the periodic status line
+   * @return Human readable progress
+   */
+  private String progress() {
+    return String.format(
+      "%d pages (%.2f/s), %d books done, %d active, %d waiting, %d pages queued, ETA %s",
+      this.pagesDone.get(), pagesPerSecond(), this.booksDone.get(), this.booksActive.get(),
+      this.tokens.size(), this.bookExec.getQueued(), Metrics.formatDuration( eta() )
+    );
+  }
+
+  /**
+   * Get the number of pages downloaded per second during this run
+   * @return Pages per second, 0 before the first book started
+   */
+  private double pagesPerSecond() {
+    if( this.runStart == 0 )
+      return 0;
+    return this.pagesDone.get() / Math.max( ( System.nanoTime() - this.runStart ) / 1e9, 0.001 );
+  }
+
+  /**
+   * Estimate the seconds until all known books are done, assuming the remaining
+   * books are as long as the finished ones on average
+   * @return Estimated seconds, NaN as long as no book finished
+   */
+  private double eta() {
+    int done = this.booksDone.get();
+    double rate = pagesPerSecond();
+    if( done == 0 || rate <= 0 )
+      return Double.NaN;
+
+    double avgPages = this.finishedBookPages.get() / ( double ) done;
+    long activePages = this.pagesDone.get() - this.finishedBookPages.get();
+    double remaining = ( this.tokens.size() + this.booksActive.get() ) * avgPages - activePages;
+    return Math.max( 0, remaining ) / rate;
+  }
+
+  /**
+   * Expose the progress of the downloads and the depths of the queues to the metrics
+   */
+  private void registerMetrics() {
+    Metrics metrics = Metrics.get();
+    metrics.gauge( "pages_done", "", "Pages completed during this run", this.pagesDone::get );
+    metrics.gauge( "pages_per_second", "", "Pages completed per second during this run", this::pagesPerSecond );
+    metrics.gauge( "pages_queued", "", "Pages waiting for a turn of their book", this.bookExec::getQueued );
+    metrics.gauge( "pages_running", "", "Pages currently being fetched", this.bookExec::getRunning );
+    metrics.gauge( "books_done", "", "Books finished during this run", this.booksDone::get );
+    metrics.gauge( "books_active", "", "Books currently downloading", this.booksActive::get );
+    metrics.gauge( "books_waiting", "", "Tokens waiting for a free book slot", this.tokens::size );
+    metrics.gauge( "eta_seconds", "", "Estimated seconds until all known books are done", this::eta );
+    metrics.executor( "page", this.pageExec );
+    metrics.executor( "dep", this.depExec );
+    metrics.status( this::progress );
   }
 
   /**
    * Get the last page from the current book
+   * @param session Session the book got activated on
    * @param urlTemplate Url template used to download the book
-   * @return Last page of this book
+   * @return Future of the last page of this book, fails if it couldn't be resolved
    */
-  private int getLastPage( String urlTemplate ) {
-    try {
-      String url = urlTemplate.replace( "{{page}}/", "" ).replace( "{{file}}", "index.html?page=1" );
-      HttpGet fReq = new HttpGet( url );
-      fReq.addHeader( "Host", "a.digi4school.at" );
-      fReq.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
-      fReq.addHeader( "Cookie", this.cookie.generate() );
-
-      CloseableHttpResponse resp = this.client.execute( fReq );
-      String answer = EntityUtils.toString( resp.getEntity() );
-      resp.close();
-
-      // Parse out max page from #makeNavBar function
-      int begin = answer.indexOf( "IDRViewer.makeNavBar" );
-      answer = answer.substring( begin, answer.indexOf( ");", begin ) ).replace( " ", "" );
-      answer = answer.substring( answer.indexOf( "(" ) + 1, answer.indexOf( "," ) );
-      return Integer.parseInt( answer.trim() );
-    } catch ( Exception e ) {
+  private CompletableFuture< Integer > getLastPage( Session session, String urlTemplate ) {
+    String url = urlTemplate.replace( "{{page}}/", "" ).replace( "{{file}}", "index.html?page=1" );
+    TransportRequest fReq = TransportRequest.get( url )
+      .endpoint( "book" )
+      .header( "Host", Site.get().getBookHost() )
+      .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" )
+      .header( "Cookie", session.getCookies().generate( url ) );
+
+    return session.getTransport().send( fReq ).thenApplyAsync( resp -> {
+        try {
+          if( resp.getStatus() != 200 ) {
+            resp.close();
+            throw new IOException( "Book " + url + " responded with " + resp.getStatus() );
+          }
+
+          return parseLastPage( resp.readString() );
+        } catch ( Exception e ) {
+          throw new CompletionException( e );
+        }
+      }, this.pageExec );
+  }
+
+  /**
+   * Parse the last page out of a book's index, it's the first argument of the
+   * call to the #makeNavBar function
+   * @param index Content of the book's index.html
+   * @return Last page of the book
+   * @throws IllegalArgumentException The index doesn't contain a navigation bar
+   */
+  public static int parseLastPage( String index ) {
+    int begin = index.indexOf( "IDRViewer.makeNavBar" );
+    if( begin < 0 )
+      throw new IllegalArgumentException( "The book's index contains no navigation bar" );
+
+    String answer = index.substring( begin, index.indexOf( ");", begin ) ).replace( " ", "" );
+    answer = answer.substring( answer.indexOf( "(" ) + 1, answer.indexOf( "," ) );
+    return Integer.parseInt( answer.trim() );
+  }
+
+  /**
+   * Download all pages and needed images from a book into target
+   * download directory. The token gets activated, then the last page is
+   * resolved and all pages with their images are fetched, no step blocks on another.
+   * All steps of a book occupy a slot within the book's lane of the fair executor and
+   * run on a session of their own, so activations of different books don't wait on each other
+   * @param token Token of this book
+   * @return Future which completes with the number of downloaded pages
+   */
+  private CompletableFuture< Integer > downloadBook( String token ) {
+    // Books an earlier run found to be too long don't even take a session
+    BookCache.Entry cached = this.bookCache.get( token );
+    if( cached != null && BookFilter.get().exceedsPages( cached.lastPage ) ) {
+      System.out.println( "Book-token " + token + " skipped, its " + cached.lastPage + " pages exceed maxPages" );
+      return CompletableFuture.completedFuture( 0 );
+    }
+
+    return this.sessions.acquire().thenCompose( session -> {
+      // Books resolved by an earlier run skip straight to their pages
+      CompletableFuture< Integer > download = cached == null ? activateBook( session, token ) : downloadCached( session, token, cached );
+
+      return download.whenComplete( ( pages, e ) -> {
+        this.deniedBooks.remove( token );
+        this.sessions.release( session );
+      } );
+    } ).exceptionally( e -> {
+      // Retries are exhausted at this point, the book is left for the next run
       e.printStackTrace();
+      FailureReport.get().record( "book", token, "", e );
       return 0;
-    }
+    } );
   }
 
   /**
-   * Inject a bit of css in order to keep book page at full height,
-   * otherwise it would collapse. This style is on the page which this
-   * tool won't scrap, so I inject it
-   * @param svg Svg file input
-   * @return Svg file output
+   * Activate a book, cache where it's located and download its pages
+   * @param session Session to activate the book on
+   * @param token Token of this book
+   * @return Future which completes with the number of downloaded pages
    */
-  private String injectDimCSS( String svg ) {
-    // Inject CSS to fully scale the image
-    String beginInj = "<style type=\"text/css\"><![CDATA[";
-
-    // SVG contains style tag, thus inject
-    if( svg.contains( beginInj ) ) {
-      int offset = svg.indexOf( beginInj ) + beginInj.length();
-      String buf = svg.substring( 0, offset );
-      buf += "\nsvg{height: 1300px;width:100%;}";
-      svg = buf + svg.substring( offset );
-    }
+  private CompletableFuture< Integer > activateBook( Session session, String token ) {
+    return this.bookExec.submit( token, () -> activateToken( session, token ) )
+      .whenComplete( ( location, e ) -> this.sessions.recordActivation( session, e == null && location != null ) )
+      .thenCompose( location -> {
+        // Resource was damaged, skip processing
+        if( location == null ) {
+          writeError( token );
+          FailureReport.get().record( "book", token, "", "Damaged serverside, LTI authentication failed" );
+          return CompletableFuture.completedFuture( 0 );
+        }
 
-    // No style tag found, append a custom one
-    else {
-      String appendPoint = "<defs>";
-      int offset = svg.indexOf( appendPoint ) + appendPoint.length();
-      String buf = svg.substring( 0, offset );
-      buf += "<style type=\"text/css\"><![CDATA[\nsvg{height: 1300px;width:100%;}]]></style>";
-      svg = buf + svg.substring( offset );
-    }
+        // Get url template from token activation and download pages
+        return this.bookExec.submit( token, () -> getLastPage( session, location.urlTemplate ) )
+          .thenCompose( maxPage -> {
+            if( maxPage > 0 ) {
+              this.bookCache.put( token, new BookCache.Entry(
+                location.urlTemplate, location.extraId, maxPage, session.getCookies().export(), location.created
+              ) );
+            }
+
+            // The length is only known now, the cache spares the next run this activation
+            if( BookFilter.get().exceedsPages( maxPage ) ) {
+              System.out.println( "Book-token " + token + " skipped, its " + maxPage + " pages exceed maxPages" );
+              return CompletableFuture.completedFuture( 0 );
+            }
+
+            return downloadPages( session, token, location.urlTemplate, maxPage );
+          } );
+      } );
+  }
 
-    return svg;
+  /**
+   * Download the pages of a book from its cached location with the cookies it was
+   * activated with. If the book denies any request, the cached location is dropped
+   * and the book gets activated once again, completed pages are kept
+   * @param session Session to download on
+   * @param token Token of this book
+   * @param cached Cached location of the book
+   * @return Future which completes with the number of downloaded pages
+   */
+  private CompletableFuture< Integer > downloadCached( Session session, String token, BookCache.Entry cached ) {
+    session.getCookies().restore( cached.cookies );
+
+    return downloadPages( session, token, cached.urlTemplate, cached.lastPage ).thenCompose( pages -> {
+      if( !this.deniedBooks.remove( token ) )
+        return CompletableFuture.completedFuture( pages );
+
+      // Failures of the denied attempt are superseded by the activated one
+      System.out.println( "Cached location of book-token " + token + " got denied, activating again" );
+      FailureReport.get().resolve( token );
+      this.retries.increment();
+      this.bookCache.invalidate( token );
+      return activateBook( session, token );
+    } );
   }
 
   /**
-   * Download all pages and needed images from a book into target
-   * download directory
+   * Fail a request of a book which got denied, so a cached location can be invalidated
    * @param token Token of this book
-   * @param urlTemplate Template of url from book with {{page}} and {{file}} placeholders
+   * @param resp Response of the request
+   * @throws Exception Request got denied
    */
-  private void downloadBook( String token, String urlTemplate ) {
+  private void checkDenied( String token, TransportResponse resp ) throws Exception {
+    int status = resp.getStatus();
+    if( status != 401 && status != 403 && status != 404 )
+      return;
 
-    // Resource was damaged, skip processing
-    if( urlTemplate == null ) {
-      try {
-        // Create error file
-        File errFile = new File( this.outputDir.getAbsolutePath() + "/" + token, "error.txt" );
-        if( !errFile.exists() && !errFile.getParentFile().mkdirs() && !errFile.createNewFile() )
-          throw new Exception( "Could not create error file!" );
-
-        // Write error message
-        PrintWriter writer = new PrintWriter( errFile );
-        writer.print( "This resource was damaged serverside, so it got skipped.\n" );
-        writer.print( "Maybe try again later!" );
-        writer.close();
-      } catch ( Exception e ) {
+    this.deniedBooks.add( token );
+    throw new Exception( "Book-token " + token + " got denied with " + status + " for " + resp.getUrl() );
+  }
+
+  /**
+   * Mark a book as damaged by writing an error file into its folder
+   * @param token Token of this book
+   */
+  private void writeError( String token ) {
+    String message = "This resource was damaged serverside, so it got skipped.\nMaybe try again later!";
+
+    // Archives carry the error file as an entry but stay unsealed, so the book is retried
+    if( this.archived ) {
+      try ( BookArchive archive = BookArchive.open( archiveFile( token ) ) ) {
+        archive.append( "error.txt", message.getBytes( StandardCharsets.UTF_8 ) );
+      } catch ( IOException e ) {
         e.printStackTrace();
       }
       return;
     }
 
-    // Keeping track of progress and status
-    AtomicInteger finishCounter = new AtomicInteger( 0 );
-    AtomicInteger initCounter = new AtomicInteger( 0 );
+    try {
+      // Create error file
+      File errFile = new File( this.outputDir.getAbsolutePath() + "/" + token, "error.txt" );
+      if( !errFile.exists() && !errFile.getParentFile().mkdirs() && !errFile.createNewFile() )
+        throw new Exception( "Could not create error file!" );
+
+      // Write error message
+      PrintWriter writer = new PrintWriter( errFile );
+      writer.print( message );
+      writer.close();
+    } catch ( Exception e ) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Download all pages of a book
+   * @param session Session the book got activated on
+   * @param token Token of this book
+   * @param urlTemplate Template of url from book with {{page}} and {{file}} placeholders
+   * @param maxPage Last page of this book
+   * @return Future which completes with the number of downloaded pages
+   */
+  private CompletableFuture< Integer > downloadPages( Session session, String token, String urlTemplate, int maxPage ) {
+    // Images of this book by url, so no image gets fetched twice
+    Map< String, Dependency > imageIndex = new ConcurrentHashMap<>();
+    AtomicInteger count = new AtomicInteger( 0 ), failed = new AtomicInteger( 0 );
+
+    // Open the book's archive or manifest, pages of an interrupted run are picked up again
+    try {
+      if( this.archived ) {
+        // A retried damaged book isn't damaged anymore
+        BookArchive archive = BookArchive.open( archiveFile( token ) );
+        archive.forget( "error.txt" );
+        this.archives.put( token, archive );
+      }
+      else
+        this.manifests.put( token, openManifest( token ) );
+    } catch ( IOException e ) {
+      return CompletableFuture.failedFuture( e );
+    }
 
     // Loop all available pages
-    int maxPage = getLastPage( urlTemplate );
+    CompletableFuture< ? >[] pages = new CompletableFuture< ? >[ maxPage ];
     for( int i = 1; i <= maxPage; i++ ) {
+      pages[ i - 1 ] = downloadPage( session, token, urlTemplate, i, imageIndex ).thenAccept( found -> {
+        if( found == null )
+          failed.incrementAndGet();
 
-      // Initialized, keep track
-      int finalI = i;
-      initCounter.incrementAndGet();
+        else if( found ) {
+          count.incrementAndGet();
+          this.pagesDone.incrementAndGet();
+        }
+      } );
+    }
 
-      // Execute request async
-      pageExec.execute( () -> {
-        try {
-          // Create request for current page
-          String currUrl = urlTemplate.replace( "{{page}}", String.valueOf( finalI ) );
-          HttpGet pageReq = new HttpGet( currUrl.replace( "{{file}}", finalI + ".svg" ) );
-          pageReq.addHeader( "Host", "a.digi4school.at" );
-          pageReq.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
-          pageReq.addHeader( "Cookie", this.cookie.generate() );
-
-          // Make request and get result
-          CloseableHttpResponse resp = client.execute( pageReq );
-
-          // End of book reached, break loop and shut down pool
-          if( resp.getStatusLine().getStatusCode() == 404 ) {
-            // Trash request, decrement initializeds
-            initCounter.decrementAndGet();
-            resp.close();
-            return;
-          }
+    return CompletableFuture.allOf( pages ).thenApply( v -> {
+      closeBook( token, failed.get() == 0, count.get() );
 
-          // Update cookies
-          for( Header header : resp.getHeaders( "Set-Cookie" ) )
-            this.cookie.write( header.getValue() );
+      if( failed.get() == 0 )
+        FailureReport.get().resolve( token );
 
-          // Get result and close
-          String svg = EntityUtils.toString( resp.getEntity() );
-          resp.close();
+      if( this.collector != null && failed.get() == 0 && maxPage > 0 )
+        this.collector.submit( token );
 
-          svg = injectDimCSS( svg );
+      return count.get();
+    } );
+  }
 
-          // Create page file
-          File page = new File( this.outputDir.getAbsolutePath() + "/" + token, finalI + ".svg" );
-          if( !page.exists() && !page.getParentFile().mkdirs() && !page.createNewFile() )
-            throw new Exception( "Could not create page file!" );
+  /**
+   * Open the manifest of a book folder and check what an earlier run completed
+   * @param token Token of this book
+   * @return Opened manifest
+   * @throws IOException Errors while opening the manifest
+   */
+  private BookManifest openManifest( String token ) throws IOException {
+    File bookDir = new File( this.outputDir, token );
+    this.files.ensureDir( bookDir );
 
-          // Download all needed dependencies (images, shades, ...)
-          // This also unique-ifys the image names, thus re-set svg
-          String processedSVG = downloadDependencies( currUrl, token, svg );
+    // A retried damaged book isn't damaged anymore
+    Files.deleteIfExists( new File( bookDir, "error.txt" ).toPath() );
 
-          // Write out page
-          PrintWriter writer = new PrintWriter( page );
-          writer.print( processedSVG );
-          writer.close();
+    BookManifest manifest = new BookManifest( bookDir );
+    manifest.open();
 
-          // Increment counters
-          finishCounter.incrementAndGet();
-          System.out.println( "Page " + finalI + " from book-token " + token + " done" );
-        } catch ( Exception e ) {
-          e.printStackTrace();
-        }
-      } );
+    int resumed = manifest.verify();
+    if( resumed > 0 )
+      System.out.println( "Resuming book-token " + token + " with " + resumed + " complete pages" );
+
+    return manifest;
+  }
+
+  /**
+   * Close the archive or manifest of a book, it's only marked as complete if
+   * no page failed so the next run downloads the missing pages
+   * @param token Token of this book
+   * @param complete True if the book is complete
+   * @param pages Number of pages of the book
+   */
+  private void closeBook( String token, boolean complete, int pages ) {
+    BookArchive archive = this.archives.remove( token );
+    if( archive != null ) {
+      try ( archive ) {
+        if( complete )
+          archive.seal();
+      } catch ( IOException e ) {
+        e.printStackTrace();
+      }
     }
 
-    // Wait for completion
-    while ( finishCounter.get() != initCounter.get() ) {
-      try {
-        Thread.sleep( 100 );
-      } catch ( InterruptedException e ) {
+    BookManifest manifest = this.manifests.remove( token );
+    if( manifest != null ) {
+      try ( manifest ) {
+        if( complete )
+          manifest.recordDone( pages );
+      } catch ( IOException e ) {
         e.printStackTrace();
       }
     }
   }
 
   /**
-   * This downloads all dependencies a book-page needs
+   * Get the archive file of a book
+   * @param token Token of this book
+   * @return Archive file within the output folder
+   */
+  private File archiveFile( String token ) {
+    return new File( this.outputDir, token + ".book" );
+  }
+
+  /**
+   * Download a page and all of it's dependencies
+   * @param session Session the book got activated on
+   * @param token Token of this book
+   * @param urlTemplate Template of url from book with {{page}} and {{file}} placeholders
+   * @param page Number of the page
+   * @param imageIndex Already known images of this book by url
+   * @return Future which completes when the page and it's images are written, true if the page existed, null if it failed
+   */
+  private CompletableFuture< Boolean > downloadPage( Session session, String token, String urlTemplate, int page, Map< String, Dependency > imageIndex ) {
+    return this.bookExec.submit( token, () -> fetchPage( session, token, urlTemplate, page, imageIndex ) )
+      .thenCompose( deps -> {
+        // End of book reached, nothing to wait for
+        if( deps == null )
+          return CompletableFuture.completedFuture( false );
+
+        return CompletableFuture.allOf( deps.toArray( new CompletableFuture< ? >[ 0 ] ) ).thenApply( v -> true );
+      } )
+      .exceptionally( e -> {
+        e.printStackTrace();
+        FailureReport.get().record( "page", token, String.valueOf( page ), e );
+        return null;
+      } );
+  }
+
+  /**
+   * Fetch a page, write it into the book's folder and start downloading
+   * all images it depends on
+   * @param session Session the book got activated on
+   * @param token Token of this book
+   * @param urlTemplate Template of url from book with {{page}} and {{file}} placeholders
+   * @param page Number of the page
+   * @param imageIndex Already known images of this book by url
+   * @return Future of what the page waits for, its images and then recording the page, null if the page doesn't exist
+   */
+  private CompletableFuture< List< CompletableFuture< Void > > > fetchPage( Session session, String token, String urlTemplate, int page, Map< String, Dependency > imageIndex ) {
+    // Page is already complete from an earlier run
+    BookArchive archive = this.archives.get( token );
+    BookManifest manifest = this.manifests.get( token );
+    String pageName = page + ".svg";
+    if( ( archive != null && archive.contains( pageName ) ) || ( manifest != null && manifest.isComplete( page ) ) )
+      return CompletableFuture.completedFuture( new ArrayList<>() );
+
+    // Create request for current page
+    String currUrl = urlTemplate.replace( "{{page}}", String.valueOf( page ) );
+    String pageUrl = currUrl.replace( "{{file}}", pageName );
+    TransportRequest pageReq = TransportRequest.get( pageUrl )
+      .endpoint( "pages" )
+      .header( "Host", Site.get().getBookHost() )
+      .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" )
+      .header( "Cookie", session.getCookies().generate( pageUrl ) );
+
+    // Make request, the body gets streamed on a page thread
+    return session.getTransport().send( pageReq ).thenApplyAsync( resp -> {
+      try ( resp ) {
+        // End of book reached, a book always has a first page though
+        if( resp.getStatus() == 404 && page > 1 )
+          return null;
+
+        checkDenied( token, resp );
+
+        // Error pages must not end up as pages, the transport already retried them
+        if( resp.getStatus() != 200 )
+          throw new IOException( "Page " + pageUrl + " responded with " + resp.getStatus() );
+
+        // Update cookies
+        session.getCookies().write( resp.getUrl(), resp.getHeaders( "Set-Cookie" ) );
+
+        // Stream the page into its file while injecting the dimension css and
+        // downloading all needed dependencies (images, shades, ...), this also
+        // unique-ifys the image names
+        List< CompletableFuture< Void > > deps = new ArrayList<>();
+        Charset charset = resp.getCharset( StandardCharsets.UTF_8 );
+
+        // Archived pages are appended once all of their images are, so every page within an archive is complete
+        if( archive != null ) {
+          ByteArrayOutputStream svg = new ByteArrayOutputStream();
+          try ( Reader reader = new InputStreamReader( resp.getBody(), charset ) ) {
+            Writer writer = new OutputStreamWriter( svg, charset );
+            SvgRewriter.rewrite( reader, writer, imgName -> downloadDependency( session, currUrl, token, imgName, imageIndex, deps ) );
+            writer.flush();
+          }
+
+          return Collections.singletonList(
+            CompletableFuture.allOf( deps.toArray( new CompletableFuture< ? >[ 0 ] ) ).thenRun( () -> {
+              try {
+                archive.append( pageName, svg.toByteArray() );
+              } catch ( IOException e ) {
+                throw new CompletionException( e );
+              }
+            } )
+          );
+        }
+
+        // Page only shows up under its name once it's complete
+        File pageFile = new File( this.outputDir.getAbsolutePath() + "/" + token, pageName );
+        MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+        Set< String > images = new LinkedHashSet<>();
+        long size;
+
+        try (
+          Reader reader = new InputStreamReader( resp.getBody(), charset );
+          FileSink.Output out = this.files.open( pageFile )
+        ) {
+          Writer writer = new BufferedWriter( new OutputStreamWriter( new DigestOutputStream( out, digest ), charset ) );
+          SvgRewriter.rewrite( reader, writer, imgName -> {
+            String name = downloadDependency( session, currUrl, token, imgName, imageIndex, deps );
+            images.add( name );
+            return name;
+          } );
+          writer.flush();
+          out.commit();
+          size = out.getSize();
+        }
+
+        // The page is recorded once its own images are, with all images it references
+        String hash = Utils.toHex( digest.digest() );
+        return Collections.singletonList(
+          CompletableFuture.allOf( deps.toArray( new CompletableFuture< ? >[ 0 ] ) ).thenRun( () -> {
+            try {
+              manifest.recordPage( page, size, hash, images );
+            } catch ( IOException e ) {
+              throw new CompletionException( e );
+            }
+          } )
+        );
+      } catch ( Exception e ) {
+        throw new CompletionException( e );
+      }
+    }, this.pageExec );
+  }
+
+  /**
+   * Resolves a dependency a book-page needs and starts its download
+   * if this image is not yet known within the book. Pages reusing an image
+   * wait for its download as well, even if another page started it
+   * @param session Session the book got activated on
    * @param currUrl Current url template with {{file}} placeholder
    * @param token Name of containing folder
-   * @param svg SVG with all it's dependencies
+   * @param imgName Image reference from within the page
+   * @param imageIndex Already known images of this book by url
+   * @param deps Futures the page waits for, the image's download gets added
+   * @return New image reference for the page
    */
-  private String downloadDependencies( String currUrl, String token, String svg ) {
-    // Buffer to be modified in thread below
-    String svgBuf = svg;
-
-    // Regex to find all image tags
-    Pattern pattern = Pattern.compile( "<image[^<>]+/>" );
-    Matcher matcher = pattern.matcher( svgBuf );
-
-    // Two counters in order to keep track of processed items
-    AtomicInteger initiated = new AtomicInteger( 0 );
-    AtomicInteger done = new AtomicInteger( 0 );
-
-    // Loop occurances
-    while( matcher.find() ) {
-      String found = matcher.group();
-
-      // Regex to find image links
-      Pattern linkP = Pattern.compile( "href=\"[^\"]+\"" );
-      Matcher linkM = linkP.matcher( found );
-
-      // Damaged tag
-      if( !linkM.find() )
-        continue;
-
-      // Initialize file donwload
-      String identifier = UUID.randomUUID().toString();
-      String imgName = linkM.group().split( "=" )[ 1 ].replaceAll( "\"", "" );
-
-      // Replace file name in svg code
-      String newName = imgName.replaceAll( "([^./]+).([^.]+)$", identifier + ".$2" );
-      svgBuf = svgBuf.replace( imgName, newName );
-
-      // Download image
-      initiated.incrementAndGet();
-      String dUrl = currUrl.replace( "{{file}}", imgName );
-
-      // Execute download asynchronously
-      depExec.execute( () -> {
-        downloadImage( dUrl, token, newName );
-        done.incrementAndGet();
-      } );
+  private String downloadDependency(
+    Session session, String currUrl, String token, String imgName, Map< String, Dependency > imageIndex,
+    List< CompletableFuture< Void > > deps
+  ) {
+    String dUrl = resolveDependency( currUrl, imgName );
+
+    // Image has been seen before, reference the known file once it's stored
+    Dependency known = imageIndex.get( dUrl );
+    if( known != null ) {
+      this.imageStore.recordSavedRequest();
+      deps.add( known.stored );
+      return known.name;
     }
 
-    // Wait for completion
-    while( initiated.get() != done.get() ) {
-      try {
-        Thread.sleep( 90 );
-      } catch ( InterruptedException e ) {
-        e.printStackTrace();
-      }
+    // Initialize file donwload
+    String identifier = UUID.randomUUID().toString();
+    Dependency claimed = new Dependency( Utils.renameImage( imgName, identifier ) );
+
+    // Another page of this book claimed this url in the meantime
+    known = imageIndex.putIfAbsent( dUrl, claimed );
+    if( known != null ) {
+      this.imageStore.recordSavedRequest();
+      deps.add( known.stored );
+      return known.name;
     }
 
-    // Done with dependencies, shut down executor and return
-    return svgBuf;
+    // Execute download asynchronously
+    downloadImage( session, dUrl, token, claimed.name ).whenComplete( ( v, e ) -> {
+      if( e != null )
+        claimed.stored.completeExceptionally( e );
+      else
+        claimed.stored.complete( null );
+    } );
+
+    deps.add( claimed.stored );
+    return claimed.name;
   }
 
   /**
-   * Download an image from the provided url and save it as the provided
-   * file name in the img directory for later use with svg files
-   * @param url Url of image
-   * @param token Name of the containing folder
-   * @param fileName Name of output file
+   * Resolve an image reference of a page into the absolute url the browser would request.
+   * Pages live in folders of their own and reference shared images like ../shadow.png,
+   * so only the normalized url is the same for every page using the image
+   * @param currUrl Current url template with {{file}} placeholder
+   * @param imgName Image reference from within the page
+   * @return Normalized url of the image
    */
-  private void downloadImage( String url, String token, String fileName ) {
+  private static String resolveDependency( String currUrl, String imgName ) {
     try {
-      // Make directory if non existent
-      if( !this.outputDir.exists() && !this.outputDir.mkdir() )
-        throw new Exception( "Unable to create output directory!" );
-
-      HttpGet imgReq = new HttpGet( url );
-      imgReq.addHeader( "Host", "a.digi4school.at" );
-      imgReq.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
-      imgReq.addHeader( "Cookie", this.cookie.generate() );
-
-      // Get output stream of binary object
-      CloseableHttpResponse clResp = client.execute( imgReq );
-      HttpEntity resp = clResp.getEntity();
-      File of = new File( this.outputDir.getAbsolutePath() + "/" + token, fileName );
-
-      // Create file and parent dirs if non existent
-      if( !of.exists() && !of.getParentFile().mkdirs() && !of.createNewFile() )
-        throw new Exception( "Could not create image output file!" );
-
-      // Create ouput stream on file handle
-      FileOutputStream fos = new FileOutputStream( of );
-
-      // Write to file
-      resp.writeTo( fos );
-      fos.close();
-      clResp.close();
-    } catch ( Exception e ) {
-      e.printStackTrace();
+      return URI.create( currUrl.replace( "{{file}}", "" ) ).resolve( imgName ).normalize().toString();
+    } catch ( IllegalArgumentException e ) {
+      // Not a valid reference, request it just like it was written
+      return currUrl.replace( "{{file}}", imgName );
     }
   }
 
   /**
-   * Read the tokens with corresponding book title
-   * into lookup map
+   * Download an image from the provided url and save it as the provided
+   * file name in the img directory for later use with svg files. The content
+   * itself lives in the image store and only gets linked into the book folder,
+   * urls the store already knows from other books or earlier runs aren't requested
+   * @param session Session the book got activated on
+   * @param url Url of image
+   * @param token Name of the containing folder
+   * @param fileName Name of output file
+   * @return Future which completes when the image is stored, fails if it couldn't be
    */
-  private void readTokens() {
-    try {
-      Scanner s = new Scanner( this.tokenFile );
+  private CompletableFuture< Void > downloadImage( Session session, String url, String token, String fileName ) {
+    File of = new File( this.outputDir.getAbsolutePath() + "/" + token, fileName );
 
-      // Read all lines
-      while( s.hasNextLine() ) {
-        String line = s.nextLine();
+    if( !this.archived ) {
+      try {
+        ImageStore.Stored known = this.imageStore.link( url, of );
+        if( known != null ) {
+          this.manifests.get( token ).recordImage( fileName, known.size, known.hash );
+          return CompletableFuture.completedFuture( null );
+        }
+      } catch ( IOException e ) {
+        return CompletableFuture.failedFuture( e );
+      }
+    }
 
-        // Skip comments
-        if( line.startsWith( "#" ) )
-          continue;
+    TransportRequest imgReq = TransportRequest.get( url )
+      .endpoint( "images" )
+      .header( "Host", Site.get().getBookHost() )
+      .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" )
+      .header( "Cookie", session.getCookies().generate( url ) );
+
+    // Get output stream of binary object
+    return session.getTransport().send( imgReq ).thenAcceptAsync( resp -> {
+        try ( resp ) {
+          // Error pages must not end up as images, the page gets retried by the next run
+          checkDenied( token, resp );
+          if( resp.getStatus() != 200 )
+            throw new Exception( "Image " + url + " responded with " + resp.getStatus() );
+
+          // Archived images go through a temporary file, so the archive is only locked while copying
+          BookArchive archive = this.archives.get( token );
+          if( archive != null ) {
+            try (
+              CheckedInputStream in = new CheckedInputStream( resp.getBody(), new CRC32() );
+              FileSink.Output out = this.files.openTemp( new File( this.outputDir, ".tmp" ) )
+            ) {
+              out.transferFrom( in, null );
+              archive.append( fileName, out, in.getChecksum().getValue() );
+            }
+            return;
+          }
 
-        String[] data = line.split( ";", 2 );
+          // Store content and link into book folder
+          ImageStore.Stored stored = this.imageStore.store( resp.getBody(), url, of );
+          this.manifests.get( token ).recordImage( fileName, stored.size, stored.hash );
+        } catch ( Exception e ) {
+          throw new CompletionException( e );
+        }
+      }, this.depExec );
+  }
 
-        // Input format mismatch, skip
-        if( data.length != 2 )
-          continue;
+  /**
+   * Read the tokens of a token file on a separate thread and publish
+   * them to a queue, which ends after the last token of the file
+   * @param tokenFile File containing token csv
+   * @return Queue the tokens get published to
+   */
+  private static TokenQueue readTokens( File tokenFile ) {
+    TokenQueue queue = TokenQueue.fromConfig();
 
-        // Map token-sublink to booktitle
-        this.tokens.put( data[ 0 ].replace( "/token/", "" ), data[ 1 ] );
+    Thread reader = new Thread( () -> {
+      try {
+        // Only the token is needed, the title only decides whether and when the book is wanted.
+        // With a priority rule the file is read twice, books which go first lead
+        BookFilter filter = BookFilter.get();
+        AtomicInteger wanted = new AtomicInteger( 0 );
+        if( filter.hasPriority() ) {
+          TokenFile.read( tokenFile, ( token, title ) -> {
+            if( filter.isPriority( title ) && filter.accepts( title ) ) {
+              queue.publish( token, true );
+              wanted.incrementAndGet();
+            }
+          } );
+        }
+
+        int count = TokenFile.read( tokenFile, ( token, title ) -> {
+          if( !filter.isPriority( title ) && filter.accepts( title ) ) {
+            queue.publish( token, false );
+            wanted.incrementAndGet();
+          }
+        } );
+        System.out.println( "Loaded " + count + " tokens from file, " + wanted.get() + " of them wanted!" );
+      } catch ( Exception e ) {
+        e.printStackTrace();
       }
 
-      s.close();
-      System.out.println( "Loaded " + this.tokens.size() + " tokens from file!" );
-    } catch ( Exception e ) {
-      e.printStackTrace();
-    }
+      queue.finish();
+    }, "token-reader" );
+
+    reader.setDaemon( true );
+    reader.start();
+    return queue;
   }
 
   /**
    * Activate a token and return the final book's url which is capable of
    * selecting pages over url get params (?page=x)
-   * @param token Token to activate on current cookie session
-   * @return Final book url as string
+   * @param session Session to activate the token on
+   * @param token Token to activate
+   * @return Future of the book's location without its last page, null if damaged, fails on errors
    */
-  private String activateToken( String token ) {
-    try {
-      // Create http-client and a post request object
-      HttpGet request = new HttpGet( "https://digi4school.at/token/" + token );
-      request.addHeader( "Origin", "https://digi4school.at" );
-      request.addHeader( "Referer", "https://digi4school.at/openlib" );
-      request.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
-      request.addHeader( "Cookie", this.cookie.generate() );
-
-      // Find out what the redirect endpoint is
-      HttpClientContext context = HttpClientContext.create();
-      CloseableHttpResponse resp = client.execute( request, context );
-
-      // Update cookies
-      for( Header header : resp.getHeaders( "Set-Cookie" ) )
-        this.cookie.write( header.getValue() );
+  private CompletableFuture< BookCache.Entry > activateToken( Session session, String token ) {
+    // Create http-client and a post request object
+    String tokenUrl = Site.get().site( "/token/" + token );
+    TransportRequest request = TransportRequest.get( tokenUrl )
+      .endpoint( "token" )
+      .header( "Origin", Site.get().getSite() )
+      .header( "Referer", Site.get().site( "/openlib" ) )
+      .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" )
+      .header( "Cookie", session.getCookies().generate( tokenUrl ) );
+
+    // Find out what the redirect endpoint is
+    return session.getTransport().send( request )
 
       // Process first stage LTI auth
-      resp = followLTI( resp );
+      .thenCompose( resp -> followLTI( session, resp ) )
 
-      // Damaged, cancel...
-      if( resp == null )
-        return null;
+      // Process second stage LTI auth, damaged if the first one failed
+      .thenCompose( resp -> resp == null ? CompletableFuture.completedFuture( null ) : followLTI( session, resp ) )
 
-      // Process second stage LTI auth
-      resp = followLTI( resp );
+      // Damaged, cancel... otherwise resolve the book's location
+      .thenCompose( resp -> resp == null ? CompletableFuture.completedFuture( null ) : resolveBook( session, resp ) );
+  }
 
-      // Damaged, cancel...
-      if( resp == null )
-        return null;
+  /**
+   * Resolve the book's location from the last LTI response
+   * @param session Session the book got activated on
+   * @param ltiResp Response of the second LTI stage
+   * @return Future of the book's location without its last page
+   */
+  private CompletableFuture< BookCache.Entry > resolveBook( Session session, TransportResponse ltiResp ) {
+    ltiResp.close();
 
-      String bookLoc = resp.getLastHeader( "Location" ).getValue().replaceAll( ":[0-9]+", "" );
+    // Update cookies
+    session.getCookies().write( ltiResp.getUrl(), ltiResp.getHeaders( "Set-Cookie" ) );
 
-      HttpGet bookRequest = new HttpGet( bookLoc );
-      bookRequest.addHeader( "Host", "a.digi4school.at" );
-      bookRequest.addHeader( "Referer", "https://kat.digi4school.at/" );
-      bookRequest.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
-      bookRequest.addHeader( "Cookie", this.cookie.generate() );
+    String bookLoc = Site.get().bookLocation( ltiResp.getLastHeader( "Location" ) );
 
-      // Make request, get answer and close resources
-      client = HttpClients.createDefault();
-      resp = client.execute( bookRequest );
-      String servAnswer = EntityUtils.toString( resp.getEntity() );
-      resp.close();
+    TransportRequest bookRequest = TransportRequest.get( bookLoc )
+      .endpoint( "book" )
+      .header( "Host", Site.get().getBookHost() )
+      .header( "Referer", Site.get().catalog( "/" ) )
+      .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" )
+      .header( "Cookie", session.getCookies().generate( bookLoc ) );
+
+    // Make request, get answer and close resources
+    return session.getTransport().send( bookRequest ).thenApplyAsync( resp -> {
+      String servAnswer;
+      try {
+        servAnswer = resp.readString();
+      } catch ( IOException e ) {
+        throw new CompletionException( e );
+      }
 
       // Check if this book has extra material provided, if so - append id/ to url in order to get the book itself
+      String bookUrl = bookLoc, extraId = "";
       if( !( servAnswer.contains( "id=\"mainContent\"" ) || servAnswer.contains( "id='mainContent'" ) ) ) {
 
         // Parse out target link id of first thumbnail (the book)
         Document doc = Jsoup.parse( servAnswer );
         Element thumbnails = doc.selectFirst( "#content" );
         String tarLink = thumbnails.selectFirst( "a" ).attr( "href" );
-        tarLink = tarLink.substring( 0, tarLink.indexOf( "/" ) );
+        extraId = tarLink.substring( 0, tarLink.indexOf( "/" ) );
 
-        bookLoc += tarLink + "/";
+        bookUrl += extraId + "/";
       }
 
-      // Return with page template
-      return bookLoc + "{{page}}/{{file}}";
-    } catch ( Exception e ) {
-      e.printStackTrace();
-      return null;
-    }
+      // Return with page template, the last page is looked up afterwards
+      return new BookCache.Entry( bookUrl + "{{page}}/{{file}}", extraId, 0, Collections.emptyList(), System.currentTimeMillis() );
+    }, this.pageExec );
   }
 
   /**
    * Process the lti request prompt which is represented by a hidden form that just
    * needs to be postet on the given url. This should be processed by javascript,
    * but this bot obviously works differently
+   * @param session Session the book got activated on
    * @param lastResp Prompt from webpage (as response)
-   * @return Response from webpage
-   * @throws Exception Errors in the process
+   * @return Future of the response from webpage, null if damaged
    */
-  private CloseableHttpResponse followLTI( CloseableHttpResponse lastResp ) throws Exception {
-    // Parse page and grab LTI form
-    String formPrompt = EntityUtils.toString( lastResp.getEntity() );
-
-    // Serverside error with auth
-    if( lastResp.getStatusLine().getStatusCode() != 200 )
-      return null;
+  private CompletableFuture< TransportResponse > followLTI( Session session, TransportResponse lastResp ) {
+    return CompletableFuture.supplyAsync( () -> {
+      try {
+        // Update cookies
+        session.getCookies().write( lastResp.getUrl(), lastResp.getHeaders( "Set-Cookie" ) );
 
-    Document page = Jsoup.parse( formPrompt );
-    Element form = page.selectFirst( "#lti" );
+        // Parse page and grab LTI form
+        return lastResp.readString();
+      } catch ( IOException e ) {
+        throw new CompletionException( e );
+      }
+    }, this.pageExec ).thenCompose( formPrompt -> {
+      // An overloaded host doesn't make the book damaged, it's tried again by the next run
+      int status = lastResp.getStatus();
+      if( status == 429 || status >= 500 )
+        throw new CompletionException( new IOException( "LTI of " + lastResp.getUrl() + " responded with " + status ) );
+
+      // Serverside error with auth
+      if( status != 200 )
+        return CompletableFuture.completedFuture( null );
+
+      LtiForm form = LtiForm.parse( formPrompt );
+
+      // Create post request with type form and current token as referrer
+      TransportRequest formReq = TransportRequest.post( form.action, form.fields )
+        .endpoint( "lti" )
+        .header( "Origin", Site.get().getSite() )
+        .header( "Host", Site.get().getCatalogHost() )
+        .header( "Referer", Site.get().site( "/" ) )
+        .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
+
+      // Execute and get
+      return session.getTransport().send( formReq );
+    } );
+  }
 
-    // Get post target and encode type
-    String targetPath = form.attr( "action" );
+  /**
+   * Hidden LTI form of an activation step, which a browser's script would post
+   */
+  public static class LtiForm {
 
-    // Create post request with type form and current token as referrer
-    HttpPost formReq = new HttpPost( targetPath );
-    formReq.addHeader( "Origin", "https://digi4school.at" );
-    formReq.addHeader( "Host", "kat.digi4school.at" );
-    formReq.addHeader( "Referer", "https://digi4school.at/" );
-    formReq.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
+    public final String action;
+    public final List< BasicNameValuePair > fields;
 
-    // Append form data
-    List< BasicNameValuePair > paramList = new ArrayList<>();
-    for( Element input : form.select( "input" ) )
-      paramList.add( new BasicNameValuePair( input.attr( "name" ), input.attr( "value" ) ) );
+    public LtiForm( String action, List< BasicNameValuePair > fields ) {
+      this.action = action;
+      this.fields = fields;
+    }
 
-    // Append body and execute
-    formReq.setEntity( new UrlEncodedFormEntity( paramList ) );
+    /**
+     * Parse the form out of an LTI prompt
+     * @param prompt Html of the prompt
+     * @return Parsed form
+     * @throws IllegalArgumentException The prompt contains no LTI form
+     */
+    public static LtiForm parse( String prompt ) {
+      Element form = Jsoup.parse( prompt ).selectFirst( "#lti" );
+      if( form == null )
+        throw new IllegalArgumentException( "The prompt contains no LTI form" );
+
+      // Post target and form data
+      List< BasicNameValuePair > fields = new ArrayList<>();
+      for( Element input : form.select( "input" ) )
+        fields.add( new BasicNameValuePair( input.attr( "name" ), input.attr( "value" ) ) );
+
+      return new LtiForm( form.attr( "action" ), fields );
+    }
+  }
 
-    // Execute and get
-    CloseableHttpResponse resp = client.execute( formReq );
+  private static class Dependency {
+    // Image reference written into the pages
+    private final String name;
 
-    // Update cookies
-    for( Header header : resp.getHeaders( "Set-Cookie" ) )
-      this.cookie.write( header.getValue() );
+    // Completes once the image is stored, fails if it couldn't be
+    private final CompletableFuture< Void > stored;
 
-    // Return
-    return resp;
+    private Dependency( String name ) {
+      this.name = name;
+      this.stored = new CompletableFuture<>();
+    }
   }
 }
@@ -0,0 +1,151 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class BookFilter {
+
+  private static final BookFilter INSTANCE = new BookFilter(
+    compile( "titleFilter" ),
+    compile( "titlePriority" ),
+    Config.getString( "publisher", "" ),
+    Config.getString( "levelOfEducation", "" ),
+    Config.getInt( "maxPages", 0 )
+  );
+
+  private Pattern title, priority;
+  private String publisher, levelOfEducation;
+  private int maxPages;
+
+  /**
+   * Rules which books of the platform are wanted and which of them go first. The
+   * publisher and the level of education narrow down every search, so the scan only
+   * finds matching books. Titles are checked before a token is handed to the downloader,
+   * skipped books never get activated. The number of pages is only known once a book
+   * got resolved, so books which are too long are skipped right before their pages
+   * @param title Titles of wanted books, null for all
+   * @param priority Titles of books which are downloaded first, null for none
+   * @param publisher Id of the publisher searches are restricted to, empty for all
+   * @param levelOfEducation Level of education searches are restricted to, empty for all
+   * @param maxPages Maximum number of pages of a wanted book, 0 for any
+   */
+  public BookFilter( Pattern title, Pattern priority, String publisher, String levelOfEducation, int maxPages ) {
+    this.title = title;
+    this.priority = priority;
+    this.publisher = publisher.trim();
+    this.levelOfEducation = levelOfEducation.trim();
+    this.maxPages = Math.max( 0, maxPages );
+  }
+
+  /**
+   * Get the rules of this run, configured by the settings titleFilter,
+   * titlePriority, publisher, levelOfEducation and maxPages
+   * @return Shared rules
+   */
+  public static BookFilter get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Check if a book is wanted by its title
+   * @param title Title of the book
+   * @return True if the book should be downloaded
+   */
+  public boolean accepts( String title ) {
+    return this.title == null || this.title.matcher( title ).find();
+  }
+
+  /**
+   * Check if a book should be downloaded before all others
+   * @param title Title of the book
+   * @return True if the book goes first
+   */
+  public boolean isPriority( String title ) {
+    return this.priority != null && this.priority.matcher( title ).find();
+  }
+
+  /**
+   * Check if any book goes first, otherwise tokens keep the order they're found in
+   * @return True if there's a priority rule
+   */
+  public boolean hasPriority() {
+    return this.priority != null;
+  }
+
+  /**
+   * Check if a book is too long to be wanted
+   * @param lastPage Last page of the book
+   * @return True if the book should be skipped
+   */
+  public boolean exceedsPages( int lastPage ) {
+    return this.maxPages > 0 && lastPage > this.maxPages;
+  }
+
+  /**
+   * Get the publisher searches are restricted to
+   * @return Id of the publisher, empty for all
+   */
+  public String getPublisher() {
+    return this.publisher;
+  }
+
+  /**
+   * Get the level of education searches are restricted to
+   * @return Level of education, empty for all
+   */
+  public String getLevelOfEducation() {
+    return this.levelOfEducation;
+  }
+
+  /**
+   * Describe the restrictions every search is sent with, journals of
+   * the scan only apply to searches of the same scope
+   * @return Search scope, empty if searches aren't restricted
+   */
+  public String getSearchScope() {
+    if( this.publisher.isEmpty() && this.levelOfEducation.isEmpty() )
+      return "";
+    return "publisher=" + this.publisher + ",level=" + this.levelOfEducation;
+  }
+
+  /**
+   * Check if any rule is set
+   * @return True if not all books are downloaded in the order they're found in
+   */
+  public boolean isActive() {
+    return this.title != null || this.priority != null || !this.publisher.isEmpty() || !this.levelOfEducation.isEmpty() || this.maxPages > 0;
+  }
+
+  /**
+   * Describe the rules of this filter
+   * @return Human readable rules
+   */
+  public String describe() {
+    return String.format(
+      "Filter: titles %s, first %s, publisher %s, level of education %s, max. pages %s",
+      this.title == null ? "any" : "/" + this.title.pattern() + "/",
+      this.priority == null ? "none" : "/" + this.priority.pattern() + "/",
+      this.publisher.isEmpty() ? "any" : this.publisher,
+      this.levelOfEducation.isEmpty() ? "any" : this.levelOfEducation,
+      this.maxPages == 0 ? "any" : String.valueOf( this.maxPages )
+    );
+  }
+
+  /**
+   * Compile a title pattern setting, titles are matched case insensitive
+   * @param key Key of the setting
+   * @return Compiled pattern, null if not set or malformed
+   */
+  private static Pattern compile( String key ) {
+    String value = Config.getString( key, "" );
+    if( value.isEmpty() )
+      return null;
+
+    try {
+      return Pattern.compile( value, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE );
+    } catch ( PatternSyntaxException e ) {
+      System.out.println( "Invalid pattern for setting " + key + ", ignoring it" );
+      return null;
+    }
+  }
+}
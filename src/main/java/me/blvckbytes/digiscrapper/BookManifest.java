@@ -0,0 +1,304 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BookManifest implements Closeable {
+
+  private static final char IMAGE = 'I', PAGE = 'P', DONE = 'D';
+
+  private File file, bookDir;
+  private Writer writer;
+  private Map< String, Item > images;
+  private Map< Integer, Page > pages;
+  private boolean torn;
+
+  /**
+   * Append-only manifest of a book's completed pieces, kept as .manifest within
+   * the book folder. An image is recorded once it's stored, a page once its file
+   * and all of its own images are, the book once every page made it. Lines are
+   * written in the following formats:
+   * I;file name;size;sha-256
+   * P;page;size;sha-256;file names of its images separated by ,
+   * D;pages
+   * @param bookDir Folder of the book
+   */
+  public BookManifest( File bookDir ) {
+    this.bookDir = bookDir;
+    this.file = new File( bookDir, ".manifest" );
+    this.images = new HashMap<>();
+    this.pages = new HashMap<>();
+  }
+
+  /**
+   * Check whether the manifest of a book marks it as done, only the last
+   * line is read so this stays cheap for thousands of books
+   * @param bookDir Folder of the book
+   * @return True if the book is complete
+   */
+  public static boolean isDone( File bookDir ) {
+    File file = new File( bookDir, ".manifest" );
+
+    try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+      long length = raf.length();
+      byte[] tail = new byte[ ( int ) Math.min( length, 64 ) ];
+      raf.seek( length - tail.length );
+      raf.readFully( tail );
+
+      // The done line is the last complete line
+      int end = tail.length - 1;
+      if( end < 0 || tail[ end ] != '\n' )
+        return false;
+
+      int start = end;
+      while( start > 0 && tail[ start - 1 ] != '\n' )
+        start--;
+
+      return end - start >= 2 && tail[ start ] == DONE && tail[ start + 1 ] == ';';
+    } catch ( IOException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Check whether a book folder is complete. Folders written before there were
+   * manifests can't be checked, only the ones marked as damaged are retried
+   * @param bookDir Folder of the book
+   * @return True if the book is complete
+   */
+  public static boolean isFolderDone( File bookDir ) {
+    if( isDone( bookDir ) )
+      return true;
+
+    return !new File( bookDir, ".manifest" ).exists() && !new File( bookDir, "error.txt" ).exists();
+  }
+
+  /**
+   * Replay all complete lines of the manifest and open it for appending. A torn
+   * line means the machine went down while writing, which is when file contents
+   * can't be trusted either, so all recorded pieces get their checksums verified
+   * @throws IOException Errors while reading or opening the manifest
+   */
+  public void open() throws IOException {
+    long valid = 0;
+
+    if( this.file.exists() )
+      valid = replay( Files.readAllBytes( this.file.toPath() ) );
+
+    // Cut off the torn tail, then append behind the last complete line
+    try ( RandomAccessFile raf = new RandomAccessFile( this.file, "rw" ) ) {
+      if( raf.length() > valid )
+        raf.setLength( valid );
+    }
+
+    this.writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.file, true ), StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * Check all recorded pages against the files on disk. A page only counts as
+   * complete if it and its images still exist with their recorded sizes, and
+   * also match their checksums if the manifest is suspicious. Incomplete pages
+   * are forgotten, so they're downloaded again, and the manifest gets rewritten
+   * with only the verified pieces
+   * @return Number of complete pages
+   * @throws IOException Errors while rewriting the manifest
+   */
+  public synchronized int verify() throws IOException {
+    Map< String, Boolean > checked = new LinkedHashMap<>();
+    this.pages.entrySet().removeIf( entry -> {
+      Page page = entry.getValue();
+      if( !check( new File( this.bookDir, entry.getKey() + ".svg" ), page.size, page.hash ) )
+        return true;
+
+      for( String name : page.images ) {
+        Item image = this.images.get( name );
+        if( image == null || !checked.computeIfAbsent( name, k -> check( new File( this.bookDir, k ), image.size, image.hash ) ) )
+          return true;
+      }
+
+      return false;
+    } );
+
+    // Swap in the compacted manifest, a crash in between leaves the old one
+    this.writer.close();
+    File temp = new File( this.bookDir, ".manifest.part" );
+    try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( temp ), StandardCharsets.UTF_8 ) ) ) {
+      for( Map.Entry< String, Boolean > image : checked.entrySet() ) {
+        if( image.getValue() )
+          writer.write( imageLine( image.getKey(), this.images.get( image.getKey() ) ) );
+      }
+
+      for( Map.Entry< Integer, Page > page : this.pages.entrySet() )
+        writer.write( pageLine( page.getKey(), page.getValue() ) );
+    }
+
+    Files.move( temp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE );
+    this.writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.file, true ), StandardCharsets.UTF_8 ) );
+    this.torn = false;
+
+    return this.pages.size();
+  }
+
+  /**
+   * Check whether a page has been completed by an earlier run
+   * @param page Number of the page
+   * @return True if complete
+   */
+  public synchronized boolean isComplete( int page ) {
+    return this.pages.containsKey( page );
+  }
+
+  /**
+   * Record a stored image
+   * @param name File name within the book folder
+   * @param size Size in bytes
+   * @param hash Hex-digest of the content
+   * @throws IOException Errors while writing
+   */
+  public synchronized void recordImage( String name, long size, String hash ) throws IOException {
+    Item image = new Item( size, hash );
+    this.images.put( name, image );
+    this.writer.write( imageLine( name, image ) );
+    this.writer.flush();
+  }
+
+  /**
+   * Record a completed page
+   * @param page Number of the page
+   * @param size Size of the page file in bytes
+   * @param hash Hex-digest of the page file
+   * @param images File names of the images the page references
+   * @throws IOException Errors while writing
+   */
+  public synchronized void recordPage( int page, long size, String hash, Collection< String > images ) throws IOException {
+    Page entry = new Page( size, hash, images.toArray( new String[ 0 ] ) );
+    this.pages.put( page, entry );
+    this.writer.write( pageLine( page, entry ) );
+    this.writer.flush();
+  }
+
+  /**
+   * Mark the book as complete, it's skipped from now on
+   * @param pages Number of pages of the book
+   * @throws IOException Errors while writing
+   */
+  public synchronized void recordDone( int pages ) throws IOException {
+    this.writer.write( DONE + ";" + pages + "\n" );
+    this.writer.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if( this.writer != null )
+      this.writer.close();
+  }
+
+  /**
+   * Parse all complete lines, damaged lines are skipped. A trailing done line
+   * isn't part of the valid prefix, since the book is about to be resumed
+   * @return Length of the valid prefix in bytes
+   */
+  private long replay( byte[] data ) {
+    int start = 0, done = -1;
+
+    for( int i = 0; i < data.length; i++ ) {
+      if( data[ i ] != '\n' )
+        continue;
+
+      String[] parts = new String( data, start, i - start, StandardCharsets.UTF_8 ).split( ";", -1 );
+      done = parts[ 0 ].equals( String.valueOf( DONE ) ) ? start : -1;
+      start = i + 1;
+
+      try {
+        if( parts[ 0 ].length() != 1 )
+          continue;
+
+        switch ( parts[ 0 ].charAt( 0 ) ) {
+          case IMAGE:
+            this.images.put( parts[ 1 ], new Item( Long.parseLong( parts[ 2 ] ), parts[ 3 ] ) );
+            break;
+
+          case PAGE:
+            String[] names = parts[ 4 ].isEmpty() ? new String[ 0 ] : parts[ 4 ].split( "," );
+            this.pages.put( Integer.parseInt( parts[ 1 ] ), new Page( Long.parseLong( parts[ 2 ] ), parts[ 3 ], names ) );
+            break;
+        }
+      } catch ( NumberFormatException | ArrayIndexOutOfBoundsException e ) {
+        System.out.println( "Skipping damaged manifest line in " + this.file );
+      }
+    }
+
+    this.torn = start < data.length;
+    return done >= 0 ? done : start;
+  }
+
+  private static String imageLine( String name, Item image ) {
+    return IMAGE + ";" + name + ";" + image.size + ";" + image.hash + "\n";
+  }
+
+  private static String pageLine( int page, Page entry ) {
+    return PAGE + ";" + page + ";" + entry.size + ";" + entry.hash + ";" + String.join( ",", entry.images ) + "\n";
+  }
+
+  /**
+   * Check a recorded file, its content is only hashed if the manifest is suspicious
+   */
+  private boolean check( File file, long size, String hash ) {
+    if( !file.isFile() || file.length() != size )
+      return false;
+
+    if( !this.torn )
+      return true;
+
+    try ( InputStream in = Files.newInputStream( file.toPath() ) ) {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      byte[] buf = new byte[ 64 * 1024 ];
+      int read;
+      while( ( read = in.read( buf ) ) != -1 )
+        digest.update( buf, 0, read );
+
+      return Utils.toHex( digest.digest() ).equals( hash );
+    } catch ( Exception e ) {
+      return false;
+    }
+  }
+
+  private static class Item {
+    private final long size;
+    private final String hash;
+
+    private Item( long size, String hash ) {
+      this.size = size;
+      this.hash = hash;
+    }
+  }
+
+  private static class Page {
+    private final long size;
+    private final String hash;
+    private final List< String > images;
+
+    private Page( long size, String hash, String[] images ) {
+      this.size = size;
+      this.hash = hash;
+      this.images = Arrays.asList( images );
+    }
+  }
+}
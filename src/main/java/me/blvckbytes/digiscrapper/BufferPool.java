@@ -0,0 +1,96 @@
+package me.blvckbytes.digiscrapper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPool {
+
+  private int bufferSize, maxIdle;
+  private ConcurrentLinkedQueue< Buffer > idle;
+  private AtomicInteger idleCount;
+  private AtomicLong allocated, leases;
+
+  /**
+   * Pool of direct buffers used to move bodies into files. Every download borrows
+   * one for the time it's writing, so no buffer gets allocated per file and the
+   * direct memory in use is bound by the number of concurrent writes
+   * @param bufferSize Size of every buffer in bytes
+   * @param maxIdle Maximum number of buffers kept for reuse
+   */
+  public BufferPool( int bufferSize, int maxIdle ) {
+    this.bufferSize = Math.max( 4096, bufferSize );
+    this.maxIdle = Math.max( 0, maxIdle );
+    this.idle = new ConcurrentLinkedQueue<>();
+    this.idleCount = new AtomicInteger( 0 );
+    this.allocated = new AtomicLong( 0 );
+    this.leases = new AtomicLong( 0 );
+  }
+
+  /**
+   * Create a pool configured by the settings ioBufferSize (KB) and ioBuffers
+   * @return Empty pool
+   */
+  public static BufferPool fromConfig() {
+    return new BufferPool(
+      Config.getInt( "ioBufferSize", 64 ) * 1024,
+      Config.getInt( "ioBuffers", 256 )
+    );
+  }
+
+  /**
+   * Borrow a cleared buffer, allocates a new one if none is idle
+   * @return Buffer which has to be released after use
+   */
+  public Buffer acquire() {
+    this.leases.incrementAndGet();
+
+    Buffer buffer = this.idle.poll();
+    if( buffer != null ) {
+      this.idleCount.decrementAndGet();
+      buffer.direct.clear();
+      return buffer;
+    }
+
+    this.allocated.incrementAndGet();
+    return new Buffer( this.bufferSize );
+  }
+
+  /**
+   * Return a borrowed buffer, it's dropped if enough buffers are idle already
+   * @param buffer Buffer to return
+   */
+  public void release( Buffer buffer ) {
+    if( this.idleCount.incrementAndGet() > this.maxIdle ) {
+      this.idleCount.decrementAndGet();
+      return;
+    }
+
+    this.idle.add( buffer );
+  }
+
+  /**
+   * Describe how well buffers got reused
+   * @return Human readable metrics
+   */
+  public String describe() {
+    return String.format(
+      "Buffers: %d allocated (%dKB each) for %d writes, %d idle",
+      this.allocated.get(), this.bufferSize / 1024, this.leases.get(), this.idleCount.get()
+    );
+  }
+
+  public static class Buffer {
+    // Direct memory the channels write from
+    public final ByteBuffer direct;
+
+    // Streams can only be read into arrays, chunks are staged here
+    public final byte[] staging;
+
+    private Buffer( int size ) {
+      this.direct = ByteBuffer.allocateDirect( size );
+      this.staging = new byte[ Math.min( size, 16 * 1024 ) ];
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreaker {
+
+  private static final Map< String, CircuitBreaker > BREAKERS = new ConcurrentHashMap<>();
+
+  private String host;
+  private int threshold;
+  private long basePause, maxPause, pause;
+
+  private int failures;
+  private long openUntil;
+  private boolean open, probing;
+  private Queue< CompletableFuture< Void > > waiters;
+
+  /**
+   * Pauses all requests to a host once too many of them failed in a row, instead of
+   * hammering an endpoint which is down. After the pause a single probe request is let
+   * through, its success closes the breaker and releases everyone who waited, its failure
+   * pauses again for twice as long. Waiting doesn't block, the caller gets a future
+   * @param host Host guarded by this breaker
+   * @param threshold Consecutive failures which open the breaker
+   * @param basePause Milliseconds of the first pause
+   * @param maxPause Upper bound of the pause in milliseconds
+   */
+  public CircuitBreaker( String host, int threshold, long basePause, long maxPause ) {
+    this.host = host;
+    this.threshold = Math.max( 1, threshold );
+    this.basePause = Math.max( 1, basePause );
+    this.maxPause = Math.max( this.basePause, maxPause );
+    this.pause = this.basePause;
+    this.waiters = new ArrayDeque<>();
+  }
+
+  /**
+   * Get the breaker of a host which is shared by all transports of this run, configured
+   * by the settings breakerFailures and breakerPause (seconds)
+   * @param host Host to guard
+   * @return Shared breaker
+   */
+  public static CircuitBreaker get( String host ) {
+    return BREAKERS.computeIfAbsent( host, h -> {
+      long pause = Config.getInt( "breakerPause", 30 ) * 1000L;
+      CircuitBreaker breaker = new CircuitBreaker( h, Config.getInt( "breakerFailures", 10 ), pause, pause * 20 );
+      Metrics.get().gauge( "breaker_open", "host=\"" + h + "\"", "Whether requests to the host are paused", () -> breaker.isOpen() ? 1 : 0 );
+      return breaker;
+    } );
+  }
+
+  /**
+   * Wait until a request may be sent
+   * @return Future which completes as soon as the request may be sent
+   */
+  public CompletableFuture< Void > acquire() {
+    synchronized ( this ) {
+      if( !this.open )
+        return CompletableFuture.completedFuture( null );
+
+      // Pause is over and nobody probes the host yet
+      if( !this.probing && System.currentTimeMillis() >= this.openUntil ) {
+        this.probing = true;
+        return CompletableFuture.completedFuture( null );
+      }
+
+      CompletableFuture< Void > waiter = new CompletableFuture<>();
+      this.waiters.add( waiter );
+      return waiter;
+    }
+  }
+
+  /**
+   * Record the outcome of a request which got through this breaker
+   * @param success False if the host failed to answer properly
+   */
+  public void record( boolean success ) {
+    Queue< CompletableFuture< Void > > released = null;
+
+    synchronized ( this ) {
+      if( success ) {
+        this.failures = 0;
+
+        if( this.open ) {
+          System.out.println( "Host " + this.host + " answers again, resuming requests" );
+          this.open = this.probing = false;
+          this.pause = this.basePause;
+          released = this.waiters;
+          this.waiters = new ArrayDeque<>();
+        }
+      }
+
+      else if( this.probing ) {
+        // Probe failed, the host needs more time
+        this.failures++;
+        this.probing = false;
+        this.pause = Math.min( this.pause * 2, this.maxPause );
+        trip();
+      }
+
+      else if( ++this.failures >= this.threshold && !this.open ) {
+        this.open = true;
+        trip();
+      }
+    }
+
+    if( released != null ) {
+      for( CompletableFuture< Void > waiter : released )
+        waiter.complete( null );
+    }
+  }
+
+  /**
+   * Check whether requests are currently paused
+   * @return True if the breaker is open
+   */
+  public synchronized boolean isOpen() {
+    return this.open;
+  }
+
+  /**
+   * Pause the host and schedule the probe, lock has to be held
+   */
+  private void trip() {
+    this.openUntil = System.currentTimeMillis() + this.pause;
+    System.out.println( "Host " + this.host + " failed " + this.failures + " times in a row, pausing its requests for " + this.pause / 1000 + "s" );
+
+    CompletableFuture.delayedExecutor( this.pause, TimeUnit.MILLISECONDS ).execute( this::probe );
+  }
+
+  /**
+   * Let the first waiter through as probe once the pause is over
+   */
+  private void probe() {
+    CompletableFuture< Void > probe;
+
+    synchronized ( this ) {
+      if( !this.open || this.probing || System.currentTimeMillis() < this.openUntil || this.waiters.isEmpty() )
+        return;
+
+      this.probing = true;
+      probe = this.waiters.poll();
+    }
+
+    probe.complete( null );
+  }
+}
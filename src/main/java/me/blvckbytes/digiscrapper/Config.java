@@ -0,0 +1,47 @@
+package me.blvckbytes.digiscrapper;
+
+public class Config {
+
+  private static final String PREFIX = "digiscrapper.";
+
+  /**
+   * Read a string setting, settings are passed as system properties
+   * like -Ddigiscrapper.mode=virtual
+   * @param key Key of the setting without prefix
+   * @param def Default value if not set
+   * @return Value of the setting
+   */
+  public static String getString( String key, String def ) {
+    return System.getProperty( PREFIX + key, def );
+  }
+
+  /**
+   * Read an integer setting
+   * @param key Key of the setting without prefix
+   * @param def Default value if not set or malformed
+   * @return Value of the setting
+   */
+  public static int getInt( String key, int def ) {
+    String value = System.getProperty( PREFIX + key );
+    if( value == null )
+      return def;
+
+    try {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      System.out.println( "Invalid number for setting " + key + ", using " + def );
+      return def;
+    }
+  }
+
+  /**
+   * Read a boolean setting
+   * @param key Key of the setting without prefix
+   * @param def Default value if not set
+   * @return Value of the setting
+   */
+  public static boolean getBoolean( String key, boolean def ) {
+    String value = System.getProperty( PREFIX + key );
+    return value == null ? def : Boolean.parseBoolean( value.trim() );
+  }
+}
@@ -0,0 +1,367 @@
+package me.blvckbytes.digiscrapper;
+
+import java.net.URI;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CookieJar {
+
+  // Netscape's original format without its day of the week, still sent by some hosts
+  private static final DateTimeFormatter LEGACY_EXPIRES = DateTimeFormatter.ofPattern( "dd-MMM-yyyy HH:mm:ss zzz", Locale.US );
+
+  private AtomicReference< State > state;
+
+  /**
+   * Simulates a browser's cookie management for one session. Cookies are scoped
+   * by domain and path and honor their expiry. Reading never locks: the cookies
+   * live in an immutable snapshot which is swapped out on every actual change,
+   * so the serialized headers of a snapshot can be cached until then
+   */
+  public CookieJar() {
+    this.state = new AtomicReference<>( new State( Collections.emptyList() ) );
+  }
+
+  /**
+   * Take over all Set-Cookie headers of a response
+   * @param url Url the response came from
+   * @param setPrompts Set-Cookie headers of the response
+   */
+  public void write( String url, List< String > setPrompts ) {
+    for( String setPrompt : setPrompts )
+      write( url, setPrompt );
+  }
+
+  /**
+   * Write and or update a cookie from a Set-Cookie header
+   * @param url Url the response came from
+   * @param setPrompt Set-Cookie prompt from the headers
+   */
+  public void write( String url, String setPrompt ) {
+    Cookie cookie = Cookie.parse( URI.create( url ), setPrompt );
+
+    // Damaged format received
+    if( cookie == null )
+      return;
+
+    while( true ) {
+      State current = this.state.get();
+      List< Cookie > cookies = new ArrayList<>( current.cookies.size() + 1 );
+      boolean changed = !cookie.isExpired( System.currentTimeMillis() );
+
+      // Replace the cookie with the same name and scope, unchanged cookies keep the snapshot
+      for( Cookie existing : current.cookies ) {
+        if( !existing.sameScope( cookie ) ) {
+          cookies.add( existing );
+          continue;
+        }
+
+        changed = !existing.sameContent( cookie ) || cookie.isExpired( System.currentTimeMillis() );
+      }
+
+      if( !changed )
+        return;
+
+      // Expired cookies only delete the existing one
+      if( !cookie.isExpired( System.currentTimeMillis() ) )
+        cookies.add( cookie );
+
+      if( this.state.compareAndSet( current, new State( cookies ) ) )
+        return;
+    }
+  }
+
+  /**
+   * Generates the Cookie value for a request
+   * @param url Url the request goes to
+   * @return Accumulated cookies, empty if there are none
+   */
+  public String generate( String url ) {
+    long now = System.currentTimeMillis();
+    State current = this.state.get();
+
+    // Drop expired cookies, which invalidates the cached headers
+    if( now >= current.nextExpiry ) {
+      List< Cookie > alive = new ArrayList<>();
+      for( Cookie cookie : current.cookies ) {
+        if( !cookie.isExpired( now ) )
+          alive.add( cookie );
+      }
+
+      State purged = new State( alive );
+      current = this.state.compareAndSet( current, purged ) ? purged : this.state.get();
+    }
+
+    URI uri = URI.create( url );
+    String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase( Locale.ROOT );
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+
+    // Headers only depend on the host and on which of the cookie paths match, with
+    // all cookies on / every request to a host shares the same header
+    State snapshot = current;
+    return current.headers.computeIfAbsent( host + "#" + current.matchingPaths( path ), k -> snapshot.serialize( host, path, now ) );
+  }
+
+  /**
+   * Export all living cookies, so they can be restored into another jar later on
+   * @return One line per cookie, the url it came from and its Set-Cookie prompt separated by a space
+   */
+  public List< String > export() {
+    long now = System.currentTimeMillis();
+    List< String > exported = new ArrayList<>();
+    for( Cookie cookie : this.state.get().cookies ) {
+      if( !cookie.isExpired( now ) )
+        exported.add( cookie.export() );
+    }
+    return exported;
+  }
+
+  /**
+   * Restore exported cookies, they replace cookies with the same name and scope
+   * @param exported Lines produced by export
+   */
+  public void restore( List< String > exported ) {
+    for( String line : exported ) {
+      int space = line.indexOf( ' ' );
+      if( space > 0 )
+        write( line.substring( 0, space ), line.substring( space + 1 ) );
+    }
+  }
+
+  /**
+   * Get the number of cookies in this jar which haven't expired yet
+   * @return Number of living cookies
+   */
+  public int size() {
+    long now = System.currentTimeMillis();
+    int alive = 0;
+    for( Cookie cookie : this.state.get().cookies ) {
+      if( !cookie.isExpired( now ) )
+        alive++;
+    }
+    return alive;
+  }
+
+  private static class State {
+    private final List< Cookie > cookies;
+    private final ConcurrentHashMap< String, String > headers;
+    private final List< String > paths;
+    private final long nextExpiry;
+
+    private State( List< Cookie > cookies ) {
+      this.cookies = cookies;
+      this.headers = new ConcurrentHashMap<>();
+      this.paths = new ArrayList<>();
+
+      for( Cookie cookie : cookies ) {
+        if( !this.paths.contains( cookie.path ) )
+          this.paths.add( cookie.path );
+      }
+
+      long next = Long.MAX_VALUE;
+      for( Cookie cookie : cookies )
+        next = Math.min( next, cookie.expires );
+      this.nextExpiry = next;
+    }
+
+    /**
+     * Describe which of the distinct cookie paths match a request path
+     * @return Bits of the matching paths, the path itself if there are too many to fit
+     */
+    private String matchingPaths( String path ) {
+      if( this.paths.size() > 64 )
+        return path;
+
+      long mask = 0;
+      for( int i = 0; i < this.paths.size(); i++ ) {
+        if( Cookie.pathMatches( this.paths.get( i ), path ) )
+          mask |= 1L << i;
+      }
+      return Long.toHexString( mask );
+    }
+
+    /**
+     * Build the header value of all cookies matching the request, longer paths go first
+     */
+    private String serialize( String host, String path, long now ) {
+      List< Cookie > matching = new ArrayList<>();
+      for( Cookie cookie : this.cookies ) {
+        if( cookie.matches( host, path ) && !cookie.isExpired( now ) )
+          matching.add( cookie );
+      }
+
+      matching.sort( ( a, b ) -> b.path.length() - a.path.length() );
+
+      StringBuilder builder = new StringBuilder();
+      for( Cookie cookie : matching ) {
+        if( builder.length() > 0 )
+          builder.append( "; " );
+        builder.append( cookie.name ).append( "=" ).append( cookie.value );
+      }
+      return builder.toString();
+    }
+  }
+
+  private static class Cookie {
+    private final String name, value, domain, path;
+    private final boolean hostOnly;
+    private final long expires;
+
+    private Cookie( String name, String value, String domain, String path, boolean hostOnly, long expires ) {
+      this.name = name;
+      this.value = value;
+      this.domain = domain;
+      this.path = path;
+      this.hostOnly = hostOnly;
+      this.expires = expires;
+    }
+
+    /**
+     * Parse a Set-Cookie header, missing domain and path default to the request's
+     * @param uri Url the response came from
+     * @param setPrompt Value of the header
+     * @return Parsed cookie, null if damaged or not allowed for the host
+     */
+    private static Cookie parse( URI uri, String setPrompt ) {
+      String[] parts = setPrompt.split( ";" );
+      int eq = parts[ 0 ].indexOf( '=' );
+      if( eq <= 0 )
+        return null;
+
+      String name = parts[ 0 ].substring( 0, eq ).trim();
+      String value = parts[ 0 ].substring( eq + 1 ).trim();
+      String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase( Locale.ROOT );
+
+      String domain = null, path = null;
+      long expires = Long.MAX_VALUE;
+      boolean maxAge = false;
+
+      for( int i = 1; i < parts.length; i++ ) {
+        String attr = parts[ i ].trim();
+        int sep = attr.indexOf( '=' );
+        String key = ( sep < 0 ? attr : attr.substring( 0, sep ) ).trim().toLowerCase( Locale.ROOT );
+        String val = sep < 0 ? "" : attr.substring( sep + 1 ).trim();
+
+        switch ( key ) {
+          case "domain":
+            if( !val.isEmpty() )
+              domain = ( val.startsWith( "." ) ? val.substring( 1 ) : val ).toLowerCase( Locale.ROOT );
+            break;
+
+          case "path":
+            if( val.startsWith( "/" ) )
+              path = val;
+            break;
+
+          // Max-Age wins over Expires
+          case "max-age":
+            try {
+              long seconds = Long.parseLong( val );
+              expires = seconds <= 0 ? 0 : System.currentTimeMillis() + seconds * 1000;
+              maxAge = true;
+            } catch ( NumberFormatException ignored ) {}
+            break;
+
+          case "expires":
+            if( maxAge )
+              break;
+            expires = parseExpires( val, expires );
+            break;
+        }
+      }
+
+      // Cookies for foreign domains are rejected, just like a browser does
+      boolean hostOnly = domain == null;
+      if( hostOnly )
+        domain = host;
+      else if( !domainMatches( host, domain ) )
+        return null;
+
+      // Default path is the directory of the request
+      if( path == null ) {
+        String reqPath = uri.getRawPath();
+        int slash = reqPath == null ? -1 : reqPath.lastIndexOf( '/' );
+        path = slash <= 0 ? "/" : reqPath.substring( 0, slash );
+      }
+
+      return new Cookie( name, value, domain, path, hostOnly, expires );
+    }
+
+    /**
+     * Parse the date of an Expires attribute, either as RFC 1123 or in the legacy dashed format
+     * @param value Value of the attribute
+     * @param def Expiry to keep if the date is malformed
+     * @return Expiry in epoch milliseconds
+     */
+    private static long parseExpires( String value, long def ) {
+      try {
+        return ZonedDateTime.parse( value, DateTimeFormatter.RFC_1123_DATE_TIME ).toInstant().toEpochMilli();
+      } catch ( Exception ignored ) {}
+
+      try {
+        return ZonedDateTime.parse( value.substring( value.indexOf( ',' ) + 1 ).trim(), LEGACY_EXPIRES ).toInstant().toEpochMilli();
+      } catch ( Exception ignored ) {}
+
+      return def;
+    }
+
+    /**
+     * Serialize as the url of the cookie's scope and a Set-Cookie prompt which parses back into this cookie
+     */
+    private String export() {
+      StringBuilder prompt = new StringBuilder( "https://" ).append( this.domain ).append( this.path ).append( ' ' );
+      prompt.append( this.name ).append( '=' ).append( this.value ).append( "; Path=" ).append( this.path );
+
+      if( !this.hostOnly )
+        prompt.append( "; Domain=" ).append( this.domain );
+
+      if( this.expires != Long.MAX_VALUE )
+        prompt.append( "; Expires=" ).append( DateTimeFormatter.RFC_1123_DATE_TIME.format( Instant.ofEpochMilli( this.expires ).atZone( ZoneOffset.UTC ) ) );
+
+      return prompt.toString();
+    }
+
+    private boolean matches( String host, String reqPath ) {
+      if( this.hostOnly ? !host.equals( this.domain ) : !domainMatches( host, this.domain ) )
+        return false;
+
+      return pathMatches( this.path, reqPath );
+    }
+
+    /**
+     * The cookie's path has to be a prefix ending at a segment boundary
+     */
+    private static boolean pathMatches( String path, String reqPath ) {
+      if( !reqPath.startsWith( path ) )
+        return false;
+      return reqPath.length() == path.length() || path.endsWith( "/" ) || reqPath.charAt( path.length() ) == '/';
+    }
+
+    private static boolean domainMatches( String host, String domain ) {
+      return host.equals( domain ) || host.endsWith( "." + domain );
+    }
+
+    private boolean isExpired( long now ) {
+      return now >= this.expires;
+    }
+
+    private boolean sameScope( Cookie other ) {
+      return this.name.equals( other.name ) && this.domain.equals( other.domain ) && this.path.equals( other.path );
+    }
+
+    /**
+     * Refreshing a Max-Age cookie with the same value shouldn't swap the snapshot
+     * on every response, so expiries within a minute count as the same
+     */
+    private boolean sameContent( Cookie other ) {
+      return this.value.equals( other.value ) && this.hostOnly == other.hostOnly && Math.abs( this.expires - other.expires ) < 60_000;
+    }
+  }
+}
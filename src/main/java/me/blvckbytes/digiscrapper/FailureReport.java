@@ -0,0 +1,145 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+public class FailureReport {
+
+  private static final FailureReport INSTANCE = new FailureReport();
+
+  private Map< String, ConcurrentLinkedQueue< Failure > > failures;
+
+  /**
+   * Collects everything which still failed after all retries, grouped by the token or
+   * term it belongs to. At the end of a run the report is written as failures.csv, so
+   * broken books show up in one place instead of somewhere within the console output
+   */
+  private FailureReport() {
+    this.failures = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Get the report which is shared by all components of this run
+   * @return Shared report
+   */
+  public static FailureReport get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Record a failure
+   * @param kind Kind of the failed work, like book, page or term
+   * @param key Token or term the failure belongs to
+   * @param item What exactly failed, like the page number, empty if the whole key failed
+   * @param cause Cause of the failure
+   */
+  public void record( String kind, String key, String item, Throwable cause ) {
+    record( kind, key, item, describe( cause ) );
+  }
+
+  /**
+   * Record a failure
+   * @param kind Kind of the failed work, like book, page or term
+   * @param key Token or term the failure belongs to
+   * @param item What exactly failed, like the page number, empty if the whole key failed
+   * @param reason Why it failed
+   */
+  public void record( String kind, String key, String item, String reason ) {
+    this.failures.computeIfAbsent( key, k -> new ConcurrentLinkedQueue<>() ).add( new Failure( kind, key, item, reason ) );
+  }
+
+  /**
+   * Forget all failures of a key, because a later attempt succeeded
+   * @param key Token or term which succeeded
+   */
+  public void resolve( String key ) {
+    this.failures.remove( key );
+  }
+
+  /**
+   * Get the number of failures which are still unresolved
+   * @return Number of failures
+   */
+  public int size() {
+    int size = 0;
+    for( ConcurrentLinkedQueue< Failure > failures : this.failures.values() )
+      size += failures.size();
+    return size;
+  }
+
+  /**
+   * Write the report and print a summary of it. Without any failures,
+   * the report of an earlier run gets deleted
+   * @param file Target file
+   */
+  public void write( File file ) {
+    Map< String, Integer > kinds = new TreeMap<>();
+    List< Failure > all = new ArrayList<>();
+    for( ConcurrentLinkedQueue< Failure > failures : new TreeMap<>( this.failures ).values() ) {
+      for( Failure failure : failures ) {
+        all.add( failure );
+        kinds.merge( failure.kind, 1, Integer::sum );
+      }
+    }
+
+    try {
+      if( all.isEmpty() ) {
+        Files.deleteIfExists( file.toPath() );
+        return;
+      }
+
+      try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ) ) ) {
+        writer.write( "# Everything which still failed after all retries, gets retried by the next run\n" );
+        writer.write( "# kind;key;item;reason\n" );
+        for( Failure failure : all )
+          writer.write( failure.kind + ";" + failure.key + ";" + failure.item + ";" + failure.reason + "\n" );
+      }
+
+      System.out.println( "Failures: " + all.size() + " " + kinds + ", see " + file.getAbsolutePath() );
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Describe the root cause of a failure on a single line
+   * @param cause Failure, possibly wrapped by futures
+   * @return Description of the root cause
+   */
+  private static String describe( Throwable cause ) {
+    while( ( cause instanceof CompletionException || cause instanceof ExecutionException ) && cause.getCause() != null )
+      cause = cause.getCause();
+
+    String message = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    return message.replace( ';', ',' ).replace( '\n', ' ' ).replace( '\r', ' ' );
+  }
+
+  /**
+   * A single failure of the report
+   */
+  public static class Failure {
+
+    public final String kind, key, item, reason;
+
+    public Failure( String kind, String key, String item, String reason ) {
+      this.kind = kind;
+      this.key = key;
+      this.item = item;
+      this.reason = reason;
+    }
+  }
+}
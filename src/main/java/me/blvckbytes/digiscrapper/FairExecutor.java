@@ -0,0 +1,162 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+public class FairExecutor {
+
+  private Executor delegate;
+  private int parallelism, running, queued;
+  private Map< String, Queue< Supplier< CompletableFuture< ? > > > > lanes;
+  private Queue< String > order;
+
+  /**
+   * Distributes tasks of multiple lanes (books) onto one executor in a round-robin
+   * fashion, so a book with lots of pages can't starve the others. At most
+   * parallelism tasks are in flight at once, the rest waits in its lane
+   * @param delegate Executor which runs the tasks
+   * @param parallelism Maximum tasks in flight at once
+   */
+  public FairExecutor( Executor delegate, int parallelism ) {
+    this.delegate = delegate;
+    this.parallelism = parallelism;
+    this.lanes = new HashMap<>();
+    this.order = new ArrayDeque<>();
+  }
+
+  /**
+   * Get an executor which queues all of its tasks into the given lane
+   * @param lane Name of the lane
+   * @return Executor of this lane
+   */
+  public Executor lane( String lane ) {
+    return task -> execute( lane, task );
+  }
+
+  /**
+   * Queue a task into a lane, it occupies a slot while running on the delegate
+   * @param lane Name of the lane
+   * @param task Task to run
+   */
+  public void execute( String lane, Runnable task ) {
+    enqueue( lane, () -> CompletableFuture.runAsync( task, this.delegate ) );
+  }
+
+  /**
+   * Queue an asynchronous task into a lane, it occupies a slot until the
+   * future it returns completes, without occupying any thread meanwhile
+   * @param lane Name of the lane
+   * @param task Task starting the asynchronous work
+   * @return Future of the task's result
+   */
+  public < T > CompletableFuture< T > submit( String lane, Supplier< CompletableFuture< T > > task ) {
+    CompletableFuture< T > result = new CompletableFuture<>();
+
+    enqueue( lane, () -> {
+      CompletableFuture< T > started;
+      try {
+        started = task.get();
+      } catch ( Throwable t ) {
+        started = new CompletableFuture<>();
+        started.completeExceptionally( t );
+      }
+
+      return started.whenComplete( ( v, e ) -> {
+        if( e != null )
+          result.completeExceptionally( e );
+        else
+          result.complete( v );
+      } );
+    } );
+
+    return result;
+  }
+
+  /**
+   * Get the number of tasks which wait for a free slot
+   * @return Number of queued tasks
+   */
+  public synchronized int getQueued() {
+    return this.queued;
+  }
+
+  /**
+   * Get the number of tasks which are currently in flight
+   * @return Number of running tasks
+   */
+  public synchronized int getRunning() {
+    return this.running;
+  }
+
+  /**
+   * Put a task into it's lane and dispatch
+   * @param lane Name of the lane
+   * @param task Task starting the work
+   */
+  private void enqueue( String lane, Supplier< CompletableFuture< ? > > task ) {
+    synchronized ( this ) {
+      Queue< Supplier< CompletableFuture< ? > > > tasks = this.lanes.get( lane );
+
+      // Lane had no pending work, put it back into the rotation
+      if( tasks == null ) {
+        tasks = new ArrayDeque<>();
+        this.lanes.put( lane, tasks );
+        this.order.add( lane );
+      }
+
+      tasks.add( task );
+      this.queued++;
+    }
+
+    dispatch();
+  }
+
+  /**
+   * Start tasks while there are free slots, taking one task per lane in turns
+   */
+  private void dispatch() {
+    while( true ) {
+      Supplier< CompletableFuture< ? > > task;
+
+      synchronized ( this ) {
+        if( this.running >= this.parallelism || this.order.isEmpty() )
+          return;
+
+        String lane = this.order.poll();
+        Queue< Supplier< CompletableFuture< ? > > > tasks = this.lanes.get( lane );
+        task = tasks.poll();
+
+        // Lane still has work, it's next turn is after all other lanes
+        if( tasks.isEmpty() )
+          this.lanes.remove( lane );
+        else
+          this.order.add( lane );
+
+        this.queued--;
+        this.running++;
+      }
+
+      CompletableFuture< ? > started = task.get();
+
+      // Finished right away, no need to wait for a callback
+      if( started.isDone() ) {
+        synchronized ( this ) {
+          this.running--;
+        }
+        continue;
+      }
+
+      started.whenComplete( ( v, e ) -> {
+        synchronized ( this ) {
+          this.running--;
+        }
+        dispatch();
+      } );
+    }
+  }
+}
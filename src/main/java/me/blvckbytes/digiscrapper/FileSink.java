@@ -0,0 +1,276 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FileSink {
+
+  private BufferPool buffers;
+  private Set< String > knownDirs;
+  private AtomicLong tempCounter, bytesWritten, filesWritten;
+
+  /**
+   * Writes downloaded bodies into files through file channels and pooled direct
+   * buffers. Files are written under a temporary name and renamed into place once
+   * complete, so a partial file never shows up under its final name. Directories
+   * are only created once per run
+   * @param buffers Pool the buffers are borrowed from
+   */
+  public FileSink( BufferPool buffers ) {
+    this.buffers = buffers;
+    this.knownDirs = ConcurrentHashMap.newKeySet();
+    this.tempCounter = new AtomicLong( 0 );
+    this.bytesWritten = new AtomicLong( 0 );
+    this.filesWritten = new AtomicLong( 0 );
+  }
+
+  /**
+   * Make sure a directory exists, known directories don't cause any file system calls
+   * @param dir Directory to create
+   * @throws IOException Directory could not be created
+   */
+  public void ensureDir( File dir ) throws IOException {
+    String key = dir.getPath();
+    if( this.knownDirs.contains( key ) )
+      return;
+
+    Files.createDirectories( dir.toPath() );
+    this.knownDirs.add( key );
+  }
+
+  /**
+   * Open a file which replaces the target once committed
+   * @param target Final location of the file
+   * @return Output to write to, has to be closed
+   * @throws IOException Errors while creating the temporary file
+   */
+  public Output open( File target ) throws IOException {
+    File dir = target.getAbsoluteFile().getParentFile();
+    ensureDir( dir );
+    return new Output( new File( dir, "." + target.getName() + ".part" ), target );
+  }
+
+  /**
+   * Open a file within a directory whose final location is decided on commit
+   * @param dir Directory to write the temporary file into
+   * @return Output to write to, has to be committed with a target
+   * @throws IOException Errors while creating the temporary file
+   */
+  public Output openTemp( File dir ) throws IOException {
+    ensureDir( dir );
+    return new Output( new File( dir, "sink" + this.tempCounter.incrementAndGet() + ".part" ), null );
+  }
+
+  /**
+   * Write a whole stream into the target file
+   * @param in Stream to read
+   * @param target Final location of the file
+   * @return Number of bytes written
+   * @throws IOException Errors while reading or writing
+   */
+  public long write( InputStream in, File target ) throws IOException {
+    try ( Output out = open( target ) ) {
+      long size = out.transferFrom( in, null );
+      out.commit();
+      return size;
+    }
+  }
+
+  /**
+   * Describe how much got written through this sink
+   * @return Human readable metrics
+   */
+  public String describe() {
+    return String.format(
+      "Files: %d written (%dMB), %d directories, %s",
+      this.filesWritten.get(), this.bytesWritten.get() / 1024 / 1024, this.knownDirs.size(), this.buffers.describe()
+    );
+  }
+
+  public class Output extends OutputStream {
+
+    private File temp, target;
+    private FileChannel channel;
+    private BufferPool.Buffer buffer;
+    private long size;
+    private boolean committed, closed;
+
+    private Output( File temp, File target ) throws IOException {
+      this.temp = temp;
+      this.target = target;
+
+      // Leftovers of an interrupted run get overwritten
+      this.channel = FileChannel.open(
+        temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+      );
+      this.buffer = buffers.acquire();
+    }
+
+    /**
+     * Copy a whole stream into this file, the stream is not closed
+     * @param in Stream to read
+     * @param digest Digest to update with the content, null to skip hashing
+     * @return Number of bytes copied
+     * @throws IOException Errors while reading or writing
+     */
+    public long transferFrom( InputStream in, MessageDigest digest ) throws IOException {
+      byte[] staging = this.buffer.staging;
+      long copied = 0;
+      int read;
+
+      while( ( read = in.read( staging ) ) != -1 ) {
+        if( digest != null )
+          digest.update( staging, 0, read );
+
+        write( staging, 0, read );
+        copied += read;
+      }
+
+      return copied;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      ByteBuffer direct = this.buffer.direct;
+      if( !direct.hasRemaining() )
+        drain();
+
+      direct.put( ( byte ) b );
+      this.size++;
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      ByteBuffer direct = this.buffer.direct;
+      this.size += len;
+
+      while( len > 0 ) {
+        if( !direct.hasRemaining() )
+          drain();
+
+        int chunk = Math.min( len, direct.remaining() );
+        direct.put( b, off, chunk );
+        off += chunk;
+        len -= chunk;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      drain();
+    }
+
+    /**
+     * Get the number of bytes written so far
+     * @return Bytes written
+     */
+    public long getSize() {
+      return this.size;
+    }
+
+    /**
+     * Copy everything written so far into another channel, the file system
+     * moves the bytes without them passing through the heap
+     * @param target Channel to copy into, at its current position
+     * @return Number of bytes copied
+     * @throws IOException Errors while copying
+     */
+    public long transferTo( WritableByteChannel target ) throws IOException {
+      drain();
+
+      long copied = 0;
+      while( copied < this.size )
+        copied += this.channel.transferTo( copied, this.size - copied, target );
+      return copied;
+    }
+
+    /**
+     * Finish the file and move it to the target it was opened for
+     * @throws IOException Errors while writing or moving
+     */
+    public void commit() throws IOException {
+      commit( this.target );
+    }
+
+    /**
+     * Finish the file and move it to a target, replacing an existing file
+     * @param target Final location of the file
+     * @throws IOException Errors while writing or moving
+     */
+    public void commit( File target ) throws IOException {
+      drain();
+      this.channel.close();
+
+      Files.move( this.temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE );
+      this.committed = true;
+
+      bytesWritten.addAndGet( this.size );
+      filesWritten.incrementAndGet();
+    }
+
+    /**
+     * Finish the file and move it to a target which mustn't exist yet. The target is
+     * claimed by hard-linking, so of two outputs racing for it only one wins
+     * @param target Final location of the file
+     * @throws FileAlreadyExistsException The target exists, the file gets dropped on close
+     * @throws IOException Errors while writing or moving
+     */
+    public void commitNew( File target ) throws IOException {
+      drain();
+      this.channel.close();
+
+      try {
+        Files.createLink( target.toPath(), this.temp.toPath() );
+        Files.delete( this.temp.toPath() );
+      } catch ( UnsupportedOperationException e ) {
+        Files.move( this.temp.toPath(), target.toPath() );
+      }
+      this.committed = true;
+
+      bytesWritten.addAndGet( this.size );
+      filesWritten.incrementAndGet();
+    }
+
+    /**
+     * Write the buffered bytes into the channel
+     */
+    private void drain() throws IOException {
+      ByteBuffer direct = this.buffer.direct;
+      direct.flip();
+      while( direct.hasRemaining() )
+        this.channel.write( direct );
+      direct.clear();
+    }
+
+    /**
+     * Close the file, an uncommitted file gets deleted
+     */
+    @Override
+    public void close() throws IOException {
+      if( this.closed )
+        return;
+      this.closed = true;
+
+      try {
+        this.channel.close();
+        if( !this.committed )
+          Files.deleteIfExists( this.temp.toPath() );
+      } finally {
+        buffers.release( this.buffer );
+      }
+    }
+  }
+}
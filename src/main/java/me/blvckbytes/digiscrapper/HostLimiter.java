@@ -0,0 +1,271 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class HostLimiter {
+
+  private static final HostLimiter INSTANCE = new HostLimiter(
+    Config.getInt( "hostConcurrency", 30 ),
+    Config.getInt( "hostMinConcurrency", 2 ),
+    Config.getInt( "hostMaxConcurrency", 120 )
+  );
+
+  // How much slower than the best seen latency a response may be to still count as healthy
+  private static final double LATENCY_TOLERANCE = 2.0;
+
+  // Multiplicative decrease on overload and when latency clearly degrades
+  private static final double BACKOFF = 0.5, SLOWDOWN = 0.95;
+
+  // Overload signals within this time after a backoff belong to the same incident
+  private static final long BACKOFF_COOLDOWN = 1_000_000_000L;
+
+  // Number of recent samples the latency percentiles and error rate are based on
+  private static final int WINDOW = 1024;
+
+  private int initial, min, max;
+  private Map< String, Host > hosts;
+
+  /**
+   * Adaptive limiter for the number of in-flight requests per host. The limit grows
+   * additively while responses are fast and healthy and shrinks multiplicatively on
+   * timeouts, 429s and 5xx (AIMD), so the run holds the highest throughput the host
+   * sustains without getting blocked. Waiting for a slot doesn't block, the caller gets a future
+   * @param initial Initial limit per host
+   * @param min Lower bound of the limit
+   * @param max Upper bound of the limit
+   */
+  public HostLimiter( int initial, int min, int max ) {
+    this.min = Math.max( 1, min );
+    this.max = Math.max( this.min, max );
+    this.initial = Math.min( Math.max( initial, this.min ), this.max );
+    this.hosts = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Get the limiter which is shared by all requests of this run
+   * @return Shared limiter
+   */
+  public static HostLimiter get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get the initial number of concurrent requests per host
+   * @return Initial permits per host
+   */
+  public int getPermits() {
+    return this.initial;
+  }
+
+  /**
+   * Get the upper bound of concurrent requests per host
+   * @return Maximum permits per host
+   */
+  public int getMaxPermits() {
+    return this.max;
+  }
+
+  /**
+   * Acquire a slot on a host, waiters are served in order of arrival
+   * @param host Host which is going to be requested
+   * @return Future which completes as soon as the slot is acquired
+   */
+  public CompletableFuture< Void > acquire( String host ) {
+    Host h = this.hosts.computeIfAbsent( host, k -> new Host( this.initial ) );
+
+    synchronized ( h ) {
+      if( h.inFlight < ( int ) h.limit ) {
+        h.inFlight++;
+        return CompletableFuture.completedFuture( null );
+      }
+
+      CompletableFuture< Void > waiter = new CompletableFuture<>();
+      h.waiters.add( waiter );
+      return waiter;
+    }
+  }
+
+  /**
+   * Release a slot on a host without feeding the controller
+   * @param host Host the slot got acquired on
+   */
+  public void release( String host ) {
+    Host h = this.hosts.get( host );
+    if( h == null )
+      return;
+
+    Queue< CompletableFuture< Void > > granted;
+    synchronized ( h ) {
+      h.inFlight--;
+      granted = grant( h );
+    }
+
+    granted.forEach( w -> w.complete( null ) );
+  }
+
+  /**
+   * Release a slot on a host and adapt the host's limit to the outcome of the request
+   * @param host Host the slot got acquired on
+   * @param latency Time until the response head arrived in nanoseconds
+   * @param overloaded True if the host signaled overload (timeout, 429, 5xx)
+   */
+  public void release( String host, long latency, boolean overloaded ) {
+    Host h = this.hosts.get( host );
+    if( h == null )
+      return;
+
+    Queue< CompletableFuture< Void > > granted;
+    synchronized ( h ) {
+      h.inFlight--;
+      h.record( latency, overloaded );
+
+      long now = System.nanoTime();
+
+      // Back off once per incident, all requests in flight during it will fail as well
+      if( overloaded ) {
+        if( now - h.lastBackoff > BACKOFF_COOLDOWN ) {
+          h.limit = Math.max( this.min, h.limit * BACKOFF );
+          h.lastBackoff = now;
+        }
+      }
+
+      // Clearly slower than usual, the host is saturating
+      else if( latency > h.bestLatency * LATENCY_TOLERANCE * 2 )
+        h.limit = Math.max( this.min, h.limit * SLOWDOWN );
+
+      // Healthy and fast, grow by about one per round trip of the whole window
+      else if( latency <= h.bestLatency * LATENCY_TOLERANCE && h.inFlight + 1 >= ( int ) h.limit )
+        h.limit = Math.min( this.max, h.limit + 1 / h.limit );
+
+      granted = grant( h );
+    }
+
+    granted.forEach( w -> w.complete( null ) );
+  }
+
+  /**
+   * Describe the current state of all hosts
+   * @return Human readable state per host
+   */
+  public String describe() {
+    StringBuilder sb = new StringBuilder();
+    for( Map.Entry< String, Stats > entry : snapshot().entrySet() ) {
+      Stats s = entry.getValue();
+      if( sb.length() > 0 )
+        sb.append( ", " );
+
+      sb.append( String.format(
+        "%s: limit %d, p50 %dms, p99 %dms, errors %.1f%%",
+        entry.getKey(), s.limit, s.p50 / 1_000_000, s.p99 / 1_000_000, s.errorRate * 100
+      ) );
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Take a snapshot of the statistics of all hosts
+   * @return Statistics by host name
+   */
+  public Map< String, Stats > snapshot() {
+    Map< String, Stats > result = new TreeMap<>();
+    for( Map.Entry< String, Host > entry : this.hosts.entrySet() ) {
+      Host h = entry.getValue();
+      synchronized ( h ) {
+        result.put( entry.getKey(), h.stats() );
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Collect waiters which can be served under the current limit
+   * @param h Host, lock has to be held
+   * @return Waiters to complete outside of the lock
+   */
+  private Queue< CompletableFuture< Void > > grant( Host h ) {
+    Queue< CompletableFuture< Void > > granted = new ArrayDeque<>();
+    while( h.inFlight < ( int ) h.limit && !h.waiters.isEmpty() ) {
+      h.inFlight++;
+      granted.add( h.waiters.poll() );
+    }
+    return granted;
+  }
+
+  public static class Stats {
+    public final int limit, inFlight, waiting;
+    public final long p50, p99;
+    public final double errorRate;
+
+    private Stats( int limit, int inFlight, int waiting, long p50, long p99, double errorRate ) {
+      this.limit = limit;
+      this.inFlight = inFlight;
+      this.waiting = waiting;
+      this.p50 = p50;
+      this.p99 = p99;
+      this.errorRate = errorRate;
+    }
+  }
+
+  private static class Host {
+    private double limit;
+    private int inFlight;
+    private long lastBackoff, bestLatency;
+    private Queue< CompletableFuture< Void > > waiters;
+
+    // Ring buffer of recent samples
+    private long[] latencies;
+    private boolean[] errors;
+    private int samples, next;
+
+    private Host( int limit ) {
+      this.limit = limit;
+      this.bestLatency = Long.MAX_VALUE / 4;
+      this.waiters = new ArrayDeque<>();
+      this.latencies = new long[ WINDOW ];
+      this.errors = new boolean[ WINDOW ];
+    }
+
+    /**
+     * Record a sample, the best latency slowly drifts upwards so a
+     * permanently slower host doesn't stay unhealthy forever
+     */
+    private void record( long latency, boolean error ) {
+      this.latencies[ this.next ] = latency;
+      this.errors[ this.next ] = error;
+      this.next = ( this.next + 1 ) % WINDOW;
+      this.samples = Math.min( this.samples + 1, WINDOW );
+
+      if( !error )
+        this.bestLatency = Math.min( this.bestLatency + this.bestLatency / 1000 + 1, latency );
+    }
+
+    private Stats stats() {
+      long[] sorted = Arrays.copyOf( this.latencies, this.samples );
+      Arrays.sort( sorted );
+
+      int errorCount = 0;
+      for( int i = 0; i < this.samples; i++ ) {
+        if( this.errors[ i ] )
+          errorCount++;
+      }
+
+      return new Stats(
+        ( int ) this.limit, this.inFlight, this.waiters.size(),
+        percentile( sorted, 0.5 ), percentile( sorted, 0.99 ),
+        this.samples == 0 ? 0 : errorCount / ( double ) this.samples
+      );
+    }
+
+    private static long percentile( long[] sorted, double p ) {
+      if( sorted.length == 0 )
+        return 0;
+      return sorted[ Math.min( sorted.length - 1, ( int ) Math.ceil( p * sorted.length ) - 1 ) ];
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ImageStore implements Closeable {
+
+  private File root, tmpDir, urlFile;
+  private FileSink files;
+  private Map< String, String > urls;
+  private Writer urlWriter;
+  private AtomicLong storedBytes, savedBytes, savedRequests;
+
+  /**
+   * Content addressed storage for downloaded images. Every distinct image only
+   * exists once on disk and gets hard-linked into the book folders that use it,
+   * since shadows and backgrounds are shared across lots of pages and books.
+   * The normalized url of every stored image is kept with its hash in urls.csv,
+   * so images known from other books or earlier runs are linked without a request.
+   * Lines are written as: hash;url
+   * @param root Root directory of the store
+   * @param files Sink the images are written through
+   */
+  public ImageStore( File root, FileSink files ) {
+    this.root = root;
+    this.tmpDir = new File( root, "tmp" );
+    this.urlFile = new File( root, "urls.csv" );
+    this.files = files;
+    this.urls = new ConcurrentHashMap<>();
+    this.storedBytes = new AtomicLong( 0 );
+    this.savedBytes = new AtomicLong( 0 );
+    this.savedRequests = new AtomicLong( 0 );
+
+    // Create dirs
+    try {
+      files.ensureDir( this.tmpDir );
+    } catch ( IOException e ) {
+      System.out.println( "Could not create image store directory! CRITICAL" );
+    }
+  }
+
+  /**
+   * Load the urls of earlier runs and open the index for appending
+   * @throws IOException Errors while reading or opening the index
+   */
+  public synchronized void open() throws IOException {
+    if( this.urlFile.exists() ) {
+      for( String line : Files.readAllLines( this.urlFile.toPath(), StandardCharsets.UTF_8 ) ) {
+        String[] parts = line.split( ";", 2 );
+        if( parts.length == 2 && !parts[ 0 ].isEmpty() )
+          this.urls.put( parts[ 1 ], parts[ 0 ] );
+      }
+    }
+
+    this.urlWriter = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.urlFile, true ), StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * Link an image which is already stored under its url to the target file,
+   * without requesting it again
+   * @param url Normalized url of the image
+   * @param target File inside of the book folder which should contain the image
+   * @return Hex-digest and size of the image's content, null if the url is unknown
+   * @throws IOException Errors while linking
+   */
+  public Stored link( String url, File target ) throws IOException {
+    String hash = this.urls.get( url );
+    if( hash == null )
+      return null;
+
+    // The content went missing, it has to be fetched again
+    File stored = locate( hash );
+    if( !stored.exists() )
+      return null;
+
+    link( stored, target );
+    this.savedRequests.incrementAndGet();
+    return new Stored( hash, stored.length() );
+  }
+
+  /**
+   * Persist the content of the provided stream into the store and link
+   * the stored content to the target file afterwards
+   * @param in Stream of image bytes
+   * @param url Normalized url of the image, remembered with its hash
+   * @param target File inside of the book folder which should contain the image
+   * @return Hex-digest and size of the image's content
+   * @throws Exception Errors while writing or linking
+   */
+  public Stored store( InputStream in, String url, File target ) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+    String hash;
+    long size;
+
+    // Write to temporary file while hashing the content
+    try ( FileSink.Output out = this.files.openTemp( this.tmpDir ) ) {
+      size = out.transferFrom( in, digest );
+      hash = Utils.toHex( digest.digest() );
+      File stored = locate( hash );
+
+      // Content is already known, drop the duplicate when closing
+      if( stored.exists() )
+        this.savedBytes.addAndGet( size );
+
+      // New content, claim its place without replacing what another thread stored
+      else {
+        this.files.ensureDir( stored.getParentFile() );
+
+        try {
+          out.commitNew( stored );
+          this.storedBytes.addAndGet( size );
+        }
+
+        // Another thread stored the same content in the meantime
+        catch ( FileAlreadyExistsException e ) {
+          this.savedBytes.addAndGet( size );
+        }
+      }
+    }
+
+    link( locate( hash ), target );
+    remember( url, hash );
+    return new Stored( hash, size );
+  }
+
+  /**
+   * Count a request that didn't have to be made since the url
+   * was already known within the book
+   */
+  public void recordSavedRequest() {
+    this.savedRequests.incrementAndGet();
+  }
+
+  /**
+   * Generate a short summary of how much the store saved
+   * @return Human readable summary
+   */
+  public String summary() {
+    return "Image store: " + ( this.storedBytes.get() / 1024 / 1024 ) + "MB stored, " +
+      ( this.savedBytes.get() / 1024 / 1024 ) + "MB and " + this.savedRequests.get() + " requests saved, " +
+      this.urls.size() + " urls known";
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if( this.urlWriter != null )
+      this.urlWriter.close();
+  }
+
+  /**
+   * Remember the hash of a url, only changed hashes are written
+   */
+  private synchronized void remember( String url, String hash ) {
+    if( hash.equals( this.urls.put( url, hash ) ) || this.urlWriter == null )
+      return;
+
+    // The index is best effort, losing a line only costs another request
+    try {
+      this.urlWriter.write( hash + ";" + url + "\n" );
+      this.urlWriter.flush();
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Link the stored content to the target location, copy it if the
+   * filesystem doesn't support hard links
+   * @param stored File within the store
+   * @param target Target location
+   */
+  private void link( File stored, File target ) throws IOException {
+    // Create parent dirs if non existent
+    this.files.ensureDir( target.getParentFile() );
+
+    try {
+      Files.createLink( target.toPath(), stored.toPath() );
+    }
+
+    // Replace leftovers from an earlier run
+    catch ( FileAlreadyExistsException e ) {
+      Files.delete( target.toPath() );
+      link( stored, target );
+    }
+
+    catch ( UnsupportedOperationException | IOException e ) {
+      Files.copy( stored.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+  }
+
+  /**
+   * Locate the file of a given hash, buckets by the first two characters
+   * to keep directory sizes in check
+   * @param hash Hex-digest of the content
+   * @return File within the store
+   */
+  private File locate( String hash ) {
+    return new File( new File( this.root, hash.substring( 0, 2 ) ), hash );
+  }
+
+  public static class Stored {
+    public final String hash;
+    public final long size;
+
+    private Stored( String hash, long size ) {
+      this.hash = hash;
+      this.size = size;
+    }
+  }
+}
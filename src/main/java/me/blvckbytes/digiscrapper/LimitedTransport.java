@@ -0,0 +1,79 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class LimitedTransport implements Transport {
+
+  private Transport delegate;
+  private HostLimiter limiter;
+
+  /**
+   * Transport which only hands requests to it's delegate while the target
+   * host has a free slot. The slot is held until the response gets closed, the
+   * outcome of every request is fed back into the limiter to adapt the host's limit
+   * @param delegate Transport executing the requests
+   * @param limiter Limiter providing the slots
+   */
+  public LimitedTransport( Transport delegate, HostLimiter limiter ) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+  }
+
+  @Override
+  public CompletableFuture< TransportResponse > send( TransportRequest request ) {
+    String host;
+    try {
+      host = URI.create( request.getUrl() ).getHost();
+    } catch ( Exception e ) {
+      return this.delegate.send( request );
+    }
+
+    CompletableFuture< TransportResponse > result = new CompletableFuture<>();
+    long[] start = new long[ 1 ];
+    this.limiter.acquire( host )
+      .thenCompose( v -> {
+        start[ 0 ] = System.nanoTime();
+        return this.delegate.send( request );
+      } )
+      .whenComplete( ( resp, e ) -> {
+        long latency = System.nanoTime() - start[ 0 ];
+
+        // Failed before a response existed, free the slot right away
+        if( e != null ) {
+          if( start[ 0 ] == 0 )
+            this.limiter.release( host );
+          else
+            this.limiter.release( host, latency, isOverload( e ) );
+
+          result.completeExceptionally( e );
+          return;
+        }
+
+        boolean overloaded = resp.getStatus() == 429 || resp.getStatus() >= 500;
+        resp.addCloseHook( () -> this.limiter.release( host, latency, overloaded ) );
+        result.complete( resp );
+      } );
+
+    return result;
+  }
+
+  /**
+   * Decide whether a failed request means that the host is overloaded. Timeouts,
+   * resets and refused connections are how a struggling host sheds load
+   * @param e Cause of the failure
+   * @return True if the limit should back off
+   */
+  private static boolean isOverload( Throwable e ) {
+    while( e instanceof CompletionException && e.getCause() != null )
+      e = e.getCause();
+    return e instanceof IOException;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.delegate.close();
+  }
+}
@@ -0,0 +1,303 @@
+package me.blvckbytes.digiscrapper;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class LinkExtractor {
+
+  // Elements whose content is text, even if it looks like markup
+  private static final String[] RAW_TEXT = { "script", "style", "title", "textarea" };
+
+  private String html;
+  private int pos;
+
+  /**
+   * Pulls the book links and their titles out of an open shelf response in a single
+   * pass over the string, without building a document. Only the href and the title of
+   * every anchor get copied out of the response
+   * @param html Response of the open shelf
+   */
+  private LinkExtractor( String html ) {
+    this.html = html;
+  }
+
+  /**
+   * Extract all book links with their titles, responses the scanner can't read
+   * exactly like a browser would are handed to jsoup instead
+   * @param html Response of the open shelf
+   * @return Map of token-sublink to title
+   */
+  public static Map< String, String > extract( String html ) {
+    Map< String, String > links = scan( html );
+    return links == null ? parseDocument( html ) : links;
+  }
+
+  /**
+   * Extract all book links with their titles without building a document
+   * @param html Response of the open shelf
+   * @return Map of token-sublink to title, null if the response contains markup which
+   * only a full parser handles correctly (entities, nested anchors, markup within titles, unterminated tags)
+   */
+  public static Map< String, String > scan( String html ) {
+    return new LinkExtractor( html ).process();
+  }
+
+  /**
+   * Extract all book links with their titles by parsing the whole response into a document
+   * @param html Response of the open shelf
+   * @return Map of token-sublink to title
+   */
+  public static Map< String, String > parseDocument( String html ) {
+    Map< String, String > links = new HashMap<>();
+
+    for( Element link : Jsoup.parse( html ).select( "a" ) ) {
+      String href = link.attr( "href" );
+
+      // Skip non book links
+      if( !href.contains( "token" ) )
+        continue;
+
+      // Anchors without a title aren't books either
+      Element title = link.selectFirst( "h1" );
+      if( title != null )
+        links.put( href, title.html() );
+    }
+
+    return links;
+  }
+
+  /**
+   * Walk all tags, keeping track of the anchor the scanner is in
+   * @return Map of token-sublink to title, null if a full parser is needed
+   */
+  private Map< String, String > process() {
+    Map< String, String > links = new HashMap<>();
+    String href = null, title = null;
+    boolean inAnchor = false;
+
+    int lt;
+    while( ( lt = this.html.indexOf( '<', this.pos ) ) >= 0 ) {
+      this.pos = lt;
+
+      if( this.html.startsWith( "<!--", lt ) ) {
+        int end = this.html.indexOf( "-->", lt + 4 );
+        if( end < 0 )
+          return null;
+
+        this.pos = end + 3;
+        continue;
+      }
+
+      // A bracket which doesn't open a tag is text to a browser
+      char next = lt + 1 < this.html.length() ? this.html.charAt( lt + 1 ) : ' ';
+      if( !Character.isLetter( next ) && next != '/' && next != '!' && next != '?' )
+        return null;
+
+      String raw = rawTextElement( lt );
+      if( raw != null ) {
+        if( skipTag( lt ) == null || !skipRawText( raw ) )
+          return null;
+        continue;
+      }
+
+      if( isTag( lt, "a" ) ) {
+        // Nested anchors get closed implicitly by a browser
+        if( inAnchor )
+          return null;
+
+        href = skipTag( lt );
+        if( href == null )
+          return null;
+
+        inAnchor = true;
+        title = null;
+        continue;
+      }
+
+      if( isClosingTag( lt, "a" ) ) {
+        if( inAnchor && title != null && href.contains( "token" ) )
+          links.put( href, title );
+
+        inAnchor = false;
+        if( skipTag( lt ) == null )
+          return null;
+        continue;
+      }
+
+      // Only the first headline of an anchor is its title
+      if( inAnchor && title == null && isTag( lt, "h1" ) ) {
+        if( skipTag( lt ) == null )
+          return null;
+
+        title = readTitle();
+        if( title == null )
+          return null;
+        continue;
+      }
+
+      if( skipTag( lt ) == null )
+        return null;
+    }
+
+    // Unterminated anchors are closed by the end of the document
+    return inAnchor ? null : links;
+  }
+
+  /**
+   * Read the text of a headline up to its closing tag, collapsing whitespace
+   * the way jsoup prints it
+   * @return Title, null if the headline contains markup or entities
+   */
+  private String readTitle() {
+    int end = this.html.indexOf( '<', this.pos );
+    if( end < 0 || !isClosingTag( end, "h1" ) )
+      return null;
+
+    StringBuilder title = new StringBuilder( end - this.pos );
+    boolean space = false;
+    for( int i = this.pos; i < end; i++ ) {
+      char c = this.html.charAt( i );
+
+      // Characters jsoup would print as entities
+      if( c == '&' || c == '>' || c == '\u00A0' )
+        return null;
+
+      if( isWhitespace( c ) ) {
+        space = title.length() > 0;
+        continue;
+      }
+
+      if( space ) {
+        title.append( ' ' );
+        space = false;
+      }
+      title.append( c );
+    }
+
+    this.pos = end;
+    return title.toString();
+  }
+
+  /**
+   * Skip over a tag and its attributes
+   * @param lt Position of the tag's opening bracket
+   * @return Value of the href attribute, empty if there is none, null if
+   * the tag is unterminated or its href would need decoding
+   */
+  private String skipTag( int lt ) {
+    String href = null;
+    int i = lt + 1;
+
+    // Tag name
+    while( i < this.html.length() && !isTagEnd( this.html.charAt( i ) ) )
+      i++;
+
+    while( i < this.html.length() ) {
+      char c = this.html.charAt( i );
+
+      if( c == '>' ) {
+        this.pos = i + 1;
+        return href == null ? "" : href;
+      }
+
+      if( isWhitespace( c ) || c == '/' ) {
+        i++;
+        continue;
+      }
+
+      // Attribute name
+      int nameStart = i;
+      while( i < this.html.length() && !isTagEnd( this.html.charAt( i ) ) && this.html.charAt( i ) != '=' )
+        i++;
+      int nameEnd = i;
+
+      while( i < this.html.length() && isWhitespace( this.html.charAt( i ) ) )
+        i++;
+
+      if( i >= this.html.length() || this.html.charAt( i ) != '=' )
+        continue;
+
+      i++;
+      while( i < this.html.length() && isWhitespace( this.html.charAt( i ) ) )
+        i++;
+
+      if( i >= this.html.length() )
+        return null;
+
+      // Attribute value, quoted or up to the next whitespace
+      int valueStart, valueEnd;
+      char quote = this.html.charAt( i );
+      if( quote == '"' || quote == '\'' ) {
+        valueStart = i + 1;
+        valueEnd = this.html.indexOf( quote, valueStart );
+        if( valueEnd < 0 )
+          return null;
+        i = valueEnd + 1;
+      }
+      else {
+        valueStart = i;
+        while( i < this.html.length() && !isWhitespace( this.html.charAt( i ) ) && this.html.charAt( i ) != '>' )
+          i++;
+        valueEnd = i;
+      }
+
+      if( nameEnd - nameStart == 4 && this.html.regionMatches( true, nameStart, "href", 0, 4 ) ) {
+        // Duplicates and entities are up to the parser
+        if( href != null )
+          return null;
+
+        href = this.html.substring( valueStart, valueEnd );
+        if( href.indexOf( '&' ) >= 0 )
+          return null;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Skip the content of a raw text element, up to and including its closing tag
+   * @param name Name of the element
+   * @return False if the element is unterminated
+   */
+  private boolean skipRawText( String name ) {
+    for( int i = this.html.indexOf( "</", this.pos ); i >= 0; i = this.html.indexOf( "</", i + 2 ) ) {
+      if( isClosingTag( i, name ) )
+        return skipTag( i ) != null;
+    }
+    return false;
+  }
+
+  private String rawTextElement( int lt ) {
+    for( String name : RAW_TEXT ) {
+      if( isTag( lt, name ) )
+        return name;
+    }
+    return null;
+  }
+
+  private boolean isTag( int lt, String name ) {
+    return matchesName( lt + 1, name );
+  }
+
+  private boolean isClosingTag( int lt, String name ) {
+    return lt + 1 < this.html.length() && this.html.charAt( lt + 1 ) == '/' && matchesName( lt + 2, name );
+  }
+
+  private boolean matchesName( int start, String name ) {
+    int end = start + name.length();
+    return this.html.regionMatches( true, start, name, 0, name.length() ) &&
+      ( end == this.html.length() || isTagEnd( this.html.charAt( end ) ) );
+  }
+
+  private static boolean isTagEnd( char c ) {
+    return c == '>' || c == '/' || isWhitespace( c );
+  }
+
+  private static boolean isWhitespace( char c ) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+}
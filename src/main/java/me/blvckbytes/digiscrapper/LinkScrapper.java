@@ -1,36 +1,33 @@
 package me.blvckbytes.digiscrapper;
 
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
-import java.io.BufferedWriter;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class LinkScrapper {
 
-  private ConcurrentHashMap< String, String > uniqueLinks;
+  // Token-files without a journal were scrapped with all three letter lowercase terms
+  private static final int LEGACY_COMBINATIONS = 26 * 26 * 26;
+
+  private TokenIndex uniqueLinks;
   private File tokenFile, outputDirectory;
   private ExecutorService exec;
   private String basePath;
-  private CloseableHttpClient client;
+  private Transport transport;
+  private TokenQueue tokenQueue;
 
   /**
    * Scraps for token sublinks from digi4school.at, a page which currently
@@ -39,49 +36,188 @@ public class LinkScrapper {
    * scrapped title applied
    */
   public LinkScrapper() {
-    this.uniqueLinks = new ConcurrentHashMap<>();
-
-    // Max. 50 concurrent threads
-    this.exec = Executors.newFixedThreadPool( 50 );
+    // Max. 50 concurrent threads, or one virtual thread per combination
+    this.exec = Workers.create( 50 );
 
     // Start processing
     initializeFiles();
     begin();
+
+    // Whatever still failed after all retries is listed for the next run
+    FailureReport.get().write( new File( this.basePath, "failures.csv" ) );
   }
 
   /**
    * Begin either scrapping links or go straight to downloading books since
-   * token list has been downloaded in a past session already
+   * the scan has been completed in a past session already. An interrupted
+   * scan gets resumed from its journal. While scrapping, every new token is
+   * handed to the downloader right away, so downloads overlap the scan
    */
   private void begin() {
-    // Begin scrapping if file is non existent
-    if( !this.tokenFile.exists() ) {
-      System.out.println( "Token-file did not exist, starting to scrap tokens..." );
-      this.client = Utils.createFastClient();
-      loopCombinations( () -> new BookDownloader( this.tokenFile, this.outputDirectory ) );
-    } else {
-      System.out.println( "Token-file exists, skipping scrapping process!" );
+    ScanJournal journal = new ScanJournal( new File( this.basePath, "scan.journal" ), BookFilter.get().getSearchScope() );
+
+    try {
+      journal.open();
+      importLegacyTokens( journal );
+    } catch ( IOException e ) {
+      System.out.println( "Could not open scan journal, skipping scrapping process!" );
+      e.printStackTrace();
+      closeJournal( journal );
       new BookDownloader( this.tokenFile, this.outputDirectory );
+      return;
     }
+
+    if( journal.isComplete() ) {
+      System.out.println( "Token scan is complete, skipping scrapping process!" );
+      closeJournal( journal );
+      new BookDownloader( this.tokenFile, this.outputDirectory );
+      return;
+    }
+
+    // Begin scrapping, new tokens are added to the known ones of the journal
+    this.uniqueLinks = journal.getTokens();
+    System.out.println(
+      "Starting to scrap tokens, " + journal.getFinishedTerms().size() + " terms and " +
+      this.uniqueLinks.size() + " tokens known from former runs..."
+    );
+
+    // Stream tokens into the downloader while scrapping, otherwise download after the scan
+    if( !Config.getBoolean( "streamTokens", true ) ) {
+      scan( journal );
+      closeJournal( journal );
+      new BookDownloader( this.tokenFile, this.outputDirectory );
+      return;
+    }
+
+    this.tokenQueue = TokenQueue.fromConfig();
+    Thread downloader = new Thread( () -> new BookDownloader( this.tokenQueue, this.uniqueLinks, this.outputDirectory ), "book-downloader" );
+    downloader.start();
+
+    // Tokens of former runs go first, without holding up the scan. They're read
+    // from the index lazily, tokens found from now on are published by the scan.
+    // With a priority rule the index is passed twice, books which go first lead
+    Iterator< Map.Entry< String, String > > priorityPass = this.uniqueLinks.iterator();
+    Iterator< Map.Entry< String, String > > knownPass = this.uniqueLinks.iterator();
+    Thread backlog = new Thread( () -> {
+      try {
+        if( BookFilter.get().hasPriority() )
+          publishKnown( priorityPass, true );
+        publishKnown( knownPass, false );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    }, "token-backlog" );
+    backlog.start();
+
+    scan( journal );
+
+    // No more tokens, the downloader finishes the remaining books. Their
+    // pdfs look up titles in the journal's tokens, so it's closed last
+    try {
+      backlog.join();
+      this.tokenQueue.finish();
+      downloader.join();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+
+    closeJournal( journal );
   }
 
   /**
-   * Get the base path (place of execution) and create output directory
-   * for further use in downloader
+   * Hand known tokens to the downloader, books which aren't wanted are left out
+   * @param entries Token-sublinks with their titles
+   * @param first Only publish books which go first (true) or only those which don't (false)
    */
-  private void initializeFiles() {
-    // Fetch base path of jar
+  private void publishKnown( Iterator< Map.Entry< String, String > > entries, boolean first ) throws InterruptedException {
+    BookFilter filter = BookFilter.get();
+    while( entries.hasNext() ) {
+      Map.Entry< String, String > entry = entries.next();
+      if( filter.isPriority( entry.getValue() ) == first && filter.accepts( entry.getValue() ) )
+        this.tokenQueue.publish( entry.getKey().replace( "/token/", "" ), first );
+    }
+  }
+
+  /**
+   * Scrap all tokens and release the scanning resources afterwards, the journal
+   * stays open since its tokens might still be read
+   * @param journal Opened journal of the scan
+   */
+  private void scan( ScanJournal journal ) {
+    this.transport = Utils.createTransport();
+    exploreTerms( journal ).join();
+    this.exec.shutdown();
+
     try {
-      this.basePath = getClass().getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
+      this.transport.close();
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
+  }
 
-      // Remove file if exists
-      if( this.basePath.endsWith( ".jar" ) )
-        this.basePath = this.basePath.substring( 0, this.basePath.lastIndexOf( "/" ) );
-    } catch ( Exception e ) {
+  /**
+   * Take over the tokens of a token-file that has been written before journaling
+   * existed. If its header shows that all combinations were done, the scan counts as complete.
+   * Such token-files were scanned without restrictions, so restricted scans and replaced journals don't take them over
+   * @param journal Freshly opened journal
+   */
+  private void importLegacyTokens( ScanJournal journal ) throws IOException {
+    if( !this.tokenFile.exists() || journal.isComplete() || !journal.getFinishedTerms().isEmpty() || journal.getTokens().size() > 0 )
+      return;
+
+    if( journal.isReplaced() || !journal.getScope().isEmpty() )
+      return;
+
+    int lastIndex = 0;
+    try ( BufferedReader reader = new BufferedReader( new FileReader( this.tokenFile ) ) ) {
+      String line;
+      while( ( line = reader.readLine() ) != null ) {
+        if( line.startsWith( TokenFile.LAST_INDEX ) ) {
+          try {
+            lastIndex = Integer.parseInt( line.substring( TokenFile.LAST_INDEX.length() ).trim() );
+          } catch ( NumberFormatException e ) {
+            lastIndex = 0;
+          }
+          continue;
+        }
+
+        String[] data = line.split( ";", 2 );
+        if( line.startsWith( "#" ) || data.length != 2 )
+          continue;
+
+        journal.getTokens().putIfAbsent( data[ 0 ], data[ 1 ] );
+        journal.recordToken( data[ 0 ], data[ 1 ] );
+      }
+    }
+
+    System.out.println( "Imported " + journal.getTokens().size() + " tokens from existing token-file!" );
+    if( lastIndex >= LEGACY_COMBINATIONS )
+      journal.recordComplete();
+  }
+
+  /**
+   * Close the journal, errors are only reported since everything has been flushed already
+   * @param journal Journal to close
+   */
+  private void closeJournal( ScanJournal journal ) {
+    try {
+      journal.close();
+    } catch ( IOException e ) {
       e.printStackTrace();
     }
+  }
+
+  /**
+   * Get the base path (place of execution) and create output directory
+   * for further use in downloader
+   */
+  private void initializeFiles() {
+    // Fetch base path of jar
+    this.basePath = Utils.getBasePath();
 
     System.out.println( "Base path is: " + this.basePath );
+    if( BookFilter.get().isActive() )
+      System.out.println( BookFilter.get().describe() );
 
     // Get file
     this.tokenFile = new File( this.basePath, "tokenlist.csv" );
@@ -92,61 +228,13 @@ public class LinkScrapper {
       System.out.println( "Could not create output directory! CRITICAL" );
   }
 
-  /**
-   * Generate combinations for a three letter string containing only
-   * lower case alphabetic letters
-   * @return String[] with all combinations
-   */
-  private String[] generateCombinations() {
-    // Buffer for all combinations
-    String[] combinations = new String[ ( int ) Math.pow( 26, 3 ) ];
-
-    // Loop all combinations for three length string
-    int index = 0;
-    for ( int i = 97; i <= 122; i++ ) {
-      for ( int j = 97; j <= 122; j++ ) {
-        for ( int k = 97; k <= 122; k++ ) {
-
-          // Build current combination and add it to buffer
-          String currComb = String.valueOf( ( char ) i ) + ( char ) j + ( char ) k;
-          combinations[ index ] = currComb;
-          index++;
-        }
-      }
-    }
-
-    return combinations;
-  }
-
   /**
    * Write the results to file
+   * @param currOffset Number of terms finished over all runs
    */
   private void writeResults( int currOffset ) {
-    StringBuilder lines = new StringBuilder();
-
-    // Header for the file with some informations
-    lines.append( "# These are all scrapped links from the page" ).append( System.lineSeparator() );
-    lines.append( "# Last from-index was: " ).append( currOffset ).append( System.lineSeparator() );
-    lines.append( "# Timestamp of writing this to file: " ).append( System.currentTimeMillis() ).append( System.lineSeparator() );
-    lines.append( "# Format: Token-Sublink;Title" ).append( System.lineSeparator() );
-
-    // Collect all lines in CSV format
-    for( Map.Entry< String, String > entries : this.uniqueLinks.entrySet() ) {
-      lines.append( entries.getKey() ).append( ";" ).append( entries.getValue() ).append( System.lineSeparator() );
-    }
-
     try {
-      // Create file if non existent
-      if( !this.tokenFile.exists() && !this.tokenFile.createNewFile() ) {
-        System.out.println( "File could not be created, cancelling!" );
-        return;
-      }
-
-      // Write out
-      BufferedWriter writer = new BufferedWriter( new FileWriter( this.tokenFile ) );
-      writer.write( lines.toString() );
-      writer.close();
-
+      TokenFile.write( this.tokenFile, this.uniqueLinks, currOffset );
       System.out.println( "Wrote all lines." );
     } catch ( Exception e ) {
       e.printStackTrace();
@@ -154,120 +242,123 @@ public class LinkScrapper {
   }
 
   /**
-   * Since the text box only allows to enter at least three letters,
-   * we need to loop all combinations of length three. This should yield
-   * next to all book titles
-   * @param done Callback when the function finishes (it's async)
+   * Since the text box only allows to enter at least three letters, we need
+   * to search for terms of three letters. Instead of looping all combinations,
+   * the explorer searches the most promising ones first and skips those which
+   * most likely only yield known books. Terms of former runs are replayed into it
+   * @param journal Opened journal of the scan
+   * @return Future which completes when all terms are scrapped and written to file
    */
-  private void loopCombinations( Runnable done ) {
-    new Thread( () -> {
-      // Send batches of requests while end has not been reached
-      String[] combinations = generateCombinations();
-      AtomicBoolean active = new AtomicBoolean( true );
-      AtomicInteger status = new AtomicInteger( 0 );
-
-      // Send out requests in range of combinations
-      for ( String currTerm : combinations ) {
-        // Stop when active state gets false
-        if ( !active.get() )
-          break;
-
-        // One thread per combination
-        exec.execute( () -> {
-          // Get page with a certain timeout specified, then process it
-          // Timeout can also mean that page blocked this client
-          try {
-            this.uniqueLinks.putAll( parseInformation( scrapPage( currTerm ) ) );
-            status.incrementAndGet();
-          }
+  private CompletableFuture< Void > exploreTerms( ScanJournal journal ) {
+    SearchExplorer explorer = SearchExplorer.fromConfig(
+      term -> scrapPage( term ).thenApplyAsync( LinkExtractor::extract, this.exec ),
+      this.uniqueLinks
+    );
+
+    for( Map.Entry< String, ScanJournal.Term > entry : journal.getFinishedTerms().entrySet() )
+      explorer.restore( entry.getKey(), entry.getValue().results, entry.getValue().fresh );
+
+    int restored = journal.getFinishedTerms().size();
+    Queue< String > failed = new ConcurrentLinkedQueue<>();
+    AtomicInteger status = new AtomicInteger( 0 );
+
+    Metrics metrics = Metrics.get();
+    metrics.gauge( "scan_terms_done", "", "Search terms finished over all runs", () -> restored + status.get() - failed.size() );
+    metrics.gauge( "scan_terms_failed", "", "Search terms which failed during this run", failed::size );
+    metrics.gauge( "scan_tokens", "", "Unique tokens found so far", this.uniqueLinks::size );
+    metrics.status( () -> String.format(
+      "scan: %d terms (%d skipped), %d tokens, %d failed",
+      restored + status.get(), explorer.getPruned(), this.uniqueLinks.size(), failed.size()
+    ) );
+
+    return explorer.explore( ( term, results, fresh, e ) -> {
+      // A single failed term doesn't abort the scan, the limiter
+      // already backs off in case the page is blocking this client
+      if( e != null ) {
+        failed.add( term );
+        FailureReport.get().record( "term", term, "", e );
+      }
 
-          // Something timed out, since I don't wan't to loose stuff, just break
-          // and write to file
-          catch ( Exception e ) {
-            System.out.println( "Timed out!" );
-            active.set( false );
+      // Journal the new tokens together with the finished term, then hand the wanted
+      // ones to the downloader. Waiting for space in its queue slows down the scan
+      else {
+        for( Map.Entry< String, String > entry : fresh.entrySet() )
+          journal.recordToken( entry.getKey(), entry.getValue() );
+        journal.recordTerm( term, results.size(), fresh.size() );
+
+        if( this.tokenQueue != null ) {
+          BookFilter filter = BookFilter.get();
+          for( Map.Entry< String, String > entry : fresh.entrySet() ) {
+            if( filter.accepts( entry.getValue() ) )
+              this.tokenQueue.publish( entry.getKey().replace( "/token/", "" ), filter.isPriority( entry.getValue() ) );
           }
-        } );
+        }
       }
 
-      // Wait for either finishing or cancelling
-      while( status.get() != combinations.length && active.get() ) {
-        System.out.println( "Scrapped " + status.get() + " / " + combinations.length + " combinations!" );
+      int done = status.incrementAndGet();
+      if( done % 100 == 0 ) {
+        System.out.println(
+          "Scrapped " + ( restored + done ) + " terms (" + explorer.getPruned() + " of " + explorer.getBaseTerms() +
+          " skipped), " + this.uniqueLinks.size() + " tokens, " + failed.size() + " failed!"
+        );
+        System.out.println( "Hosts: " + HostLimiter.get().describe() );
+      }
+    } ).thenRun( () -> {
+      // Done! Write to file, failed terms are left for the next run
+      System.out.println( "Done scrapping links, writing to file!" );
+      System.out.println(
+        "Searched " + explorer.getSearched() + " terms, skipped " + explorer.getPruned() +
+        " of " + explorer.getBaseTerms() + " combinations, found " + this.uniqueLinks.size() + " tokens"
+      );
+
+      if( !failed.isEmpty() )
+        System.out.println( failed.size() + " terms failed and will be retried on the next start: " + String.join( ", ", failed ) );
+      else {
         try {
-          Thread.sleep( 300 );
-        } catch ( InterruptedException e ) {
+          journal.recordComplete();
+        } catch ( IOException e ) {
           e.printStackTrace();
         }
       }
 
-      // Done! Write to file
-      System.out.println( "Done scrapping links, writing to file!" );
-      writeResults( status.get() );
-      done.run();
-    } ).start();
-  }
-
-  /**
-   * Parse the string into a html document and process out the links
-   * with their corresponding book titles
-   * @param html Page input
-   * @return Map of link to title
-   */
-  private Map< String, String > parseInformation( String html ) {
-    Map< String, String > buf = new HashMap<>();
-
-    // Parse html and find all a tags
-    Document doc = Jsoup.parse( html );
-    Elements links = doc.select( "a" );
-
-    // Append link and corresponding book title
-    for( Element link : links ) {
-      String href = link.attr( "href" );
-
-      // Skip non book links
-      if( !href.contains( "token" ) )
-        continue;
-
-      // Select title from first h1 element within the href
-      String title = link.selectFirst( "h1" ).html();
-      buf.put( href, title );
-    }
-
-    return buf;
+      writeResults( restored + status.get() - failed.size() );
+    } );
   }
 
   /**
    * Scrap the content from the openlibrary's response to a given searchterm
    * @param search Searchterm to put in searchbar
-   * @return HTML content of the server's response as a string
+   * @return Future of the HTML content of the server's response as a string, fails on errors
    */
-  private String scrapPage( String search ) {
-      try {
-        // Create http-client and a post request object
-        HttpPost request = new HttpPost( "https://digi4school.at/br/openshelf" );
-
-        // All needed request headers for the site to accept the request
-        request.addHeader( "Origin", "https://digi4school.at" );
-        request.addHeader( "Referer", "https://digi4school.at/openlibrary" );
-        request.addHeader( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
-
-        // Create parameter list with search term and other properties
-        List< BasicNameValuePair > paramList = Arrays.asList(
-          new BasicNameValuePair( "title", search ),
-          new BasicNameValuePair( "publisher_id", "" ),
-          new BasicNameValuePair( "level_of_education", "" )
-        );
-
-        // Set parameters to body and execute request
-        request.setEntity( new UrlEncodedFormEntity( paramList ) );
-        CloseableHttpResponse resp = client.execute( request );
-        String content = EntityUtils.toString( resp.getEntity() );
+  private CompletableFuture< String > scrapPage( String search ) {
+    // Create parameter list with search term and other properties
+    List< BasicNameValuePair > paramList = Arrays.asList(
+      new BasicNameValuePair( "title", search ),
+      new BasicNameValuePair( "publisher_id", BookFilter.get().getPublisher() ),
+      new BasicNameValuePair( "level_of_education", BookFilter.get().getLevelOfEducation() )
+    );
+
+    // Create a post request object, all needed request headers
+    // for the site to accept the request
+    TransportRequest request = TransportRequest.post( Site.get().site( "/br/openshelf" ), paramList )
+      .endpoint( "openshelf" )
+      .idempotent( true )
+      .header( "Origin", Site.get().getSite() )
+      .header( "Referer", Site.get().site( "/openlibrary" ) )
+      .header( "User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:76.0) Gecko/20100101 Firefox/76.0" );
+
+    // Execute request and read the body on a worker, error pages count as failures
+    return this.transport.send( request ).thenApplyAsync( resp -> {
+        try {
+          if( resp.getStatus() != 200 ) {
+            resp.close();
+            throw new IOException( "Status " + resp.getStatus() + " for term " + search );
+          }
 
-        // Close resources and return
-        resp.close();
-        return content;
-      } catch ( Exception e ) {
-        return "";
-      }
+          return resp.readString();
+        } catch ( IOException e ) {
+          throw new CompletionException( e );
+        }
+      }, this.exec );
   }
 }
@@ -1,14 +1,25 @@
 package me.blvckbytes.digiscrapper;
 
+import java.io.File;
+
 public class Main {
 
   /**
    * Main entry point of the program, just initialize a linkscrapper, it
-   * will invoke the remaining classes that're needed
+   * will invoke the remaining classes that're needed. Passing pdf only
+   * collects the already downloaded books into pdfs
    */
   public static void main( String[] args ) {
-    new LinkScrapper();
-    //new PageCollector();
+    Metrics.get().start();
+
+    try {
+      if( args.length > 0 && args[ 0 ].equalsIgnoreCase( "pdf" ) )
+        new PageCollector( new File( Utils.getBasePath(), "bookpages" ) ).collectAll();
+      else
+        new LinkScrapper();
+    } finally {
+      Metrics.get().stop();
+    }
   }
 
 }
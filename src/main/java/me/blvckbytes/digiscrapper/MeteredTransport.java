@@ -0,0 +1,77 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+public class MeteredTransport implements Transport {
+
+  private Transport delegate;
+  private Metrics metrics;
+
+  /**
+   * Transport which records the latency, the outcome and the body size of every
+   * request under the endpoint the request is labeled with
+   * @param delegate Transport executing the requests
+   * @param metrics Metrics to record into
+   */
+  public MeteredTransport( Transport delegate, Metrics metrics ) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public CompletableFuture< TransportResponse > send( TransportRequest request ) {
+    String endpoint = request.getEndpoint();
+    long start = System.nanoTime();
+
+    return this.delegate.send( request ).whenComplete( ( resp, e ) -> {
+      this.metrics.record( endpoint, System.nanoTime() - start, e != null || resp.getStatus() >= 400 );
+
+      if( resp != null )
+        resp.wrapBody( body -> new CountingStream( body, endpoint ) );
+    } );
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.delegate.close();
+  }
+
+  /**
+   * Counts the bytes of a body while it's being read
+   */
+  private class CountingStream extends FilterInputStream {
+
+    private String endpoint;
+
+    private CountingStream( InputStream in, String endpoint ) {
+      super( in );
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if( b >= 0 )
+        metrics.recordBytes( this.endpoint, 1 );
+      return b;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+      int read = super.read( b, off, len );
+      if( read > 0 )
+        metrics.recordBytes( this.endpoint, read );
+      return read;
+    }
+
+    @Override
+    public long skip( long n ) throws IOException {
+      long skipped = super.skip( n );
+      metrics.recordBytes( this.endpoint, skipped );
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,396 @@
+package me.blvckbytes.digiscrapper;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+public class Metrics {
+
+  private static final Metrics INSTANCE = new Metrics();
+
+  // Upper bounds of the latency histogram's buckets in seconds
+  private static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+
+  private Map< String, Endpoint > endpoints;
+  private Map< String, Counter > counters;
+  private List< Gauge > gauges;
+  private List< Supplier< String > > statusLines;
+  private long start;
+
+  private HttpServer server;
+  private ScheduledExecutorService reporter;
+
+  /**
+   * Instrumentation of the whole run: requests, latencies and bytes per endpoint,
+   * counters and gauges registered by the components. Everything can be scraped
+   * in prometheus' text format and is summarized in a periodic console line
+   */
+  private Metrics() {
+    this.endpoints = new ConcurrentHashMap<>();
+    this.counters = new ConcurrentHashMap<>();
+    this.gauges = new CopyOnWriteArrayList<>();
+    this.statusLines = new CopyOnWriteArrayList<>();
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * Get the metrics which are shared by all components of this run
+   * @return Shared metrics
+   */
+  public static Metrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Start the endpoint on the port set by metricsPort and the console line every
+   * metricsInterval seconds, both are off if their setting is 0
+   */
+  public synchronized void start() {
+    int port = Config.getInt( "metricsPort", 0 );
+    if( port > 0 && this.server == null ) {
+      try {
+        // Only reachable from this machine, there's no authentication
+        this.server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+        this.server.createContext( "/metrics", exchange -> {
+          byte[] body = render().getBytes( StandardCharsets.UTF_8 );
+          exchange.getResponseHeaders().set( "Content-Type", "text/plain; version=0.0.4; charset=utf-8" );
+          exchange.sendResponseHeaders( 200, body.length );
+          try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( body );
+          }
+        } );
+        this.server.start();
+        System.out.println( "Serving metrics on http://localhost:" + port + "/metrics" );
+      } catch ( IOException e ) {
+        System.out.println( "Could not serve metrics on port " + port + "!" );
+        e.printStackTrace();
+      }
+    }
+
+    int interval = Config.getInt( "metricsInterval", 30 );
+    if( interval > 0 && this.reporter == null ) {
+      this.reporter = Executors.newSingleThreadScheduledExecutor( r -> {
+        Thread t = new Thread( r, "metrics-reporter" );
+        t.setDaemon( true );
+        return t;
+      } );
+      this.reporter.scheduleAtFixedRate( () -> System.out.println( "Status: " + describe() ), interval, interval, TimeUnit.SECONDS );
+    }
+  }
+
+  /**
+   * Stop the endpoint and the console line, the final state gets printed once more
+   */
+  public synchronized void stop() {
+    if( this.reporter != null ) {
+      this.reporter.shutdownNow();
+      this.reporter = null;
+      System.out.println( "Status: " + describe() );
+    }
+
+    if( this.server != null ) {
+      this.server.stop( 0 );
+      this.server = null;
+    }
+  }
+
+  /**
+   * Record a finished request
+   * @param endpoint Endpoint the request went to
+   * @param latency Nanoseconds until the response's head arrived
+   * @param error Whether the request failed or got an error status
+   */
+  public void record( String endpoint, long latency, boolean error ) {
+    endpoint( endpoint ).record( latency, error );
+  }
+
+  /**
+   * Record bytes of a response body
+   * @param endpoint Endpoint the response came from
+   * @param bytes Number of bytes read
+   */
+  public void recordBytes( String endpoint, long bytes ) {
+    endpoint( endpoint ).bytes.add( bytes );
+  }
+
+  /**
+   * Estimate a quantile of an endpoint's latency from its histogram, interpolating
+   * linearly within the bucket it falls into (like prometheus' histogram_quantile)
+   * @param endpoint Endpoint the requests went to
+   * @param q Quantile between 0 and 1, like 0.99
+   * @return Latency in seconds, NaN without requests, the last bucket's bound if it's slower
+   */
+  public double quantile( String endpoint, double q ) {
+    Endpoint e = this.endpoints.get( endpoint );
+    long total = e == null ? 0 : e.requests.sum();
+    if( total == 0 )
+      return Double.NaN;
+
+    double rank = q * total;
+    long cumulative = 0;
+    for( int i = 0; i < BUCKETS.length; i++ ) {
+      long count = e.buckets.get( i );
+      if( cumulative + count >= rank ) {
+        double lower = i == 0 ? 0 : BUCKETS[ i - 1 ];
+        return lower + ( BUCKETS[ i ] - lower ) * ( count == 0 ? 1 : ( rank - cumulative ) / count );
+      }
+      cumulative += count;
+    }
+
+    return BUCKETS[ BUCKETS.length - 1 ];
+  }
+
+  /**
+   * Get a counter, it's created on first use
+   * @param name Name of the counter without prefix, should end with _total
+   * @param help Description of the counter
+   * @return Counter to increment
+   */
+  public LongAdder counter( String name, String help ) {
+    return this.counters.computeIfAbsent( name, k -> new Counter( help ) ).value;
+  }
+
+  /**
+   * Register a gauge which is read on every scrape
+   * @param name Name of the gauge without prefix
+   * @param labels Labels in prometheus' syntax without braces, empty for none
+   * @param help Description of the gauge
+   * @param value Supplies the current value
+   */
+  public void gauge( String name, String labels, String help, DoubleSupplier value ) {
+    this.gauges.add( new Gauge( name, labels, help, value ) );
+  }
+
+  /**
+   * Register the queue depth and the active threads of an executor, executors
+   * of virtual threads don't queue and are bound by the host limits instead
+   * @param name Name of the executor
+   * @param exec Executor to observe
+   */
+  public void executor( String name, ExecutorService exec ) {
+    if( !( exec instanceof ThreadPoolExecutor ) )
+      return;
+
+    ThreadPoolExecutor pool = ( ThreadPoolExecutor ) exec;
+    gauge( "executor_queued", "executor=\"" + name + "\"", "Tasks waiting for a thread", () -> pool.getQueue().size() );
+    gauge( "executor_active", "executor=\"" + name + "\"", "Threads running a task", pool::getActiveCount );
+  }
+
+  /**
+   * Add a part to the console line
+   * @param status Supplies the current status of a component
+   */
+  public void status( Supplier< String > status ) {
+    this.statusLines.add( status );
+  }
+
+  /**
+   * Describe the run within one compact line
+   * @return Human readable metrics
+   */
+  public String describe() {
+    List< String > parts = new ArrayList<>();
+    for( Supplier< String > status : this.statusLines )
+      parts.add( status.get() );
+
+    long bytes = 0;
+    StringBuilder requests = new StringBuilder();
+    for( Map.Entry< String, Endpoint > entry : new TreeMap<>( this.endpoints ).entrySet() ) {
+      Endpoint e = entry.getValue();
+      long count = e.requests.sum();
+      bytes += e.bytes.sum();
+
+      if( requests.length() > 0 )
+        requests.append( ", " );
+      requests.append( String.format(
+        "%s %d (%d err, %dms avg)", entry.getKey(), count, e.errors.sum(), count == 0 ? 0 : e.latency.sum() / count / 1_000_000
+      ) );
+    }
+
+    if( requests.length() > 0 )
+      parts.add( requests.toString() );
+
+    parts.add( String.format( "%.1f MB in %s", bytes / 1024.0 / 1024.0, formatDuration( ( System.nanoTime() - this.start ) / 1e9 ) ) );
+
+    Counter retries = this.counters.get( "retries_total" );
+    if( retries != null )
+      parts.add( retries.value.sum() + " retries" );
+
+    return String.join( " | ", parts );
+  }
+
+  /**
+   * Render all metrics in prometheus' text exposition format
+   * @return Metrics as text
+   */
+  public String render() {
+    StringBuilder sb = new StringBuilder( 4096 );
+    Map< String, Endpoint > endpoints = new TreeMap<>( this.endpoints );
+
+    header( sb, "requests_total", "counter", "Requests sent, by endpoint" );
+    for( Map.Entry< String, Endpoint > entry : endpoints.entrySet() )
+      sample( sb, "requests_total", endpointLabel( entry.getKey() ), entry.getValue().requests.sum() );
+
+    header( sb, "request_errors_total", "counter", "Requests which failed or got an error status, by endpoint" );
+    for( Map.Entry< String, Endpoint > entry : endpoints.entrySet() )
+      sample( sb, "request_errors_total", endpointLabel( entry.getKey() ), entry.getValue().errors.sum() );
+
+    header( sb, "downloaded_bytes_total", "counter", "Bytes of response bodies read, by endpoint" );
+    for( Map.Entry< String, Endpoint > entry : endpoints.entrySet() )
+      sample( sb, "downloaded_bytes_total", endpointLabel( entry.getKey() ), entry.getValue().bytes.sum() );
+
+    header( sb, "request_duration_seconds", "histogram", "Time until the response's head arrived, by endpoint" );
+    for( Map.Entry< String, Endpoint > entry : endpoints.entrySet() ) {
+      Endpoint e = entry.getValue();
+      String label = endpointLabel( entry.getKey() );
+
+      long cumulative = 0;
+      for( int i = 0; i < BUCKETS.length; i++ ) {
+        cumulative += e.buckets.get( i );
+        sample( sb, "request_duration_seconds_bucket", label + ",le=\"" + BUCKETS[ i ] + "\"", cumulative );
+      }
+      sample( sb, "request_duration_seconds_bucket", label + ",le=\"+Inf\"", e.requests.sum() );
+      sample( sb, "request_duration_seconds_sum", label, e.latency.sum() / 1e9 );
+      sample( sb, "request_duration_seconds_count", label, e.requests.sum() );
+    }
+
+    for( Map.Entry< String, Counter > entry : new TreeMap<>( this.counters ).entrySet() ) {
+      header( sb, entry.getKey(), "counter", entry.getValue().help );
+      sample( sb, entry.getKey(), "", entry.getValue().value.sum() );
+    }
+
+    // Gauges of the same name are grouped below one header
+    Map< String, List< Gauge > > gauges = new TreeMap<>();
+    for( Gauge gauge : this.gauges )
+      gauges.computeIfAbsent( gauge.name, k -> new ArrayList<>() ).add( gauge );
+
+    for( List< Gauge > group : gauges.values() ) {
+      header( sb, group.get( 0 ).name, "gauge", group.get( 0 ).help );
+      for( Gauge gauge : group )
+        sample( sb, gauge.name, gauge.labels, gauge.value.getAsDouble() );
+    }
+
+    Map< String, HostLimiter.Stats > hosts = HostLimiter.get().snapshot();
+    if( !hosts.isEmpty() ) {
+      header( sb, "host_limit", "gauge", "Current concurrency limit, by host" );
+      for( Map.Entry< String, HostLimiter.Stats > entry : hosts.entrySet() )
+        sample( sb, "host_limit", "host=\"" + entry.getKey() + "\"", entry.getValue().limit );
+
+      header( sb, "host_in_flight", "gauge", "Requests in flight, by host" );
+      for( Map.Entry< String, HostLimiter.Stats > entry : hosts.entrySet() )
+        sample( sb, "host_in_flight", "host=\"" + entry.getKey() + "\"", entry.getValue().inFlight );
+
+      header( sb, "host_waiting", "gauge", "Requests waiting for a slot, by host" );
+      for( Map.Entry< String, HostLimiter.Stats > entry : hosts.entrySet() )
+        sample( sb, "host_waiting", "host=\"" + entry.getKey() + "\"", entry.getValue().waiting );
+    }
+
+    header( sb, "uptime_seconds", "gauge", "Seconds since the run started" );
+    sample( sb, "uptime_seconds", "", ( System.nanoTime() - this.start ) / 1e9 );
+
+    return sb.toString();
+  }
+
+  /**
+   * Format a duration the way the console line shows it, like 1d 02:13:07
+   * @param secs Duration in seconds
+   * @return Formatted duration, ? if unknown
+   */
+  public static String formatDuration( double secs ) {
+    if( Double.isNaN( secs ) || Double.isInfinite( secs ) || secs < 0 )
+      return "?";
+
+    long total = ( long ) secs;
+    String time = String.format( "%02d:%02d:%02d", total / 3600 % 24, total / 60 % 60, total % 60 );
+    return total >= 86400 ? ( total / 86400 ) + "d " + time : time;
+  }
+
+  private Endpoint endpoint( String name ) {
+    return this.endpoints.computeIfAbsent( name, k -> new Endpoint() );
+  }
+
+  private static String endpointLabel( String endpoint ) {
+    return "endpoint=\"" + endpoint + "\"";
+  }
+
+  private static void header( StringBuilder sb, String name, String type, String help ) {
+    sb.append( "# HELP digiscrapper_" ).append( name ).append( ' ' ).append( help ).append( '\n' );
+    sb.append( "# TYPE digiscrapper_" ).append( name ).append( ' ' ).append( type ).append( '\n' );
+  }
+
+  private static void sample( StringBuilder sb, String name, String labels, double value ) {
+    sb.append( "digiscrapper_" ).append( name );
+    if( !labels.isEmpty() )
+      sb.append( '{' ).append( labels ).append( '}' );
+
+    sb.append( ' ' );
+    if( Double.isNaN( value ) )
+      sb.append( "NaN" );
+    else if( value == Math.rint( value ) && Math.abs( value ) < 1e15 )
+      sb.append( ( long ) value );
+    else
+      sb.append( value );
+    sb.append( '\n' );
+  }
+
+  private static class Endpoint {
+    private final LongAdder requests = new LongAdder(), errors = new LongAdder(), bytes = new LongAdder(), latency = new LongAdder();
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS.length );
+
+    private void record( long latency, boolean error ) {
+      this.requests.increment();
+      this.latency.add( latency );
+      if( error )
+        this.errors.increment();
+
+      // Slower than the last bucket only counts towards +Inf
+      double secs = latency / 1e9;
+      for( int i = 0; i < BUCKETS.length; i++ ) {
+        if( secs <= BUCKETS[ i ] ) {
+          this.buckets.incrementAndGet( i );
+          break;
+        }
+      }
+    }
+  }
+
+  private static class Counter {
+    private final String help;
+    private final LongAdder value = new LongAdder();
+
+    private Counter( String help ) {
+      this.help = help;
+    }
+  }
+
+  private static class Gauge {
+    private final String name, labels, help;
+    private final DoubleSupplier value;
+
+    private Gauge( String name, String labels, String help, DoubleSupplier value ) {
+      this.name = name;
+      this.labels = labels;
+      this.help = help;
+      this.value = value;
+    }
+  }
+}
@@ -1,25 +1,488 @@
 package me.blvckbytes.digiscrapper;
 
+import org.w3c.dom.svg.SVGDocument;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class PageCollector {
 
-  public PageCollector() {
+  private File outputDir, pdfDir, tokenFile, ledgerFile;
+  private ExecutorService renderExec, bookExec;
+  private int window;
+  private TokenStore known;
+  private Map< String, String > titles, ledger;
+  private Set< String > takenNames;
+  private Writer ledgerWriter;
+  private List< CompletableFuture< File > > pending;
+
+  // Metrics
+  private AtomicInteger booksDone, booksFailed;
+  private AtomicLong pagesDone, renderNanos;
+
+  /**
+   * Collects the downloaded svg pages of books into one pdf per book, named after
+   * the book's title from the token file. Pages are parsed in parallel on all cores
+   * and drawn in order as soon as they're done, only a small window of parsed
+   * pages is held in memory, no matter how large the book is
+   * @param outputDir Folder containing book pages or archives
+   */
+  public PageCollector( File outputDir ) {
+    this( outputDir, null );
+  }
+
+  /**
+   * Collects books into pdfs while the scan is still running, titles are looked up
+   * from the tokens it found so far, since the token file is only written at its end.
+   * Which book got which pdf is kept in a ledger next to the pdfs, so a book keeps
+   * its file across runs and the first book of a title gets the plain name
+   * @param outputDir Folder containing book pages or archives
+   * @param known Tokens of the scan with their titles, null to only read the token file
+   */
+  public PageCollector( File outputDir, TokenStore known ) {
+    this.outputDir = outputDir;
+    this.known = known;
+    this.pdfDir = new File( outputDir.getAbsoluteFile().getParentFile(), "pdfs" );
+    this.tokenFile = new File( outputDir.getAbsoluteFile().getParentFile(), "tokenlist.csv" );
+    this.ledgerFile = new File( this.pdfDir, "collected.csv" );
+
+    // Parsing is spread over all cores, drawing is serial per book, so a few books are drawn at once
+    int cores = Runtime.getRuntime().availableProcessors();
+    int threads = Math.max( 1, Config.getInt( "pdfThreads", cores ) );
+    this.renderExec = Executors.newFixedThreadPool( threads );
+    this.bookExec = Executors.newFixedThreadPool( Math.max( 1, Config.getInt( "pdfBooks", cores / 2 ) ) );
+    this.window = Math.max( 1, Config.getInt( "pdfWindow", threads * 2 ) );
+
+    this.titles = new HashMap<>();
+    this.pending = new ArrayList<>();
+    this.booksDone = new AtomicInteger( 0 );
+    this.booksFailed = new AtomicInteger( 0 );
+    this.pagesDone = new AtomicLong( 0 );
+    this.renderNanos = new AtomicLong( 0 );
+  }
+
+  /**
+   * Collect all complete books of the output folder which have no pdf yet
+   */
+  public void collectAll() {
+    System.out.println( "Starting to collect pages into pdfs..." );
+
+    for( File f : Objects.requireNonNull( this.outputDir.listFiles() ) ) {
+      if( f.getName().endsWith( ".book" ) && BookArchive.isComplete( f ) )
+        submit( f.getName().substring( 0, f.getName().length() - 5 ) );
+
+      else if( f.isDirectory() && !f.getName().startsWith( "." ) && BookManifest.isFolderDone( f ) )
+        submit( f.getName() );
+    }
+
+    close();
+  }
+
+  /**
+   * Queue a downloaded book for collection, books which already have a pdf are skipped
+   * @param token Token of the book
+   * @return Future of the written pdf, null if it already existed
+   */
+  public synchronized CompletableFuture< File > submit( String token ) {
+    CompletableFuture< File > future = CompletableFuture.supplyAsync( () -> {
+      try {
+        return collect( token );
+      } catch ( Exception e ) {
+        this.booksFailed.incrementAndGet();
+        System.out.println( "Could not collect book-token " + token + " into a pdf: " + e.getMessage() );
+        return null;
+      }
+    }, this.bookExec );
+
+    this.pending.add( future );
+    return future;
+  }
+
+  /**
+   * Wait for all queued books and shut down the render threads
+   */
+  public void close() {
+    List< CompletableFuture< File > > waiting;
+    synchronized ( this ) {
+      waiting = new ArrayList<>( this.pending );
+    }
+
+    CompletableFuture.allOf( waiting.toArray( new CompletableFuture< ? >[ 0 ] ) ).join();
+    this.bookExec.shutdown();
+    this.renderExec.shutdown();
+
+    try {
+      this.bookExec.awaitTermination( 1, TimeUnit.MINUTES );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+
+    synchronized ( this ) {
+      try {
+        if( this.ledgerWriter != null )
+          this.ledgerWriter.close();
+      } catch ( IOException e ) {
+        e.printStackTrace();
+      }
+    }
+
+    System.out.println( describe() );
+  }
+
+  /**
+   * Describe how many books got collected and how fast pages were rendered
+   * @return Human readable metrics
+   */
+  public String describe() {
+    long pages = this.pagesDone.get();
+    double renderSecs = this.renderNanos.get() / 1e9;
+    return String.format(
+      "PDFs: %d books written, %d failed, %d pages, %.1f pages/sec of render time",
+      this.booksDone.get(), this.booksFailed.get(), pages, renderSecs == 0 ? 0 : pages / renderSecs
+    );
+  }
+
+  /**
+   * Render all pages of a book into its pdf. The next pages are parsed while
+   * the current one gets drawn, pages are drawn strictly in order
+   * @param token Token of the book
+   * @return Written pdf, null if it already existed
+   * @throws Exception Errors while reading, rendering or writing
+   */
+  private File collect( String token ) throws Exception {
+    String title = title( token );
+    File target = target( token, title );
+    if( target == null )
+      return null;
+
+    int pages;
+    File temp = new File( this.pdfDir, "." + token + ".pdf.part" );
+
+    long start = System.nanoTime();
+    PageSource source = openSource( token );
+    Deque< Future< SVGDocument > > ahead = new ArrayDeque<>();
 
-    /*
     try {
-      System.out.println( new File( "a.txt" ).getAbsolutePath() );
-      String input = "/Users/blvckbytes/Desktop/4581/6.svg";
-      String output = "/Users/blvckbytes/Desktop/output.pdf";
+      try ( source; PdfWriter pdf = new PdfWriter( new BufferedOutputStream( new FileOutputStream( temp ), 64 * 1024 ), title, name -> resource( source, name ) ) ) {
+        int next = 1;
+        boolean end = false;
+
+        while( true ) {
+          // Keep the window filled, pages are looked up one by one until the first missing one
+          while( !end && ahead.size() < this.window ) {
+            if( !source.hasPage( next ) ) {
+              end = true;
+              break;
+            }
+
+            int page = next++;
+            ahead.add( this.renderExec.submit( () -> parse( source, page ) ) );
+          }
+
+          if( ahead.isEmpty() )
+            break;
+
+          SVGDocument page = ahead.poll().get();
+          long drawStart = System.nanoTime();
+          pdf.addPage( page );
+          this.renderNanos.addAndGet( System.nanoTime() - drawStart );
+          this.pagesDone.incrementAndGet();
+        }
 
-      Transcoder trans = new PDFTranscoder();
-      TranscoderInput inp = new TranscoderInput( new FileInputStream( new File( input ) ) );
-      TranscoderOutput out = new TranscoderOutput( new FileOutputStream( new File( output ) ) );
-      trans.transcode( inp, out );
+        if( pdf.getPages() == 0 )
+          throw new IOException( "Book has no pages" );
 
+        pages = pdf.getPages();
+        pdf.finish();
+      }
 
+      // The writer is closed, the complete pdf replaces any former one at once
+      Files.move( temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE );
+      record( token, target.getName() );
     } catch ( Exception e ) {
+      for( Future< SVGDocument > future : ahead )
+        future.cancel( true );
+
+      release( target.getName() );
+      Files.deleteIfExists( temp.toPath() );
+      throw e instanceof ExecutionException && e.getCause() instanceof Exception ? ( Exception ) e.getCause() : e;
+    }
+
+    this.booksDone.incrementAndGet();
+
+    System.out.printf(
+      "Book-token %s collected into %s: %d pages in %.1fs%n",
+      token, target.getName(), pages, ( System.nanoTime() - start ) / 1e9
+    );
+    return target;
+  }
+
+  /**
+   * Read and parse a page, runs on a render thread
+   */
+  private SVGDocument parse( PageSource source, int page ) throws IOException {
+    long start = System.nanoTime();
+    SVGDocument parsed = PdfWriter.parse( bytes( source.page( page ) ), page );
+    this.renderNanos.addAndGet( System.nanoTime() - start );
+    return parsed;
+  }
+
+  /**
+   * Read an image a page references
+   * @return Content of the image, null if it's not part of the book
+   */
+  private static byte[] resource( PageSource source, String name ) {
+    try {
+      ByteBuffer content = source.resource( name );
+      return content == null ? null : bytes( content );
+    } catch ( Exception e ) {
+      return null;
+    }
+  }
+
+  private static byte[] bytes( ByteBuffer buffer ) {
+    byte[] data = new byte[ buffer.remaining() ];
+    buffer.get( data );
+    return data;
+  }
+
+  private PageSource openSource( String token ) throws IOException {
+    File archive = new File( this.outputDir, token + ".book" );
+    if( archive.exists() )
+      return new ArchiveSource( new BookArchive.Reader( archive ) );
+
+    File folder = new File( this.outputDir, token );
+    if( !folder.isDirectory() )
+      throw new IOException( "Book-token " + token + " has not been downloaded" );
+    return new FolderSource( folder );
+  }
+
+  /**
+   * Look up the title of a book, tokens of the running scan are known right away,
+   * the token file is read again for tokens which have been found after it was read last
+   */
+  private synchronized String title( String token ) {
+    String title = this.known == null ? null : this.known.get( "/token/" + token );
+    if( title != null )
+      return title.trim();
+
+    if( !this.titles.containsKey( token ) )
+      readTitles();
+
+    return this.titles.getOrDefault( token, token );
+  }
+
+  /**
+   * Pick the pdf of a book and reserve its name. A pdf which got named by the token
+   * since the title wasn't known yet is renamed once the title is known
+   * @return Pdf to write, null if the book already has one
+   */
+  private synchronized File target( String token, String title ) throws IOException {
+    Files.createDirectories( this.pdfDir.toPath() );
+    readLedger();
+
+    String name = this.ledger.get( token );
+
+    // Pdfs of runs before the ledger existed are taken over
+    if( name == null ) {
+      String base = baseName( token, title );
+      for( String candidate : new String[] { base + ".pdf", base + " (" + token + ").pdf", token + ".pdf" } ) {
+        if( !this.takenNames.contains( candidate ) && new File( this.pdfDir, candidate ).exists() ) {
+          record( token, candidate );
+          name = candidate;
+          break;
+        }
+      }
+    }
+
+    if( name != null && new File( this.pdfDir, name ).exists() ) {
+      if( !name.equals( token + ".pdf" ) || title.equals( token ) )
+        return null;
+
+      this.takenNames.remove( name );
+      String renamed = fileName( token, title );
+      Files.move( new File( this.pdfDir, name ).toPath(), new File( this.pdfDir, renamed ).toPath(), StandardCopyOption.ATOMIC_MOVE );
+      record( token, renamed );
+      System.out.println( "Renamed pdf of book-token " + token + " to " + renamed );
+      return null;
+    }
+
+    if( name != null )
+      this.takenNames.remove( name );
+
+    name = fileName( token, title );
+    this.takenNames.add( name );
+    return new File( this.pdfDir, name );
+  }
+
+  /**
+   * Build the file name of a pdf, titles whose name is taken by another book get their token appended
+   */
+  private String fileName( String token, String title ) {
+    String name = baseName( token, title );
+    if( !name.equals( token ) && ( this.takenNames.contains( name + ".pdf" ) || new File( this.pdfDir, name + ".pdf" ).exists() ) )
+      name += " (" + token + ")";
+    return name + ".pdf";
+  }
+
+  private String baseName( String token, String title ) {
+    String name = title.replaceAll( "[\\\\/:*?\"<>|\\p{Cntrl}]", "_" ).trim();
+    if( name.length() > 150 )
+      name = name.substring( 0, 150 ).trim();
+
+    if( name.isEmpty() || name.startsWith( "." ) )
+      return token;
+
+    // Titles the file system can't encode fall back to the token
+    try {
+      new File( this.pdfDir, name + ".pdf" ).toPath();
+    } catch ( InvalidPathException e ) {
+      return token;
+    }
+
+    return name;
+  }
+
+  /**
+   * Load the ledger of collected books, lines are written as token;file name.
+   * Later lines of a token replace earlier ones
+   */
+  private void readLedger() throws IOException {
+    if( this.ledger != null )
+      return;
+
+    this.ledger = new HashMap<>();
+    if( this.ledgerFile.exists() ) {
+      for( String line : Files.readAllLines( this.ledgerFile.toPath(), StandardCharsets.UTF_8 ) ) {
+        int sep = line.indexOf( ';' );
+        if( sep > 0 )
+          this.ledger.put( line.substring( 0, sep ), line.substring( sep + 1 ) );
+      }
+    }
+
+    this.takenNames = new HashSet<>( this.ledger.values() );
+    this.ledgerWriter = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.ledgerFile, true ), StandardCharsets.UTF_8 ) );
+  }
+
+  private synchronized void record( String token, String name ) throws IOException {
+    this.ledger.put( token, name );
+    this.takenNames.add( name );
+    this.ledgerWriter.write( token + ";" + name + "\n" );
+    this.ledgerWriter.flush();
+  }
+
+  private synchronized void release( String name ) {
+    if( !this.ledger.containsValue( name ) )
+      this.takenNames.remove( name );
+  }
+
+  private void readTitles() {
+    if( !this.tokenFile.exists() )
+      return;
+
+    try {
+      TokenFile.read( this.tokenFile, ( token, title ) -> this.titles.put( token, title.trim() ) );
+    } catch ( IOException e ) {
       e.printStackTrace();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Pages and images of a downloaded book, either a folder or an archive
+   */
+  private interface PageSource extends Closeable {
+    boolean hasPage( int page ) throws IOException;
+
+    ByteBuffer page( int page ) throws IOException;
+
+    ByteBuffer resource( String name ) throws IOException;
+  }
+
+  private static class FolderSource implements PageSource {
+    private final File folder;
+
+    private FolderSource( File folder ) {
+      this.folder = folder;
+    }
+
+    @Override
+    public boolean hasPage( int page ) {
+      return new File( this.folder, page + ".svg" ).isFile();
+    }
+
+    @Override
+    public ByteBuffer page( int page ) throws IOException {
+      return ByteBuffer.wrap( Files.readAllBytes( new File( this.folder, page + ".svg" ).toPath() ) );
     }
-     */
+
+    @Override
+    public ByteBuffer resource( String name ) throws IOException {
+      // References must not leave the book folder
+      File file = new File( this.folder, name ).getCanonicalFile();
+      if( !file.toPath().startsWith( this.folder.getCanonicalFile().toPath() ) || !file.isFile() )
+        return null;
+      return ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) );
+    }
+
+    @Override
+    public void close() {}
   }
 
+  private static class ArchiveSource implements PageSource {
+    private final BookArchive.Reader reader;
+
+    private ArchiveSource( BookArchive.Reader reader ) {
+      this.reader = reader;
+    }
+
+    @Override
+    public boolean hasPage( int page ) throws IOException {
+      return this.reader.readPage( page ) != null;
+    }
+
+    @Override
+    public ByteBuffer page( int page ) throws IOException {
+      return this.reader.readPage( page );
+    }
+
+    @Override
+    public ByteBuffer resource( String name ) throws IOException {
+      return this.reader.read( name );
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.reader.close();
+    }
+  }
 }
@@ -0,0 +1,329 @@
+package me.blvckbytes.digiscrapper;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.BridgeException;
+import org.apache.batik.bridge.DocumentLoader;
+import org.apache.batik.bridge.FontFamilyResolver;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.ParsedURL;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.configuration.Configuration;
+import org.apache.fop.configuration.ConfigurationException;
+import org.apache.fop.configuration.DefaultConfigurationBuilder;
+import org.apache.fop.fonts.FontInfo;
+import org.apache.fop.svg.PDFBridgeContext;
+import org.apache.fop.svg.PDFDocumentGraphics2D;
+import org.apache.fop.svg.PDFDocumentGraphics2DConfigurator;
+import org.apache.fop.svg.font.FOPFontFamilyResolverImpl;
+import org.apache.xmlgraphics.image.loader.ImageContext;
+import org.apache.xmlgraphics.image.loader.ImageManager;
+import org.apache.xmlgraphics.image.loader.impl.AbstractImageSessionContext;
+import org.apache.xmlgraphics.image.loader.impl.DefaultImageContext;
+import org.apache.xmlgraphics.java2d.GraphicContext;
+import org.apache.xmlgraphics.util.uri.DataURIResolver;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.svg.SVGDocument;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Dimension2D;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+public class PdfWriter implements Closeable {
+
+  // Pages are resolved against this scheme, so nothing is ever read around the book
+  private static final String BASE = "book:/";
+  private static final String XLINK = "http://www.w3.org/1999/xlink";
+
+  // Svg user units are css pixels
+  private static final float PX_TO_PT = 0.75f;
+
+  // Sizes without a unit or in pixels, relative ones fall back to the view box
+  private static final Pattern ABSOLUTE = Pattern.compile( "\\s*[0-9.]+\\s*(px)?\\s*" );
+  private static final Pattern LIST_SEPARATOR = Pattern.compile( "[\\s,]+" );
+
+  private static final String EMPTY_SVG = "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"1\" height=\"1\"/>";
+
+  // Fonts of the system are searched once, every book gets its own font info from them
+  private static final Configuration FONTS = fontConfiguration();
+
+  // Parsers aren't thread safe, every render thread keeps its own
+  private static final ThreadLocal< SAXSVGDocumentFactory > PARSERS = ThreadLocal.withInitial(
+    () -> new SAXSVGDocumentFactory( XMLResourceDescriptor.getXMLParserClassName() )
+  );
+
+  private OutputStream out;
+  private Graphics graphics;
+  private FontInfo fonts;
+  private ImageManager images;
+  private Session session;
+  private Agent agent;
+  private int pages;
+
+  /**
+   * Streams a pdf of svg pages into its target. Pages are drawn by batik into one
+   * document, which writes every page out as soon as the next one begins, so the memory
+   * needed doesn't depend on the size of the book. Images are loaded once per book, jpegs
+   * are embedded without recompressing them and text keeps the system font closest to
+   * the one the page asks for
+   * @param out Target of the pdf, gets closed with the writer
+   * @param title Title of the document
+   * @param resources Reads the images pages reference by their path within the book, null if missing
+   * @throws IOException Errors while setting up the fonts
+   */
+  public PdfWriter( OutputStream out, String title, Function< String, byte[] > resources ) throws IOException {
+    this.out = out;
+
+    try {
+      this.fonts = PDFDocumentGraphics2DConfigurator.createFontInfo( FONTS, false );
+    } catch ( FOPException e ) {
+      throw new IOException( "Could not set up fonts: " + e.getMessage(), e );
+    }
+
+    this.graphics = new Graphics();
+    this.graphics.setFontInfo( this.fonts );
+    this.graphics.getPDFDocument().getInfo().setTitle( title );
+    this.graphics.getPDFDocument().getInfo().setProducer( "DigiScrapper" );
+
+    this.images = new ImageManager( new DefaultImageContext() );
+    this.session = new Session( this.images.getImageContext(), resources );
+    this.agent = new Agent( this.fonts );
+  }
+
+  /**
+   * Parse a page and prepare it for drawing, may run on any thread
+   * @param svg Content of the page
+   * @param page Number of the page within its book
+   * @return Parsed page
+   * @throws IOException Malformed svg
+   */
+  public static SVGDocument parse( byte[] svg, int page ) throws IOException {
+    SVGDocument doc;
+    try {
+      doc = PARSERS.get().createSVGDocument( BASE + page + ".svg", new ByteArrayInputStream( svg ) );
+    } catch ( IOException | RuntimeException e ) {
+      throw new IOException( "Malformed svg: " + e.getMessage(), e );
+    }
+
+    fixSize( doc.getRootElement() );
+    fixHrefs( doc.getRootElement() );
+    return doc;
+  }
+
+  /**
+   * Draw a parsed page as the next page of the document
+   * @param page Parsed page, can't be used afterwards
+   * @throws IOException Errors while drawing or writing
+   */
+  public void addPage( SVGDocument page ) throws IOException {
+    BridgeContext ctx = new PDFBridgeContext( this.agent, new DocumentLoader( this.agent ), this.fonts, this.images, this.session, new AffineTransform() );
+    ctx.setDynamicState( BridgeContext.STATIC );
+
+    try {
+      GraphicsNode root = new GVTBuilder().build( ctx, page );
+      Dimension2D size = ctx.getDocumentSize();
+      int width = Math.round( ( float ) size.getWidth() * PX_TO_PT ), height = Math.round( ( float ) size.getHeight() * PX_TO_PT );
+
+      // The first page sets up the document, every later one flushes the one before
+      if( this.pages == 0 ) {
+        this.graphics.setupDocument( this.out, width, height );
+        this.graphics.setSVGDimension( width, height );
+        this.graphics.setBackgroundColor( Color.WHITE );
+      }
+      else
+        this.graphics.nextPage( width, height );
+
+      this.graphics.beginPage();
+      this.graphics.transform( AffineTransform.getScaleInstance( PX_TO_PT, PX_TO_PT ) );
+      this.graphics.setRenderingHint( RenderingHintsKeyExt.KEY_TRANSCODING, RenderingHintsKeyExt.VALUE_TRANSCODING_VECTOR );
+      root.paint( this.graphics );
+      this.pages++;
+    } catch ( BridgeException e ) {
+      throw new IOException( "Could not draw page: " + e.getMessage(), e );
+    } finally {
+      ctx.dispose();
+    }
+  }
+
+  /**
+   * Get the number of pages added so far
+   * @return Number of pages
+   */
+  public int getPages() {
+    return this.pages;
+  }
+
+  /**
+   * Write the last page, the fonts and the cross reference table, nothing can be
+   * added afterwards. Needs at least one page
+   * @throws IOException Errors while writing
+   */
+  public void finish() throws IOException {
+    this.graphics.finish();
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.out.close();
+  }
+
+  /**
+   * Relative sizes like the injected 100% fall back to the view box, so the
+   * page gets the size of its content instead of the viewport's
+   */
+  private static void fixSize( Element root ) {
+    String[] viewBox = LIST_SEPARATOR.split( root.getAttribute( "viewBox" ).trim() );
+    boolean hasViewBox = viewBox.length == 4;
+
+    if( !ABSOLUTE.matcher( root.getAttribute( "width" ) ).matches() )
+      root.setAttribute( "width", hasViewBox ? viewBox[ 2 ] : "595" );
+
+    if( !ABSOLUTE.matcher( root.getAttribute( "height" ) ).matches() )
+      root.setAttribute( "height", hasViewBox ? viewBox[ 3 ] : "842" );
+  }
+
+  /**
+   * Newer pages use plain hrefs, batik only follows the xlink ones
+   */
+  private static void fixHrefs( Element el ) {
+    if( el.hasAttribute( "href" ) && !el.hasAttributeNS( XLINK, "href" ) )
+      el.setAttributeNS( XLINK, "xlink:href", el.getAttribute( "href" ) );
+
+    for( Node child = el.getFirstChild(); child != null; child = child.getNextSibling() ) {
+      if( child instanceof Element )
+        fixHrefs( ( Element ) child );
+    }
+  }
+
+  private static Configuration fontConfiguration() {
+    try {
+      String config = "<svg-config><fonts><auto-detect/></fonts></svg-config>";
+      return new DefaultConfigurationBuilder().build( new ByteArrayInputStream( config.getBytes( StandardCharsets.UTF_8 ) ) );
+    } catch ( ConfigurationException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Name of a resource within its book, references are resolved against the page
+   */
+  private static String resourceName( String uri ) {
+    try {
+      return new URI( uri ).getPath().substring( 1 );
+    } catch ( URISyntaxException | RuntimeException e ) {
+      return uri.substring( BASE.length() );
+    }
+  }
+
+  /**
+   * Only the painting setup of the document is protected
+   */
+  private static class Graphics extends PDFDocumentGraphics2D {
+    private Graphics() {
+      super( false );
+    }
+
+    private void beginPage() {
+      setGraphicContext( new GraphicContext() );
+      preparePainting();
+    }
+  }
+
+  /**
+   * Hands images of the book to the image loader, embedded ones are decoded from their data uri
+   */
+  private static class Session extends AbstractImageSessionContext {
+    private final ImageContext context;
+    private final Function< String, byte[] > resources;
+
+    private Session( ImageContext context, Function< String, byte[] > resources ) {
+      this.context = context;
+      this.resources = resources;
+    }
+
+    @Override
+    protected Source resolveURI( String uri ) {
+      if( uri.startsWith( "data:" ) ) {
+        try {
+          return new DataURIResolver().resolve( uri, null );
+        } catch ( TransformerException e ) {
+          return null;
+        }
+      }
+
+      if( !uri.startsWith( BASE ) )
+        return null;
+
+      byte[] content = this.resources.apply( resourceName( uri ) );
+      return content == null ? null : new StreamSource( new ByteArrayInputStream( content ), uri );
+    }
+
+    @Override
+    public ImageContext getParentContext() {
+      return this.context;
+    }
+
+    @Override
+    public float getTargetResolution() {
+      return 72;
+    }
+  }
+
+  /**
+   * Lays out text with the fonts of the document and leaves out images which can't be loaded
+   */
+  private static class Agent extends UserAgentAdapter {
+    private final FontFamilyResolver fonts;
+
+    private Agent( FontInfo fonts ) {
+      this.fonts = new FOPFontFamilyResolverImpl( fonts );
+    }
+
+    @Override
+    public FontFamilyResolver getFontFamilyResolver() {
+      return this.fonts;
+    }
+
+    @Override
+    public void checkLoadExternalResource( ParsedURL resource, ParsedURL document ) {
+      String url = resource.toString();
+      if( !url.startsWith( BASE ) && !url.startsWith( "data:" ) )
+        throw new SecurityException( "Resource outside of the book: " + url );
+    }
+
+    @Override
+    public SVGDocument getBrokenLinkDocument( Element e, String url, String message ) {
+      System.out.println( "Could not load image " + url + ", leaving it out" );
+
+      try {
+        return PARSERS.get().createSVGDocument( BASE, new StringReader( EMPTY_SVG ) );
+      } catch ( IOException ex ) {
+        throw new IllegalStateException( ex );
+      }
+    }
+
+    @Override
+    public void displayError( Exception e ) {
+      // Images which can't be loaded are reported as broken links, everything else throws
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ResilientTransport implements Transport {
+
+  // Only these are cheap and plentiful enough to be worth a second request
+  private static final Set< String > HEDGED = Set.of( "pages", "images" );
+
+  private Transport delegate;
+  private int retries;
+  private long backoff, maxBackoff, hedgeAfter;
+  private LongAdder retried, hedged;
+
+  /**
+   * Transport which retries idempotent requests on transient failures (io errors,
+   * timeouts, 408, 429 and 5xx) with exponentially growing, fully jittered pauses
+   * and honors Retry-After. Every host is guarded by a circuit breaker, so a failing
+   * host pauses all of its requests instead of being hammered. Slow pages and images
+   * can be hedged by a second request, whichever answers first wins
+   * @param delegate Transport executing the requests
+   * @param retries Retries after the first attempt
+   * @param backoff Milliseconds of the first pause, doubled on every retry
+   * @param maxBackoff Upper bound of a pause in milliseconds
+   * @param hedgeAfter Milliseconds without a response before hedging, 0 to never hedge
+   */
+  public ResilientTransport( Transport delegate, int retries, long backoff, long maxBackoff, long hedgeAfter ) {
+    this.delegate = delegate;
+    this.retries = Math.max( 0, retries );
+    this.backoff = Math.max( 1, backoff );
+    this.maxBackoff = Math.max( this.backoff, maxBackoff );
+    this.hedgeAfter = hedgeAfter;
+
+    Metrics metrics = Metrics.get();
+    this.retried = metrics.counter( "retries_total", "Requests and books which got retried" );
+    this.hedged = metrics.counter( "hedged_requests_total", "Requests which got a second, hedging request" );
+  }
+
+  /**
+   * Create a resilient transport configured by the settings retries,
+   * retryBackoff, retryMaxBackoff and hedgeAfter (milliseconds)
+   * @param delegate Transport executing the requests
+   * @return New transport
+   */
+  public static ResilientTransport fromConfig( Transport delegate ) {
+    return new ResilientTransport(
+      delegate,
+      Config.getInt( "retries", 3 ),
+      Config.getInt( "retryBackoff", 500 ),
+      Config.getInt( "retryMaxBackoff", 30000 ),
+      Config.getInt( "hedgeAfter", 0 )
+    );
+  }
+
+  @Override
+  public CompletableFuture< TransportResponse > send( TransportRequest request ) {
+    String host;
+    try {
+      host = URI.create( request.getUrl() ).getHost();
+    } catch ( Exception e ) {
+      return this.delegate.send( request );
+    }
+
+    if( host == null )
+      return this.delegate.send( request );
+
+    CompletableFuture< TransportResponse > result = new CompletableFuture<>();
+    attempt( request, CircuitBreaker.get( host ), 1, result );
+    return result;
+  }
+
+  /**
+   * Send a request once the host's breaker lets it through and schedule
+   * the next attempt if it failed transiently
+   * @param request Request to send
+   * @param breaker Breaker of the request's host
+   * @param attempt Number of this attempt, starting at one
+   * @param result Future completed with the final outcome
+   */
+  private void attempt( TransportRequest request, CircuitBreaker breaker, int attempt, CompletableFuture< TransportResponse > result ) {
+    breaker.acquire()
+      .thenCompose( v -> sendHedged( request ) )
+      .whenComplete( ( resp, e ) -> {
+        boolean failed = e != null ? isTransient( e ) : isTransient( resp.getStatus() );
+        breaker.record( !failed );
+
+        // Permanent outcomes and exhausted attempts are up to the caller
+        if( !failed || attempt > this.retries || !request.isIdempotent() ) {
+          if( e != null )
+            result.completeExceptionally( e );
+          else
+            result.complete( resp );
+          return;
+        }
+
+        long delay = pause( attempt, resp );
+        if( resp != null )
+          resp.close();
+
+        this.retried.increment();
+        CompletableFuture.delayedExecutor( delay, TimeUnit.MILLISECONDS )
+          .execute( () -> attempt( request, breaker, attempt + 1, result ) );
+      } );
+  }
+
+  /**
+   * Send a request, hedging it with a second one if it takes too long to answer
+   * @param request Request to send
+   * @return Future of the first response
+   */
+  private CompletableFuture< TransportResponse > sendHedged( TransportRequest request ) {
+    if( this.hedgeAfter <= 0 || !request.isIdempotent() || !HEDGED.contains( request.getEndpoint() ) )
+      return this.delegate.send( request );
+
+    Hedge hedge = new Hedge( request );
+    hedge.launch();
+
+    CompletableFuture.delayedExecutor( this.hedgeAfter, TimeUnit.MILLISECONDS ).execute( () -> {
+      if( hedge.launch() )
+        this.hedged.increment();
+    } );
+
+    return hedge.result;
+  }
+
+  /**
+   * Compute the pause before the next attempt, a random duration up to the exponentially
+   * growing cap (full jitter) so failed requests don't come back all at once
+   * @param attempt Number of the failed attempt
+   * @param resp Failed response, null if there was none
+   * @return Pause in milliseconds
+   */
+  private long pause( int attempt, TransportResponse resp ) {
+    long cap = this.backoff << Math.min( attempt - 1, 30 );
+    if( cap <= 0 || cap > this.maxBackoff )
+      cap = this.maxBackoff;
+
+    long delay = ThreadLocalRandom.current().nextLong( cap + 1 );
+
+    // The host knows best when it wants to be asked again
+    String retryAfter = resp == null ? null : resp.getLastHeader( "Retry-After" );
+    if( retryAfter != null ) {
+      try {
+        delay = Math.max( delay, Math.min( Long.parseLong( retryAfter.trim() ) * 1000, this.maxBackoff ) );
+      } catch ( NumberFormatException ignored ) {}
+    }
+
+    return delay;
+  }
+
+  /**
+   * Decide whether a status is worth another attempt
+   * @param status Status of the response
+   * @return True on timeouts, rate limits and server errors
+   */
+  private static boolean isTransient( int status ) {
+    return status == 408 || status == 429 || status >= 500;
+  }
+
+  /**
+   * Decide whether a failed request is worth another attempt
+   * @param e Cause of the failure
+   * @return True on io errors and timeouts
+   */
+  private static boolean isTransient( Throwable e ) {
+    while( e instanceof CompletionException && e.getCause() != null )
+      e = e.getCause();
+    return e instanceof IOException || e instanceof TimeoutException;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.delegate.close();
+  }
+
+  /**
+   * Races the requests of a hedged request, the first response wins and all others get closed
+   */
+  private class Hedge {
+
+    private TransportRequest request;
+    private CompletableFuture< TransportResponse > result;
+    private int outstanding;
+
+    private Hedge( TransportRequest request ) {
+      this.request = request;
+      this.result = new CompletableFuture<>();
+    }
+
+    /**
+     * Send another request unless the race is already decided
+     * @return True if a request got sent
+     */
+    private boolean launch() {
+      synchronized ( this ) {
+        if( this.result.isDone() )
+          return false;
+        this.outstanding++;
+      }
+
+      delegate.send( this.request ).whenComplete( this::settle );
+      return true;
+    }
+
+    private void settle( TransportResponse resp, Throwable e ) {
+      boolean last;
+      synchronized ( this ) {
+        last = --this.outstanding == 0;
+      }
+
+      // Only fail once no request is left which could still answer
+      if( e == null ) {
+        if( !this.result.complete( resp ) )
+          resp.close();
+      }
+      else if( last )
+        this.result.completeExceptionally( e );
+    }
+  }
+}
@@ -0,0 +1,317 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ScanJournal implements Closeable {
+
+  private static final char TOKEN = 'T', TERM = 'D', COMPLETE = 'C', SCOPE = 'S';
+
+  private File file;
+  private String scope, journalScope;
+  private boolean replaced;
+  private Writer writer;
+  private TokenIndex tokens;
+  private Map< String, Term > finishedTerms;
+  private boolean complete;
+
+  /**
+   * Append-only journal of the combination scan. Every discovered token and every
+   * finished search term is appended as one line while the scan runs, so an
+   * interrupted scan can be resumed with only the unfinished terms left to do.
+   * Lines are written in the following formats:
+   * S;search scope (first line, left out for unrestricted searches)
+   * T;token-sublink;title
+   * D;term;results;new tokens
+   * C
+   * Replayed tokens are kept in an index file next to the journal, it only lives while the journal is open.
+   * Searches restricted to another scope find other books, so such a journal is replaced by a fresh one
+   * @param file File of the journal, gets created if non existent
+   * @param scope Restriction every search is sent with, empty if there is none
+   */
+  public ScanJournal( File file, String scope ) {
+    this.file = file;
+    this.scope = scope;
+    this.tokens = new TokenIndex( new File( file.getPath() + ".index" ) );
+    this.finishedTerms = new LinkedHashMap<>();
+  }
+
+  /**
+   * Replay all complete lines of the journal and open it for appending. A torn
+   * line from an interrupted write gets cut off, the term it belongs
+   * to isn't marked as finished and thus gets scrapped again
+   * @throws IOException Errors while reading or opening the journal
+   */
+  public void open() throws IOException {
+    long valid = 0;
+    this.tokens.open();
+
+    if( this.file.exists() )
+      valid = replay();
+
+    // Terms and completion only hold for the scope they were searched with, the scan starts over
+    if( this.replaced ) {
+      System.out.println(
+        "Scan journal was written for " + describe( this.journalScope ) + " instead of " + describe( this.scope ) + ", starting a fresh scan!"
+      );
+      valid = 0;
+    }
+
+    // Cut off the torn tail, then append behind the last complete line
+    try ( RandomAccessFile raf = new RandomAccessFile( this.file, "rw" ) ) {
+      if( raf.length() > valid )
+        raf.setLength( valid );
+    }
+
+    this.writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( this.file, true ), StandardCharsets.UTF_8 ) );
+
+    if( valid == 0 && !this.scope.isEmpty() ) {
+      this.writer.write( SCOPE + ";" + sanitize( this.scope ) + "\n" );
+      this.writer.flush();
+    }
+  }
+
+  /**
+   * Read the journal line by line on byte level, only lines terminated by a newline count
+   * @return Length of the valid part of the journal in bytes
+   */
+  private long replay() throws IOException {
+    long offset = 0, valid = 0;
+    byte[] chunk = new byte[ 1 << 16 ];
+    byte[] line = new byte[ 512 ];
+    int len = 0, read;
+
+    try ( InputStream in = new FileInputStream( this.file ) ) {
+      while( ( read = in.read( chunk ) ) != -1 ) {
+        int begin = 0;
+
+        for( int i = 0; i < read; i++ ) {
+          if( chunk[ i ] != '\n' )
+            continue;
+
+          // Line lies completely within the chunk, no need to copy
+          if( len == 0 )
+            apply( chunk, begin, i - begin );
+
+          // Line started in an earlier chunk
+          else {
+            line = append( line, len, chunk, begin, i - begin );
+            apply( line, 0, len + i - begin );
+            len = 0;
+          }
+
+          begin = i + 1;
+          valid = offset + begin;
+        }
+
+        // Keep the unterminated rest for the next chunk
+        line = append( line, len, chunk, begin, read - begin );
+        len += read - begin;
+        offset += read;
+      }
+    }
+
+    return valid;
+  }
+
+  /**
+   * Append a range of bytes to the line buffer, grows it if needed
+   * @return Line buffer, may be a new instance
+   */
+  private static byte[] append( byte[] line, int len, byte[] src, int from, int count ) {
+    if( len + count > line.length )
+      line = Arrays.copyOf( line, Math.max( len + count, line.length * 2 ) );
+
+    System.arraycopy( src, from, line, len, count );
+    return line;
+  }
+
+  /**
+   * Apply a single journal line to the in-memory state
+   * @param buf Buffer containing the line
+   * @param off Offset of the line within the buffer
+   * @param len Length of the line without the newline
+   */
+  private void apply( byte[] buf, int off, int len ) {
+    if( len == 0 )
+      return;
+
+    // The first line tells the scope, journals without one weren't restricted
+    if( this.journalScope == null ) {
+      boolean scoped = len >= 2 && buf[ off ] == SCOPE && buf[ off + 1 ] == ';';
+      this.journalScope = scoped ? new String( buf, off + 2, len - 2, StandardCharsets.UTF_8 ) : "";
+      this.replaced = !this.journalScope.equals( sanitize( this.scope ) );
+
+      if( scoped )
+        return;
+    }
+
+    // Nothing of another scope is taken over
+    if( this.replaced )
+      return;
+
+    if( buf[ off ] == COMPLETE ) {
+      this.complete = true;
+      return;
+    }
+
+    // Type and separator
+    if( len < 3 || buf[ off + 1 ] != ';' )
+      return;
+
+    // Sublinks and terms never contain the separator, titles might
+    int end = off + len, sep = off + 2;
+    while( sep < end && buf[ sep ] != ';' )
+      sep++;
+
+    if( buf[ off ] == TERM ) {
+      String term = new String( buf, off + 2, sep - off - 2, StandardCharsets.UTF_8 );
+      int results = 0, fresh = 0;
+
+      // Counts are missing in journals of older versions
+      if( sep < end ) {
+        int sep2 = sep + 1;
+        while( sep2 < end && buf[ sep2 ] != ';' )
+          sep2++;
+
+        results = parseInt( buf, sep + 1, sep2 );
+        fresh = sep2 < end ? parseInt( buf, sep2 + 1, end ) : 0;
+      }
+
+      this.finishedTerms.put( term, new Term( results, fresh ) );
+      return;
+    }
+
+    if( buf[ off ] == TOKEN ) {
+      if( sep == end )
+        return;
+
+      this.tokens.putIfAbsent(
+        new String( buf, off + 2, sep - off - 2, StandardCharsets.UTF_8 ),
+        new String( buf, sep + 1, end - sep - 1, StandardCharsets.UTF_8 )
+      );
+    }
+  }
+
+  /**
+   * Parse a positive decimal number without creating a string
+   * @return Parsed number, 0 if malformed
+   */
+  private static int parseInt( byte[] buf, int from, int to ) {
+    int value = 0;
+    for( int i = from; i < to; i++ ) {
+      if( buf[ i ] < '0' || buf[ i ] > '9' )
+        return 0;
+      value = value * 10 + ( buf[ i ] - '0' );
+    }
+    return value;
+  }
+
+  /**
+   * Append a newly discovered token, it's only flushed together with the term it got found by
+   * @param sublink Token-sublink of the book
+   * @param title Title of the book
+   */
+  public synchronized void recordToken( String sublink, String title ) throws IOException {
+    this.writer.write( TOKEN + ";" + sublink + ";" + sanitize( title ) + "\n" );
+  }
+
+  /**
+   * Append a finished search term and flush everything that has been recorded so far
+   * @param term Search term which has been scrapped completely
+   * @param results Number of results of the search
+   * @param fresh Number of tokens which were new
+   */
+  public synchronized void recordTerm( String term, int results, int fresh ) throws IOException {
+    this.writer.write( TERM + ";" + term + ";" + results + ";" + fresh + "\n" );
+    this.writer.flush();
+  }
+
+  /**
+   * Mark the scan as complete, a later run won't scrap again
+   */
+  public synchronized void recordComplete() throws IOException {
+    this.writer.write( COMPLETE + "\n" );
+    this.writer.flush();
+    this.complete = true;
+  }
+
+  /**
+   * Get all tokens known from former runs, new tokens of this run may be added
+   * @return Index of token-sublink to title, readable until the journal is closed
+   */
+  public TokenIndex getTokens() {
+    return this.tokens;
+  }
+
+  /**
+   * Get all search terms that have been finished in former runs
+   * @return Finished terms with their results in the order they were finished in
+   */
+  public Map< String, Term > getFinishedTerms() {
+    return this.finishedTerms;
+  }
+
+  /**
+   * Check if the journal of a former run got replaced since it was scanned with another scope
+   * @return True if replaced
+   */
+  public boolean isReplaced() {
+    return this.replaced;
+  }
+
+  /**
+   * Get the restriction the searches of this journal are sent with
+   * @return Search scope, empty if there is none
+   */
+  public String getScope() {
+    return this.scope;
+  }
+
+  /**
+   * Check if a former run finished all search terms
+   * @return True if the scan is complete
+   */
+  public boolean isComplete() {
+    return this.complete;
+  }
+
+  private static String describe( String scope ) {
+    return scope.isEmpty() ? "all books" : scope;
+  }
+
+  /**
+   * Line breaks would corrupt the journal
+   */
+  private static String sanitize( String value ) {
+    return value.replace( '\n', ' ' ).replace( '\r', ' ' );
+  }
+
+  public static class Term {
+    public final int results, fresh;
+
+    private Term( int results, int fresh ) {
+      this.results = results;
+      this.fresh = fresh;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if( this.writer != null )
+      this.writer.close();
+    this.tokens.close();
+  }
+}
@@ -0,0 +1,440 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public class SearchExplorer {
+
+  // The searchbar needs at least three letters, extensions stop at some point
+  private static final int MIN_LENGTH = 3, MAX_LENGTH = 8;
+
+  // Re-rank the remaining terms after this many finished searches
+  private static final int RERANK_INTERVAL = 256;
+
+  private String alphabet;
+  private int pageSize, parallelism, pruneAfter;
+  private Function< String, CompletableFuture< Map< String, String > > > search;
+  private TokenStore known;
+  private Listener listener;
+
+  // Base terms ordered by yield, extensions of truncated terms always go first. Terms
+  // that look fruitless are deferred until everything else is done
+  private PriorityQueue< String > pending, extensions;
+  private List< String > deferred;
+  private Map< String, String > parents;
+  private Set< String > seen;
+
+  // Known titles per tri- and bigram, ranks of the base terms and
+  // streaks of searches without new tokens per prefix
+  private Map< String, Integer > trigrams, bigrams, ranks, streaks;
+
+  // Learned size of a result page, if it isn't configured
+  private int maxResults;
+  private List< String > termsAtMax;
+
+  private int inFlight, sinceRerank, searched, pruned, failed;
+  private CompletableFuture< Void > done;
+
+  /**
+   * Explores the search of the open library adaptively instead of brute-forcing all
+   * three letter terms. Terms that are likely to yield the most books run first,
+   * the remaining terms of a prefix are skipped once its searches only turn up
+   * known books and terms whose result page looks truncated get extended by a letter
+   * @param alphabet Letters terms are built from
+   * @param pageSize Maximum results of a page, 0 to learn it from the responses
+   * @param parallelism Maximum searches in flight
+   * @param pruneAfter Searches without new tokens after which a prefix gets skipped, 0 disables pruning
+   * @param search Search returning the token-sublinks and titles for a term
+   * @param known All known token-sublinks with their titles, new tokens get added
+   */
+  public SearchExplorer(
+    String alphabet, int pageSize, int parallelism, int pruneAfter,
+    Function< String, CompletableFuture< Map< String, String > > > search,
+    TokenStore known
+  ) {
+    this.alphabet = alphabet.toLowerCase( Locale.ROOT );
+    this.pageSize = pageSize;
+    this.parallelism = Math.max( 1, parallelism );
+    this.pruneAfter = pruneAfter;
+    this.search = search;
+    this.known = known;
+    this.deferred = new ArrayList<>();
+    this.parents = new HashMap<>();
+    this.seen = new HashSet<>();
+    this.trigrams = new HashMap<>();
+    this.bigrams = new HashMap<>();
+    this.ranks = new HashMap<>();
+    this.streaks = new HashMap<>();
+    this.termsAtMax = new ArrayList<>();
+    this.pending = new PriorityQueue<>( ranking() );
+    this.extensions = new PriorityQueue<>( ranking() );
+    this.done = new CompletableFuture<>();
+
+    for( Map.Entry< String, String > token : known )
+      index( token.getValue() );
+  }
+
+  /**
+   * Create an explorer configured by the settings alphabet, searchPageSize,
+   * scanParallelism and pruneAfter
+   * @param search Search returning the token-sublinks and titles for a term
+   * @param known All known token-sublinks with their titles, new tokens get added
+   * @return Configured explorer
+   */
+  public static SearchExplorer fromConfig(
+    Function< String, CompletableFuture< Map< String, String > > > search,
+    TokenStore known
+  ) {
+    return new SearchExplorer(
+      Config.getString( "alphabet", "abcdefghijklmnopqrstuvwxyz" ),
+      Config.getInt( "searchPageSize", 0 ),
+      Config.getInt( "scanParallelism", 50 ),
+      Config.getInt( "pruneAfter", 3 ),
+      search, known
+    );
+  }
+
+  /**
+   * Take over a term that has been searched in a former run, has to
+   * be called in the order the terms were finished in
+   * @param term Searched term
+   * @param results Number of results of the search
+   * @param fresh Number of tokens which were new at the time
+   */
+  public synchronized void restore( String term, int results, int fresh ) {
+    // Extensions of earlier restored terms are already done
+    if( !this.seen.add( term ) )
+      this.extensions.remove( term );
+
+    finish( term, results, fresh );
+  }
+
+  /**
+   * Get the number of base terms, all combinations of three letters
+   * @return Number of base terms
+   */
+  public int getBaseTerms() {
+    return this.alphabet.length() * this.alphabet.length() * this.alphabet.length();
+  }
+
+  /**
+   * Explore the search space until every term either is searched or pruned
+   * @param listener Listener which gets called on every finished search
+   * @return Future which completes once the exploration is done
+   */
+  public CompletableFuture< Void > explore( Listener listener ) {
+    this.listener = listener;
+
+    synchronized ( this ) {
+      for( char a : this.alphabet.toCharArray() ) {
+        for( char b : this.alphabet.toCharArray() ) {
+          for( char c : this.alphabet.toCharArray() ) {
+            String term = "" + a + b + c;
+            if( this.seen.add( term ) )
+              this.pending.add( term );
+          }
+        }
+      }
+
+      rerank();
+    }
+
+    dispatch();
+    return this.done;
+  }
+
+  /**
+   * Start searches until the parallelism is reached or no terms are left
+   */
+  private void dispatch() {
+    List< String > terms = new ArrayList<>();
+
+    synchronized ( this ) {
+      String term;
+      while( this.inFlight < this.parallelism && ( term = next() ) != null ) {
+        this.inFlight++;
+        this.searched++;
+        terms.add( term );
+      }
+
+      if( this.inFlight == 0 && terms.isEmpty() ) {
+        this.done.complete( null );
+        return;
+      }
+    }
+
+    for( String term : terms )
+      this.search.apply( term ).whenComplete( ( results, e ) -> complete( term, results, e ) );
+  }
+
+  /**
+   * Pick the next term to search, skips terms of exhausted prefixes and defers
+   * terms containing pairs of letters that no known title contains
+   * @return Next term or null if there is none left
+   */
+  private String next() {
+    String term;
+    while( ( term = this.extensions.isEmpty() ? this.pending.poll() : this.extensions.poll() ) != null ) {
+      if( this.pruneAfter <= 0 )
+        return term;
+
+      if( this.streaks.getOrDefault( prefixOf( term ), 0 ) >= this.pruneAfter ) {
+        prune( term );
+        continue;
+      }
+
+      // Without any known title there is nothing to estimate by
+      if( !this.bigrams.isEmpty() && score( term ) == 0 ) {
+        this.deferred.add( term );
+        continue;
+      }
+
+      return term;
+    }
+
+    // Everything else is done, give deferred terms another chance if
+    // the titles found in the meantime make them look promising
+    if( this.inFlight > 0 || this.deferred.isEmpty() )
+      return null;
+
+    boolean revived = false;
+    for( String candidate : this.deferred ) {
+      if( score( candidate ) == 0 ) {
+        prune( candidate );
+        continue;
+      }
+
+      ( this.parents.containsKey( candidate ) ? this.extensions : this.pending ).add( candidate );
+      revived = true;
+    }
+
+    this.deferred.clear();
+    if( !revived )
+      return null;
+
+    rerank();
+    return next();
+  }
+
+  /**
+   * Count a skipped term, only base terms are counted since the
+   * stats compare them against all combinations of three letters
+   */
+  private void prune( String term ) {
+    if( !this.parents.containsKey( term ) )
+      this.pruned++;
+  }
+
+  /**
+   * Get the prefix a term belongs to, which is the term an extension got created from
+   * or the first two letters for base terms
+   * @param term Term to get the prefix of
+   * @return Prefix of the term
+   */
+  private String prefixOf( String term ) {
+    String parent = this.parents.get( term );
+    return parent != null ? parent : term.substring( 0, 2 );
+  }
+
+  /**
+   * Handle a finished search and continue with the next ones
+   */
+  private void complete( String term, Map< String, String > results, Throwable e ) {
+    Map< String, String > fresh = new HashMap<>();
+
+    if( e == null ) {
+      for( Map.Entry< String, String > entry : results.entrySet() ) {
+        if( this.known.putIfAbsent( entry.getKey(), entry.getValue() ) == null )
+          fresh.put( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    // Persist before the term counts as finished
+    try {
+      this.listener.onSearched( term, results, fresh, e );
+    } catch ( Exception ex ) {
+      e = ex;
+    }
+
+    synchronized ( this ) {
+      this.inFlight--;
+
+      if( e != null )
+        this.failed++;
+      else {
+        for( String title : fresh.values() )
+          index( title );
+        finish( term, results.size(), fresh.size() );
+      }
+
+      if( ++this.sinceRerank >= RERANK_INTERVAL )
+        rerank();
+    }
+
+    dispatch();
+  }
+
+  /**
+   * Update the statistics with a finished term, lock has to be held
+   */
+  private void finish( String term, int results, int fresh ) {
+    // Count searches of a prefix in a row which only found known books
+    String prefix = prefixOf( term );
+    this.streaks.put( prefix, fresh > 0 ? 0 : this.streaks.getOrDefault( prefix, 0 ) + 1 );
+
+    if( this.pageSize > 0 ) {
+      if( results >= this.pageSize )
+        extend( term );
+      return;
+    }
+
+    // The page size becomes known once two searches hit the same maximum
+    if( results > this.maxResults ) {
+      this.maxResults = results;
+      this.termsAtMax.clear();
+    }
+
+    if( results == this.maxResults && results > 0 ) {
+      this.termsAtMax.add( term );
+
+      if( this.termsAtMax.size() == 2 )
+        this.termsAtMax.forEach( this::extend );
+      else if( this.termsAtMax.size() > 2 )
+        extend( term );
+    }
+  }
+
+  /**
+   * Queue the extensions of a truncated term, every book the page missed contains
+   * the term followed or preceded by some other letter (unless it's a word on its own)
+   */
+  private void extend( String term ) {
+    if( term.length() >= MAX_LENGTH )
+      return;
+
+    for( char c : this.alphabet.toCharArray() ) {
+      for( String extension : new String[] { term + c, c + term } ) {
+        if( !this.seen.add( extension ) )
+          continue;
+
+        this.parents.put( extension, term );
+        this.ranks.put( extension, score( extension ) );
+        this.extensions.add( extension );
+      }
+    }
+  }
+
+  /**
+   * Count all tri- and bigrams of a title, they estimate the yield of the corresponding terms
+   * @param title Title of a book
+   */
+  private void index( String title ) {
+    String lower = title.toLowerCase( Locale.ROOT );
+    Set< String > unique = new HashSet<>();
+    for( int i = 0; i + 2 <= lower.length(); i++ ) {
+      unique.add( lower.substring( i, i + 2 ) );
+      if( i + MIN_LENGTH <= lower.length() )
+        unique.add( lower.substring( i, i + MIN_LENGTH ) );
+    }
+
+    for( String gram : unique )
+      ( gram.length() == 2 ? this.bigrams : this.trigrams ).merge( gram, 1, Integer::sum );
+  }
+
+  /**
+   * Rebuild the queues since the estimated yields changed
+   */
+  private void rerank() {
+    this.sinceRerank = 0;
+    this.ranks.clear();
+    this.pending = rebuild( this.pending );
+    this.extensions = rebuild( this.extensions );
+  }
+
+  private PriorityQueue< String > rebuild( PriorityQueue< String > queue ) {
+    for( String term : queue )
+      this.ranks.put( term, score( term ) );
+
+    PriorityQueue< String > ranked = new PriorityQueue<>( Math.max( 1, queue.size() ), ranking() );
+    ranked.addAll( queue );
+    return ranked;
+  }
+
+  /**
+   * Order terms by their rank at the time of the last re-ranking. Ties
+   * are spread over all prefixes instead of going alphabetically
+   */
+  private Comparator< String > ranking() {
+    return Comparator.comparingInt( ( String term ) -> -this.ranks.getOrDefault( term, 0 ) )
+      .thenComparingInt( term -> Integer.reverse( term.hashCode() ) );
+  }
+
+  /**
+   * Estimate the yield of a term by the number of known titles containing it,
+   * unseen terms made of two known pairs might still match unknown titles.
+   * Longer terms are estimated by their rarest trigram
+   * @param term Term to score
+   * @return Score, higher is better
+   */
+  private int score( String term ) {
+    if( term.length() > MIN_LENGTH ) {
+      int min = Integer.MAX_VALUE;
+      for( int i = 0; i + MIN_LENGTH <= term.length(); i++ )
+        min = Math.min( min, score( term.substring( i, i + MIN_LENGTH ) ) );
+      return min;
+    }
+
+    Integer exact = this.trigrams.get( term );
+    if( exact != null )
+      return exact * 4;
+
+    boolean pairs = this.bigrams.containsKey( term.substring( 0, 2 ) ) && this.bigrams.containsKey( term.substring( 1 ) );
+    return pairs ? 1 : 0;
+  }
+
+  /**
+   * Get the number of searches sent so far
+   * @return Searches sent
+   */
+  public synchronized int getSearched() {
+    return this.searched;
+  }
+
+  /**
+   * Get the number of base terms that have been skipped, skipped extensions aren't counted
+   * @return Pruned base terms
+   */
+  public synchronized int getPruned() {
+    return this.pruned;
+  }
+
+  /**
+   * Get the number of searches that failed
+   * @return Failed searches
+   */
+  public synchronized int getFailed() {
+    return this.failed;
+  }
+
+  public interface Listener {
+
+    /**
+     * Called once a search finished, throwing marks the search as failed
+     * @param term Searched term
+     * @param results All results of the search, null if it failed
+     * @param fresh Results which weren't known before
+     * @param error Cause of the failure, null on success
+     * @throws Exception Errors while processing the results
+     */
+    void onSearched( String term, Map< String, String > results, Map< String, String > fresh, Throwable error ) throws Exception;
+  }
+}
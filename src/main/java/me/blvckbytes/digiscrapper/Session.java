@@ -0,0 +1,76 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public class Session implements Closeable {
+
+  private int id;
+  private CookieJar cookies;
+  private Transport transport;
+  private long created;
+  private int books, failures;
+
+  /**
+   * Anonymous browser session with it's own cookies and connections. A token
+   * gets activated on a session and its pages are served by the same one
+   * @param id Number of this session within the run
+   */
+  public Session( int id ) {
+    this.id = id;
+    this.cookies = new CookieJar();
+    this.transport = Utils.createTransport();
+    this.created = System.currentTimeMillis();
+  }
+
+  public int getId() {
+    return this.id;
+  }
+
+  public CookieJar getCookies() {
+    return this.cookies;
+  }
+
+  public Transport getTransport() {
+    return this.transport;
+  }
+
+  /**
+   * Get the number of books this session has served
+   * @return Served books
+   */
+  public synchronized int getBooks() {
+    return this.books;
+  }
+
+  /**
+   * Record the outcome of an activation on this session
+   * @param success True if the book could be activated
+   */
+  public synchronized void recordActivation( boolean success ) {
+    this.books++;
+    this.failures = success ? 0 : this.failures + 1;
+  }
+
+  /**
+   * Check whether this session can still be used
+   * @param maxAge Maximum age in milliseconds
+   * @param maxFailures Maximum failed activations in a row
+   * @return True if healthy
+   */
+  public synchronized boolean isHealthy( long maxAge, int maxFailures ) {
+    if( System.currentTimeMillis() - this.created > maxAge )
+      return false;
+
+    if( this.failures >= maxFailures )
+      return false;
+
+    // All cookies expired, the session is gone on the server as well
+    return this.books == 0 || this.cookies.size() > 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.transport.close();
+  }
+}
@@ -0,0 +1,159 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+public class SessionPool implements Closeable {
+
+  private int size, maxFailures;
+  private long maxAge;
+  private long start;
+
+  private Queue< Session > idle;
+  private Queue< CompletableFuture< Session > > waiters;
+  private List< Session > open;
+
+  // Metrics
+  private int created, recycled, leases, reused, activations, failedActivations;
+
+  /**
+   * Pool of independent sessions, every book leases one for its activation and
+   * all of its pages, so activations of different books run in parallel.
+   * Sessions are created on demand and recycled once they're unhealthy
+   * @param size Maximum number of sessions
+   * @param maxAge Maximum age of a session in milliseconds
+   * @param maxFailures Failed activations in a row after which a session gets recycled
+   */
+  public SessionPool( int size, long maxAge, int maxFailures ) {
+    this.size = Math.max( 1, size );
+    this.maxAge = maxAge;
+    this.maxFailures = Math.max( 1, maxFailures );
+    this.start = System.nanoTime();
+    this.idle = new ArrayDeque<>();
+    this.waiters = new ArrayDeque<>();
+    this.open = new ArrayList<>();
+  }
+
+  /**
+   * Create a pool configured by the settings sessions and sessionMaxAge (minutes)
+   * @param defaultSize Number of sessions if not configured
+   * @return Empty pool
+   */
+  public static SessionPool fromConfig( int defaultSize ) {
+    return new SessionPool(
+      Config.getInt( "sessions", defaultSize ),
+      Config.getInt( "sessionMaxAge", 30 ) * 60_000L,
+      3
+    );
+  }
+
+  /**
+   * Lease a session, waits for a release if all sessions are in use
+   * @return Future of the leased session
+   */
+  public synchronized CompletableFuture< Session > acquire() {
+    // Idle sessions may have expired in the meantime
+    Session session;
+    while( ( session = this.idle.poll() ) != null ) {
+      if( session.isHealthy( this.maxAge, this.maxFailures ) )
+        return CompletableFuture.completedFuture( lease( session ) );
+      recycle( session );
+    }
+
+    if( this.open.size() < this.size )
+      return CompletableFuture.completedFuture( lease( create() ) );
+
+    CompletableFuture< Session > waiter = new CompletableFuture<>();
+    this.waiters.add( waiter );
+    return waiter;
+  }
+
+  /**
+   * Return a leased session, unhealthy sessions get replaced by a fresh one
+   * @param session Session to return
+   */
+  public void release( Session session ) {
+    CompletableFuture< Session > waiter;
+
+    synchronized ( this ) {
+      if( !session.isHealthy( this.maxAge, this.maxFailures ) ) {
+        recycle( session );
+        session = null;
+      }
+
+      waiter = this.waiters.poll();
+      if( waiter == null ) {
+        if( session != null )
+          this.idle.add( session );
+        return;
+      }
+
+      session = lease( session == null ? create() : session );
+    }
+
+    waiter.complete( session );
+  }
+
+  /**
+   * Record the outcome of an activation
+   * @param session Session the book got activated on
+   * @param success True if the book could be activated
+   */
+  public synchronized void recordActivation( Session session, boolean success ) {
+    session.recordActivation( success );
+    this.activations++;
+    if( !success )
+      this.failedActivations++;
+  }
+
+  /**
+   * Describe the state of the pool
+   * @return Human readable metrics
+   */
+  public synchronized String describe() {
+    double minutes = Math.max( ( System.nanoTime() - this.start ) / 60e9, 1 / 60.0 );
+    return String.format(
+      "Sessions: %d open, %d created, %d recycled, %d activations (%.1f/min, %d failed), %d of %d leases reused a session",
+      this.open.size(), this.created, this.recycled, this.activations, this.activations / minutes,
+      this.failedActivations, this.reused, this.leases
+    );
+  }
+
+  private Session lease( Session session ) {
+    this.leases++;
+    if( session.getBooks() > 0 )
+      this.reused++;
+    return session;
+  }
+
+  private Session create() {
+    Session session = new Session( ++this.created );
+    this.open.add( session );
+    return session;
+  }
+
+  private void recycle( Session session ) {
+    this.open.remove( session );
+    this.recycled++;
+
+    try {
+      session.close();
+    } catch ( IOException e ) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for( Session session : this.open )
+      session.close();
+
+    this.open.clear();
+    this.idle.clear();
+  }
+}
@@ -0,0 +1,96 @@
+package me.blvckbytes.digiscrapper;
+
+import java.net.URI;
+
+public class Site {
+
+  private static final Site INSTANCE = new Site(
+    Config.getString( "siteUrl", "https://digi4school.at" ),
+    Config.getString( "catalogUrl", "https://kat.digi4school.at" ),
+    Config.getString( "bookUrl", "https://a.digi4school.at" )
+  );
+
+  private String site, catalog, book;
+  private boolean bookPort;
+
+  /**
+   * Base urls of the platform's hosts: the site with the open library and the
+   * tokens, the catalog which runs the LTI activation and the host serving the
+   * books. Pointing them somewhere else runs the scrapper against a mock of the platform
+   * @param site Base url of the site
+   * @param catalog Base url of the catalog
+   * @param book Base url of the book host
+   */
+  public Site( String site, String catalog, String book ) {
+    this.site = trimSlash( site );
+    this.catalog = trimSlash( catalog );
+    this.book = trimSlash( book );
+    this.bookPort = URI.create( this.book ).getPort() >= 0;
+  }
+
+  /**
+   * Get the urls which are used by all requests of this run, configured by
+   * the settings siteUrl, catalogUrl and bookUrl
+   * @return Shared urls
+   */
+  public static Site get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get the base url of the site, requests to it carry it as their origin
+   * @return Base url without trailing slash
+   */
+  public String getSite() {
+    return this.site;
+  }
+
+  /**
+   * Build an url on the site
+   * @param path Absolute path, like /token/abc
+   * @return Url of the path
+   */
+  public String site( String path ) {
+    return this.site + path;
+  }
+
+  /**
+   * Build an url on the catalog
+   * @param path Absolute path, like /
+   * @return Url of the path
+   */
+  public String catalog( String path ) {
+    return this.catalog + path;
+  }
+
+  /**
+   * Get the value of the Host header for requests to the book host
+   * @return Host with its port, if any
+   */
+  public String getBookHost() {
+    return URI.create( this.book ).getRawAuthority();
+  }
+
+  /**
+   * Get the value of the Host header for requests to the catalog
+   * @return Host with its port, if any
+   */
+  public String getCatalogHost() {
+    return URI.create( this.catalog ).getRawAuthority();
+  }
+
+  /**
+   * Normalize the location a book got redirected to. Ports of the redirect are dropped
+   * since the book host is only reached on its default port, unless the configured
+   * book url has a port itself
+   * @param location Location header of the redirect
+   * @return Url of the book
+   */
+  public String bookLocation( String location ) {
+    return this.bookPort ? location : location.replaceAll( ":[0-9]+", "" );
+  }
+
+  private static String trimSlash( String url ) {
+    return url.endsWith( "/" ) ? url.substring( 0, url.length() - 1 ) : url;
+  }
+}
@@ -0,0 +1,505 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class SvgRewriter {
+
+  private static final String STYLE_OPEN = "<style type=\"text/css\">";
+  private static final String CDATA_OPEN = "<![CDATA[";
+  private static final String COMMENT_OPEN = "<!--";
+  private static final String DIM_CSS = "\nsvg{height: 1300px;width:100%;}";
+
+  private Reader in;
+  private Writer out;
+  private Function< String, String > imageResolver;
+
+  private char[] buf, scratch;
+  private int pos, len;
+  private StringBuilder tag;
+  private boolean injected, afterStyle;
+  private int refBegin, refEnd;
+
+  /**
+   * Rewrites a page svg in a single pass while it's being read, without ever
+   * keeping the whole document in memory. Only one tag at a time gets buffered
+   * @param in Source of the svg
+   * @param out Target of the rewritten svg
+   * @param imageResolver Maps image hrefs to their new names, null keeps the href
+   */
+  private SvgRewriter( Reader in, Writer out, Function< String, String > imageResolver ) {
+    this.in = in;
+    this.out = out;
+    this.imageResolver = imageResolver;
+    this.buf = new char[ 8192 ];
+    this.tag = new StringBuilder( 256 );
+    this.scratch = new char[ 256 ];
+  }
+
+  /**
+   * Stream the svg from in to out, inject a bit of css in order to keep book page
+   * at full height (otherwise it would collapse) and rewrite all image hrefs
+   * @param in Source of the svg
+   * @param out Target of the rewritten svg
+   * @param imageResolver Maps image hrefs to their new names, null keeps the href
+   * @throws IOException Errors while reading or writing
+   */
+  public static void rewrite( Reader in, Writer out, Function< String, String > imageResolver ) throws IOException {
+    new SvgRewriter( in, out, imageResolver ).process();
+  }
+
+  /**
+   * Collect the references of all images within an svg, in the same single pass
+   * the rewrite uses. Embedded data URIs aren't references and are left out
+   * @param in Source of the svg
+   * @return Image references in order of occurrence
+   * @throws IOException Errors while reading
+   */
+  public static List< String > imageReferences( Reader in ) throws IOException {
+    List< String > references = new ArrayList<>();
+    new SvgRewriter( in, Writer.nullWriter(), reference -> {
+      references.add( reference );
+      return null;
+    } ).process();
+    return references;
+  }
+
+  /**
+   * Copy text through and hand every tag to the tag handler
+   */
+  private void process() throws IOException {
+    while( this.pos < this.len || fill() ) {
+
+      // Find next tag opener within buffer
+      int lt = this.pos;
+      while( lt < this.len && this.buf[ lt ] != '<' )
+        lt++;
+
+      // Copy text in front of the tag
+      if( lt > this.pos ) {
+        this.out.write( this.buf, this.pos, lt - this.pos );
+        this.afterStyle = false;
+        this.pos = lt;
+      }
+
+      if( lt < this.len )
+        readTag();
+    }
+
+    this.out.flush();
+  }
+
+  /**
+   * Read a tag starting at the current position. Comments and CDATA sections
+   * are streamed through instead of being buffered, since they may be large
+   */
+  private void readTag() throws IOException {
+    this.tag.setLength( 0 );
+
+    // Decide on the kind of tag as soon as the prefix is unambiguous
+    while( this.pos < this.len || fill() ) {
+      this.tag.append( this.buf[ this.pos++ ] );
+
+      if( contentEquals( CDATA_OPEN ) ) {
+        writeCData();
+        return;
+      }
+
+      if( contentEquals( COMMENT_OPEN ) ) {
+        this.out.write( COMMENT_OPEN );
+        passThrough( "-->" );
+        return;
+      }
+
+      if( !isPrefixOf( CDATA_OPEN ) && !isPrefixOf( COMMENT_OPEN ) )
+        break;
+    }
+
+    // Read up to the end of the tag's name. Only a few elements get rewritten,
+    // all others (mostly large paths) are copied through without buffering them
+    while( !isNameComplete() && ( this.pos < this.len || fill() ) )
+      this.tag.append( this.buf[ this.pos++ ] );
+
+    char last = this.tag.charAt( this.tag.length() - 1 );
+    if( isNameComplete() && last != '>' && last != '"' && last != '\'' && !needsRewrite() ) {
+      this.afterStyle = false;
+      writeTag( 0, this.tag.length() );
+      streamTag();
+      return;
+    }
+
+    // Buffer the element up to its closing bracket, brackets inside
+    // of attribute values are ignored
+    char quote = 0;
+    int scanned = 1;
+
+    while( true ) {
+      for( ; scanned < this.tag.length(); scanned++ ) {
+        char c = this.tag.charAt( scanned );
+
+        if( quote != 0 ) {
+          if( c == quote )
+            quote = 0;
+        }
+
+        else if( c == '"' || c == '\'' )
+          quote = c;
+
+        else if( c == '>' ) {
+          handleElement();
+          return;
+        }
+      }
+
+      if( this.pos >= this.len && !fill() )
+        break;
+
+      // Move over the next chunk up until a char which needs inspection
+      int begin = this.pos;
+      while( this.pos < this.len ) {
+        char c = this.buf[ this.pos++ ];
+        if( c == '>' || c == '"' || c == '\'' )
+          break;
+      }
+
+      this.tag.append( this.buf, begin, this.pos - begin );
+      scanned = Math.max( scanned, this.tag.length() - 1 );
+    }
+
+    // Unterminated tag at the end of the document, keep as is
+    writeTag( 0, this.tag.length() );
+  }
+
+  /**
+   * Handle a completely buffered element tag
+   */
+  private void handleElement() throws IOException {
+    // Right within the first style tag, the css gets injected into the CDATA section
+    if( !this.injected && contentEquals( STYLE_OPEN ) ) {
+      writeTag( 0, this.tag.length() );
+      this.afterStyle = true;
+      return;
+    }
+
+    this.afterStyle = false;
+
+    // No style tag so far, append a custom one to the defs
+    if( !this.injected && startsWithTag( "<defs" ) ) {
+      writeTag( 0, this.tag.length() );
+      this.out.write( STYLE_OPEN + CDATA_OPEN + DIM_CSS + "]]></style>" );
+      this.injected = true;
+      return;
+    }
+
+    // Neither defs nor style occurred, style elements are valid anywhere
+    if( !this.injected && startsWithTag( "</svg" ) ) {
+      this.out.write( STYLE_OPEN + CDATA_OPEN + DIM_CSS + "]]></style>" );
+      this.injected = true;
+    }
+
+    if( startsWithTag( "<image" ) ) {
+      writeImage();
+      return;
+    }
+
+    writeTag( 0, this.tag.length() );
+  }
+
+  /**
+   * Write an image tag with its href replaced by the resolver's result
+   */
+  private void writeImage() throws IOException {
+    // Damaged or empty href, embedded images have nothing to download
+    if( !findReference() || this.refEnd == this.refBegin || isDataUri( this.refBegin ) ) {
+      writeTag( 0, this.tag.length() );
+      return;
+    }
+
+    String newName = this.imageResolver.apply( this.tag.substring( this.refBegin, this.refEnd ) );
+    if( newName == null ) {
+      writeTag( 0, this.tag.length() );
+      return;
+    }
+
+    writeTag( 0, this.refBegin );
+    this.out.write( newName );
+    writeTag( this.refEnd, this.tag.length() );
+  }
+
+  /**
+   * Locate the value of the href or xlink:href attribute of the buffered tag,
+   * walking over its attributes once. Values may be quoted either way
+   * @return True if found, the value's bounds are kept in refBegin and refEnd
+   */
+  private boolean findReference() {
+    int len = this.tag.length(), i = 1;
+
+    // Tag name
+    while( i < len && !isNameEnd( this.tag.charAt( i ) ) )
+      i++;
+
+    while( i < len ) {
+      char c = this.tag.charAt( i );
+      if( Character.isWhitespace( c ) || c == '/' || c == '>' ) {
+        i++;
+        continue;
+      }
+
+      // Attribute name
+      int nameStart = i;
+      while( i < len && !isNameEnd( this.tag.charAt( i ) ) && this.tag.charAt( i ) != '=' )
+        i++;
+      int nameEnd = i;
+
+      while( i < len && Character.isWhitespace( this.tag.charAt( i ) ) )
+        i++;
+
+      if( i >= len || this.tag.charAt( i ) != '=' )
+        continue;
+
+      i++;
+      while( i < len && Character.isWhitespace( this.tag.charAt( i ) ) )
+        i++;
+
+      // Unquoted values aren't valid xml
+      char quote = i < len ? this.tag.charAt( i ) : 0;
+      if( quote != '"' && quote != '\'' )
+        return false;
+
+      int end = this.tag.indexOf( String.valueOf( quote ), i + 1 );
+      if( end < 0 )
+        return false;
+
+      if( isHrefName( nameStart, nameEnd ) ) {
+        this.refBegin = i + 1;
+        this.refEnd = end;
+        return true;
+      }
+
+      i = end + 1;
+    }
+
+    return false;
+  }
+
+  /**
+   * Check if an attribute name within the buffered tag is href, with or without namespace prefix
+   */
+  private boolean isHrefName( int start, int end ) {
+    int len = end - start;
+    if( len < 4 || ( len > 4 && this.tag.charAt( end - 5 ) != ':' ) )
+      return false;
+
+    return this.tag.charAt( end - 4 ) == 'h' && this.tag.charAt( end - 3 ) == 'r' &&
+      this.tag.charAt( end - 2 ) == 'e' && this.tag.charAt( end - 1 ) == 'f';
+  }
+
+  /**
+   * Check if the buffered tag contains a data URI at the given position
+   */
+  private boolean isDataUri( int start ) {
+    if( this.refEnd - start < 5 )
+      return false;
+
+    for( int i = 0; i < 5; i++ ) {
+      if( Character.toLowerCase( this.tag.charAt( start + i ) ) != "data:".charAt( i ) )
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isNameEnd( char c ) {
+    return c == '>' || c == '/' || Character.isWhitespace( c );
+  }
+
+  /**
+   * Check if the buffered tag's name has been read completely, including the char after it
+   */
+  private boolean isNameComplete() {
+    int last = this.tag.length() - 1;
+    return last >= 2 && isNameEnd( this.tag.charAt( last ) ) || last >= 1 && ( this.tag.charAt( last ) == '"' || this.tag.charAt( last ) == '\'' );
+  }
+
+  /**
+   * Check if the buffered tag is one of the elements the rewrite needs to see as a whole
+   */
+  private boolean needsRewrite() {
+    return startsWithTag( "<image" ) || startsWithTag( "<style" ) || startsWithTag( "<defs" ) || startsWithTag( "</svg" );
+  }
+
+  /**
+   * Copy the rest of a tag straight through up to and including its closing bracket,
+   * brackets inside of attribute values are ignored
+   */
+  private void streamTag() throws IOException {
+    char quote = 0;
+
+    while( this.pos < this.len || fill() ) {
+      // Locals keep the loop free of field writes, it runs over most of the page
+      char[] buf = this.buf;
+      int begin = this.pos, i = this.pos, len = this.len;
+
+      while( i < len ) {
+        // Skip over attribute values in one go, path data makes up most of them
+        if( quote != 0 ) {
+          while( i < len && buf[ i ] != quote )
+            i++;
+
+          if( i < len ) {
+            quote = 0;
+            i++;
+          }
+          continue;
+        }
+
+        char c = buf[ i++ ];
+
+        if( c == '"' || c == '\'' )
+          quote = c;
+
+        else if( c == '>' ) {
+          this.pos = i;
+          this.out.write( buf, begin, i - begin );
+          return;
+        }
+      }
+
+      this.pos = i;
+      this.out.write( buf, begin, i - begin );
+    }
+  }
+
+  /**
+   * Write a range of the buffered tag without creating an intermediate string
+   * @param from Inclusive start index
+   * @param to Exclusive end index
+   */
+  private void writeTag( int from, int to ) throws IOException {
+    if( this.scratch.length < to - from )
+      this.scratch = new char[ Math.max( to - from, this.scratch.length * 2 ) ];
+
+    this.tag.getChars( from, to, this.scratch, 0 );
+    this.out.write( this.scratch, 0, to - from );
+  }
+
+  /**
+   * Write a CDATA section, if it's the one of the first style tag the css
+   * gets injected right at its beginning
+   */
+  private void writeCData() throws IOException {
+    this.out.write( CDATA_OPEN );
+
+    if( this.afterStyle ) {
+      this.out.write( DIM_CSS );
+      this.injected = true;
+      this.afterStyle = false;
+    }
+
+    passThrough( "]]>" );
+  }
+
+  /**
+   * Copy everything up to and including the terminator from in to out
+   * @param terminator Sequence which ends the current section
+   */
+  private void passThrough( String terminator ) throws IOException {
+    int matched = 0;
+
+    while( this.pos < this.len || fill() ) {
+      int begin = this.pos;
+
+      while( this.pos < this.len ) {
+        char c = this.buf[ this.pos++ ];
+
+        // Advance on the terminator, fall back to the longest partial match otherwise
+        if( c == terminator.charAt( matched ) )
+          matched++;
+        else
+          matched = fallback( terminator, matched, c );
+
+        if( matched == terminator.length() ) {
+          this.out.write( this.buf, begin, this.pos - begin );
+          return;
+        }
+      }
+
+      this.out.write( this.buf, begin, this.pos - begin );
+    }
+  }
+
+  /**
+   * Find the longest suffix of the matched part plus the mismatching char
+   * which still is a prefix of the terminator (f.e. "]]]>" ends a CDATA section)
+   * @param terminator Sequence which ends the current section
+   * @param matched Amount of chars matched so far
+   * @param c Mismatching char
+   * @return New amount of matched chars
+   */
+  private static int fallback( String terminator, int matched, char c ) {
+    for( int k = matched; k > 0; k-- ) {
+      if( terminator.charAt( k - 1 ) == c && terminator.regionMatches( 0, terminator, matched - k + 1, k - 1 ) )
+        return k;
+    }
+    return 0;
+  }
+
+  /**
+   * Refill the buffer from the reader
+   * @return True if there is more data, false on end of stream
+   */
+  private boolean fill() throws IOException {
+    int read = this.in.read( this.buf, 0, this.buf.length );
+    if( read <= 0 ) {
+      this.pos = this.len = 0;
+      return false;
+    }
+
+    this.pos = 0;
+    this.len = read;
+    return true;
+  }
+
+  /**
+   * Check if the current tag starts with the given name, followed by
+   * whitespace, a slash or the closing bracket
+   * @param name Name including the opening bracket
+   */
+  private boolean startsWithTag( String name ) {
+    if( this.tag.length() <= name.length() )
+      return false;
+
+    for( int i = 0; i < name.length(); i++ ) {
+      if( this.tag.charAt( i ) != name.charAt( i ) )
+        return false;
+    }
+
+    char next = this.tag.charAt( name.length() );
+    return next == '>' || next == '/' || Character.isWhitespace( next );
+  }
+
+  /**
+   * Check if the current tag equals the given string
+   */
+  private boolean contentEquals( String str ) {
+    return this.tag.length() == str.length() && isPrefixOf( str );
+  }
+
+  /**
+   * Check if the current tag is a prefix of the given string
+   */
+  private boolean isPrefixOf( String str ) {
+    if( this.tag.length() > str.length() )
+      return false;
+
+    for( int i = 0; i < this.tag.length(); i++ ) {
+      if( this.tag.charAt( i ) != str.charAt( i ) )
+        return false;
+    }
+
+    return true;
+  }
+}
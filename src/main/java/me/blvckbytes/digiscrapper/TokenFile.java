@@ -0,0 +1,88 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+public class TokenFile {
+
+  public static final String LAST_INDEX = "# Last from-index was: ";
+
+  /**
+   * Read all entries of a token file line by line. The file contains token-sublink
+   * and book-title in csv format, comments start with # and malformed lines are skipped
+   * @param file Token file
+   * @param visitor Receives every entry
+   * @return Number of entries read
+   * @throws IOException Errors while reading
+   * @throws InterruptedException Interrupted while the visitor waited
+   */
+  public static int read( File file, Visitor visitor ) throws IOException, InterruptedException {
+    int count = 0;
+
+    try ( BufferedReader reader = new BufferedReader( new FileReader( file ) ) ) {
+      String line;
+      while( ( line = reader.readLine() ) != null ) {
+        // Skip comments
+        if( line.startsWith( "#" ) )
+          continue;
+
+        // Input format mismatch, skip
+        int sep = line.indexOf( ';' );
+        if( sep < 0 )
+          continue;
+
+        String sublink = line.substring( 0, sep );
+        visitor.accept( sublink.replace( "/token/", "" ), line.substring( sep + 1 ) );
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Write all links into a token file, streamed line by line
+   * @param file Token file, gets created or replaced
+   * @param links Token-sublinks with their titles
+   * @param lastIndex Number of terms finished over all runs
+   * @throws IOException Errors while writing
+   */
+  public static void write( File file, Iterable< Map.Entry< String, String > > links, int lastIndex ) throws IOException {
+    String nl = System.lineSeparator();
+
+    try ( Writer writer = new BufferedWriter( new FileWriter( file ), 1 << 16 ) ) {
+      // Header for the file with some informations
+      writer.write( "# These are all scrapped links from the page" + nl );
+      writer.write( LAST_INDEX + lastIndex + nl );
+      writer.write( "# Timestamp of writing this to file: " + System.currentTimeMillis() + nl );
+      writer.write( "# Format: Token-Sublink;Title" + nl );
+
+      // All lines in CSV format
+      for( Map.Entry< String, String > entry : links ) {
+        writer.write( entry.getKey() );
+        writer.write( ';' );
+        writer.write( entry.getValue() );
+        writer.write( nl );
+      }
+    }
+  }
+
+  /**
+   * Receives the entries of a token file
+   */
+  public interface Visitor {
+
+    /**
+     * Called for every entry in order of the file
+     * @param token Token of the book, without the sublink's prefix
+     * @param title Title of the book
+     */
+    void accept( String token, String title ) throws InterruptedException;
+  }
+}
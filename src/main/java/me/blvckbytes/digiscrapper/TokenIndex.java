@@ -0,0 +1,277 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public class TokenIndex implements TokenStore, Closeable {
+
+  private static final String PREFIX = "/token/";
+
+  // Entries never span two mappings
+  private static final int SEGMENT_BITS = 26, SEGMENT = 1 << SEGMENT_BITS;
+
+  private File file;
+  private FileChannel channel;
+  private List< MappedByteBuffer > segments;
+  private long end;
+
+  // Per id: where its entry starts and the hash of its sublink
+  private long[] offsets;
+  private int[] hashes;
+
+  // Open addressing table of id + 1, 0 marks a free slot
+  private int[] slots;
+  private int size;
+
+  /**
+   * Append-only store of token-sublinks and titles which keeps its entries in a memory
+   * mapped file instead of the heap. Every sublink is stored once and gets an id,
+   * the heap only holds the offset and the hash per id and a table of ids, about
+   * 20 bytes per token no matter how long sublinks and titles are. The common
+   * /token/ prefix isn't stored. Entries are laid out as:
+   * [prefixed: byte][sublink length: short][sublink][title length: int][title]
+   * @param file Backing file, it's replaced on open and deleted on close
+   */
+  public TokenIndex( File file ) {
+    this.file = file;
+    this.segments = new ArrayList<>();
+    this.offsets = new long[ 1024 ];
+    this.hashes = new int[ 1024 ];
+    this.slots = new int[ 2048 ];
+  }
+
+  /**
+   * Create the backing file, an existing one is truncated
+   * @throws IOException Errors while creating the file
+   */
+  public synchronized void open() throws IOException {
+    this.channel = FileChannel.open(
+      this.file.toPath(),
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE
+    );
+  }
+
+  @Override
+  public synchronized int size() {
+    return this.size;
+  }
+
+  @Override
+  public synchronized boolean containsKey( String sublink ) {
+    return find( sublink, encodeKey( sublink ) ) >= 0;
+  }
+
+  @Override
+  public synchronized String get( String sublink ) {
+    int id = find( sublink, encodeKey( sublink ) );
+    return id < 0 ? null : readTitle( this.offsets[ id ] );
+  }
+
+  @Override
+  public synchronized String putIfAbsent( String sublink, String title ) {
+    byte[] encoded = encodeKey( sublink );
+    int id = find( sublink, encoded );
+    if( id >= 0 )
+      return readTitle( this.offsets[ id ] );
+
+    insert( sublink, encoded, title );
+    return null;
+  }
+
+  /**
+   * Entries in order of their ids. Iterating is weakly consistent, tokens added
+   * afterwards aren't visited and nothing is copied onto the heap up front
+   */
+  @Override
+  public Iterator< Map.Entry< String, String > > iterator() {
+    int limit = size();
+    return new Iterator<>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return this.next < limit;
+      }
+
+      @Override
+      public Map.Entry< String, String > next() {
+        if( this.next >= limit )
+          throw new NoSuchElementException();
+        return readEntry( this.next++ );
+      }
+    };
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if( this.channel == null )
+      return;
+
+    this.channel.close();
+    this.channel = null;
+    this.segments.clear();
+    Files.deleteIfExists( this.file.toPath() );
+  }
+
+  /**
+   * Look up the id of a sublink
+   * @param key Sublink
+   * @param encoded Stored form of the sublink
+   * @return Id of the sublink, -1 if unknown
+   */
+  private int find( String key, byte[] encoded ) {
+    int hash = key.hashCode();
+    int mask = this.slots.length - 1;
+
+    for( int slot = mix( hash ) & mask; this.slots[ slot ] != 0; slot = ( slot + 1 ) & mask ) {
+      int id = this.slots[ slot ] - 1;
+      if( this.hashes[ id ] == hash && keyEquals( this.offsets[ id ], key.startsWith( PREFIX ), encoded ) )
+        return id;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Add an unknown sublink with a new id
+   */
+  private void insert( String key, byte[] encoded, String value ) {
+    if( this.size == this.offsets.length ) {
+      int capacity = this.size + ( this.size >> 1 );
+      this.offsets = Arrays.copyOf( this.offsets, capacity );
+      this.hashes = Arrays.copyOf( this.hashes, capacity );
+    }
+
+    // Keep the table at most half full, rehashing only needs the hashes
+    if( ( this.size + 1 ) * 2 > this.slots.length )
+      rehash( this.slots.length * 2 );
+
+    int id = this.size;
+    this.offsets[ id ] = append( key, encoded, value );
+    this.hashes[ id ] = key.hashCode();
+    place( id );
+    this.size++;
+  }
+
+  private void rehash( int capacity ) {
+    this.slots = new int[ capacity ];
+    for( int id = 0; id < this.size; id++ )
+      place( id );
+  }
+
+  private void place( int id ) {
+    int mask = this.slots.length - 1;
+    int slot = mix( this.hashes[ id ] ) & mask;
+    while( this.slots[ slot ] != 0 )
+      slot = ( slot + 1 ) & mask;
+    this.slots[ slot ] = id + 1;
+  }
+
+  /**
+   * Append an entry to the file
+   * @return Offset of the entry
+   */
+  private long append( String key, byte[] encoded, String value ) {
+    byte[] title = value.getBytes( StandardCharsets.UTF_8 );
+    int length = 1 + 2 + encoded.length + 4 + title.length;
+    if( length > SEGMENT || encoded.length > Short.MAX_VALUE )
+      throw new IllegalArgumentException( "Token " + key + " is too large for the index" );
+
+    // Continue within the next mapping if the entry doesn't fit anymore
+    if( ( this.end & ( SEGMENT - 1 ) ) + length > SEGMENT )
+      this.end = ( ( this.end >>> SEGMENT_BITS ) + 1 ) << SEGMENT_BITS;
+
+    long offset = this.end;
+    MappedByteBuffer segment = segment( offset );
+    int pos = ( int ) ( offset & ( SEGMENT - 1 ) );
+
+    segment.put( pos, ( byte ) ( key.startsWith( PREFIX ) ? 1 : 0 ) );
+    segment.putShort( pos + 1, ( short ) encoded.length );
+    for( int i = 0; i < encoded.length; i++ )
+      segment.put( pos + 3 + i, encoded[ i ] );
+
+    pos += 3 + encoded.length;
+    segment.putInt( pos, title.length );
+    for( int i = 0; i < title.length; i++ )
+      segment.put( pos + 4 + i, title[ i ] );
+
+    this.end += length;
+    return offset;
+  }
+
+  private boolean keyEquals( long offset, boolean prefixed, byte[] encoded ) {
+    MappedByteBuffer segment = segment( offset );
+    int pos = ( int ) ( offset & ( SEGMENT - 1 ) );
+
+    if( ( segment.get( pos ) == 1 ) != prefixed || segment.getShort( pos + 1 ) != encoded.length )
+      return false;
+
+    for( int i = 0; i < encoded.length; i++ ) {
+      if( segment.get( pos + 3 + i ) != encoded[ i ] )
+        return false;
+    }
+    return true;
+  }
+
+  private String readTitle( long offset ) {
+    MappedByteBuffer segment = segment( offset );
+    int pos = ( int ) ( offset & ( SEGMENT - 1 ) );
+    pos += 3 + segment.getShort( pos + 1 );
+    return readString( segment, pos + 4, segment.getInt( pos ) );
+  }
+
+  private synchronized Map.Entry< String, String > readEntry( int id ) {
+    long offset = this.offsets[ id ];
+    MappedByteBuffer segment = segment( offset );
+    int pos = ( int ) ( offset & ( SEGMENT - 1 ) );
+
+    boolean prefixed = segment.get( pos ) == 1;
+    String key = readString( segment, pos + 3, segment.getShort( pos + 1 ) );
+    return new AbstractMap.SimpleImmutableEntry<>( prefixed ? PREFIX + key : key, readTitle( offset ) );
+  }
+
+  private static String readString( MappedByteBuffer segment, int pos, int length ) {
+    byte[] bytes = new byte[ length ];
+    for( int i = 0; i < length; i++ )
+      bytes[ i ] = segment.get( pos + i );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * Get the mapping an offset lies in, mappings are created on first use
+   */
+  private MappedByteBuffer segment( long offset ) {
+    int index = ( int ) ( offset >>> SEGMENT_BITS );
+    try {
+      while( this.segments.size() <= index )
+        this.segments.add( this.channel.map( FileChannel.MapMode.READ_WRITE, ( long ) this.segments.size() << SEGMENT_BITS, SEGMENT ) );
+    } catch ( IOException e ) {
+      throw new IllegalStateException( "Could not grow the token index", e );
+    }
+    return this.segments.get( index );
+  }
+
+  /**
+   * Stored form of a sublink, the common prefix is left out
+   */
+  private static byte[] encodeKey( String key ) {
+    return ( key.startsWith( PREFIX ) ? key.substring( PREFIX.length() ) : key ).getBytes( StandardCharsets.UTF_8 );
+  }
+
+  private static int mix( int hash ) {
+    return ( hash ^ ( hash >>> 16 ) ) * 0x45d9f3b;
+  }
+}
@@ -0,0 +1,88 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+public class TokenQueue {
+
+  private Deque< String > first, rest;
+  private int capacity;
+  private boolean finished;
+
+  /**
+   * Bounded hand-over of book tokens from the scanner to the downloader. Publishing
+   * blocks while the queue is full, so the scan can never run away from the downloads.
+   * Tokens published as first are taken before all others
+   * @param capacity Maximum number of tokens waiting to be downloaded
+   */
+  public TokenQueue( int capacity ) {
+    this.first = new ArrayDeque<>();
+    this.rest = new ArrayDeque<>();
+    this.capacity = Math.max( 1, capacity );
+  }
+
+  /**
+   * Create a queue with the capacity configured by the setting tokenQueueSize
+   * @return Empty queue
+   */
+  public static TokenQueue fromConfig() {
+    return new TokenQueue( Config.getInt( "tokenQueueSize", 256 ) );
+  }
+
+  /**
+   * Publish a token, blocks while the queue is full
+   * @param token Token without the /token/ prefix
+   * @throws InterruptedException Interrupted while waiting for space
+   */
+  public void publish( String token ) throws InterruptedException {
+    publish( token, false );
+  }
+
+  /**
+   * Publish a token, blocks while the queue is full
+   * @param token Token without the /token/ prefix
+   * @param first Whether the token goes before all tokens which aren't first
+   * @throws InterruptedException Interrupted while waiting for space
+   */
+  public synchronized void publish( String token, boolean first ) throws InterruptedException {
+    while( size() >= this.capacity )
+      wait();
+
+    ( first ? this.first : this.rest ).add( token );
+    notifyAll();
+  }
+
+  /**
+   * Mark the end of the stream, has to be called after the last token got published.
+   * Tokens which are still waiting are taken before the end
+   */
+  public synchronized void finish() {
+    this.finished = true;
+    notifyAll();
+  }
+
+  /**
+   * Take the next token, blocks until one is available
+   * @return Token or null if the stream ended
+   * @throws InterruptedException Interrupted while waiting for a token
+   */
+  public synchronized String take() throws InterruptedException {
+    while( this.first.isEmpty() && this.rest.isEmpty() ) {
+      if( this.finished )
+        return null;
+      wait();
+    }
+
+    String token = this.first.isEmpty() ? this.rest.poll() : this.first.poll();
+    notifyAll();
+    return token;
+  }
+
+  /**
+   * Get the number of tokens waiting to be taken
+   * @return Waiting tokens
+   */
+  public synchronized int size() {
+    return this.first.size() + this.rest.size();
+  }
+}
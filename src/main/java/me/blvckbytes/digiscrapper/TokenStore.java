@@ -0,0 +1,71 @@
+package me.blvckbytes.digiscrapper;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public interface TokenStore extends Iterable< Map.Entry< String, String > > {
+
+  /**
+   * Get the title of a known token
+   * @param sublink Token-sublink
+   * @return Title of the book, null if unknown
+   */
+  String get( String sublink );
+
+  /**
+   * Check if a token is known
+   * @param sublink Token-sublink
+   * @return True if the token is known
+   */
+  boolean containsKey( String sublink );
+
+  /**
+   * Add a token unless it's known already, tokens are never replaced or removed
+   * @param sublink Token-sublink
+   * @param title Title of the book
+   * @return Title the token was known with before, null if it got added
+   */
+  String putIfAbsent( String sublink, String title );
+
+  /**
+   * Get the number of known tokens
+   * @return Number of tokens
+   */
+  int size();
+
+  /**
+   * Create a store which keeps its tokens on the heap
+   * @return Empty store
+   */
+  static TokenStore inMemory() {
+    ConcurrentMap< String, String > tokens = new ConcurrentHashMap<>();
+    return new TokenStore() {
+      @Override
+      public String get( String sublink ) {
+        return tokens.get( sublink );
+      }
+
+      @Override
+      public boolean containsKey( String sublink ) {
+        return tokens.containsKey( sublink );
+      }
+
+      @Override
+      public String putIfAbsent( String sublink, String title ) {
+        return tokens.putIfAbsent( sublink, title );
+      }
+
+      @Override
+      public int size() {
+        return tokens.size();
+      }
+
+      @Override
+      public Iterator< Map.Entry< String, String > > iterator() {
+        return tokens.entrySet().iterator();
+      }
+    };
+  }
+}
@@ -0,0 +1,16 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+public interface Transport extends Closeable {
+
+  /**
+   * Send a request, the returned future completes as soon as the response's
+   * head arrived, the body is streamed afterwards. Every response has to be closed
+   * @param request Request to send
+   * @return Future of the response
+   */
+  CompletableFuture< TransportResponse > send( TransportRequest request );
+
+}
@@ -0,0 +1,139 @@
+package me.blvckbytes.digiscrapper;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TransportRequest {
+
+  private String method, url, endpoint;
+  private List< NameValuePair > headers, form;
+  private boolean followRedirects, idempotent;
+
+  /**
+   * Describes a request independent of the transport which executes it
+   * @param method Http method, GET or POST
+   * @param url Target url
+   * @param form Url encoded form body, null for none
+   */
+  private TransportRequest( String method, String url, List< ? extends NameValuePair > form ) {
+    this.method = method;
+    this.url = url;
+    this.headers = new ArrayList<>();
+    this.form = form == null ? null : new ArrayList<>( form );
+
+    // Just like browsers, only GET requests get redirected
+    this.followRedirects = method.equals( "GET" );
+    this.idempotent = method.equals( "GET" );
+    this.endpoint = "other";
+  }
+
+  /**
+   * Create a GET request
+   * @param url Target url
+   * @return New request
+   */
+  public static TransportRequest get( String url ) {
+    return new TransportRequest( "GET", url, null );
+  }
+
+  /**
+   * Create a POST request with an url encoded form as body
+   * @param url Target url
+   * @param form Form fields
+   * @return New request
+   */
+  public static TransportRequest post( String url, List< ? extends NameValuePair > form ) {
+    return new TransportRequest( "POST", url, form );
+  }
+
+  /**
+   * Add a header to this request
+   * @param name Name of the header
+   * @param value Value of the header
+   * @return This request for chaining
+   */
+  public TransportRequest header( String name, String value ) {
+    this.headers.add( new BasicNameValuePair( name, value ) );
+    return this;
+  }
+
+  /**
+   * Set whether redirects should be followed automatically
+   * @param follow True to follow redirects
+   * @return This request for chaining
+   */
+  public TransportRequest followRedirects( boolean follow ) {
+    this.followRedirects = follow;
+    return this;
+  }
+
+  /**
+   * Set whether sending this request twice has the same effect as sending it once,
+   * only those requests get retried. GET requests are idempotent by default
+   * @param idempotent True if the request may be repeated
+   * @return This request for chaining
+   */
+  public TransportRequest idempotent( boolean idempotent ) {
+    this.idempotent = idempotent;
+    return this;
+  }
+
+  /**
+   * Label the endpoint this request goes to, metrics are grouped by it
+   * @param endpoint Name of the endpoint, like pages or images
+   * @return This request for chaining
+   */
+  public TransportRequest endpoint( String endpoint ) {
+    this.endpoint = endpoint;
+    return this;
+  }
+
+  /**
+   * Encode the form like browsers (and UrlEncodedFormEntity) do
+   * @return Encoded form body
+   */
+  public String encodeForm() {
+    StringBuilder sb = new StringBuilder();
+    for( NameValuePair pair : this.form ) {
+      if( sb.length() > 0 )
+        sb.append( '&' );
+
+      sb.append( URLEncoder.encode( pair.getName(), StandardCharsets.ISO_8859_1 ) ).append( '=' )
+        .append( URLEncoder.encode( pair.getValue(), StandardCharsets.ISO_8859_1 ) );
+    }
+    return sb.toString();
+  }
+
+  public String getMethod() {
+    return this.method;
+  }
+
+  public String getUrl() {
+    return this.url;
+  }
+
+  public List< NameValuePair > getHeaders() {
+    return this.headers;
+  }
+
+  public List< NameValuePair > getForm() {
+    return this.form;
+  }
+
+  public boolean isFollowRedirects() {
+    return this.followRedirects;
+  }
+
+  public boolean isIdempotent() {
+    return this.idempotent;
+  }
+
+  public String getEndpoint() {
+    return this.endpoint;
+  }
+}
@@ -0,0 +1,148 @@
+package me.blvckbytes.digiscrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+public class TransportResponse implements Closeable {
+
+  private int status;
+  private String url;
+  private Map< String, List< String > > headers;
+  private InputStream body;
+  private List< Runnable > closeHooks;
+  private AtomicBoolean closed;
+
+  /**
+   * Response of a transport with it's body as a stream
+   * @param status Status code
+   * @param url Url the response came from, after following redirects
+   * @param headers Headers by name (case insensitive)
+   * @param body Body of the response
+   * @param onClose Releases the resources of the transport
+   */
+  public TransportResponse( int status, String url, Map< String, List< String > > headers, InputStream body, Runnable onClose ) {
+    this.status = status;
+    this.url = url;
+    this.headers = new TreeMap<>( String.CASE_INSENSITIVE_ORDER );
+    this.headers.putAll( headers );
+    this.body = body;
+    this.closeHooks = new ArrayList<>();
+    this.closeHooks.add( onClose );
+    this.closed = new AtomicBoolean( false );
+  }
+
+  public int getStatus() {
+    return this.status;
+  }
+
+  public String getUrl() {
+    return this.url;
+  }
+
+  public InputStream getBody() {
+    return this.body;
+  }
+
+  /**
+   * Get all values of a header
+   * @param name Name of the header
+   * @return List of values, empty if not present
+   */
+  public List< String > getHeaders( String name ) {
+    return this.headers.getOrDefault( name, Collections.emptyList() );
+  }
+
+  /**
+   * Get the last value of a header
+   * @param name Name of the header
+   * @return Value of the header, null if not present
+   */
+  public String getLastHeader( String name ) {
+    List< String > values = getHeaders( name );
+    return values.isEmpty() ? null : values.get( values.size() - 1 );
+  }
+
+  /**
+   * Get the charset from the content type
+   * @param def Charset to use if none is specified
+   * @return Charset of the body
+   */
+  public Charset getCharset( Charset def ) {
+    String type = getLastHeader( "Content-Type" );
+    if( type == null )
+      return def;
+
+    for( String part : type.split( ";" ) ) {
+      part = part.trim();
+      if( !part.regionMatches( true, 0, "charset=", 0, 8 ) )
+        continue;
+
+      try {
+        return Charset.forName( part.substring( 8 ).replace( "\"", "" ).trim() );
+      } catch ( Exception e ) {
+        return def;
+      }
+    }
+
+    return def;
+  }
+
+  /**
+   * Read the whole body into a string and close the response afterwards
+   * @return Body as a string
+   * @throws IOException Errors while reading
+   */
+  public String readString() throws IOException {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buf = new byte[ 8192 ];
+      int read;
+      while( ( read = this.body.read( buf ) ) != -1 )
+        bos.write( buf, 0, read );
+
+      return new String( bos.toByteArray(), getCharset( StandardCharsets.ISO_8859_1 ) );
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * Wrap the body's stream, f.e. to observe what's read from it
+   * @param wrapper Creates the wrapping stream around the current one
+   */
+  public void wrapBody( UnaryOperator< InputStream > wrapper ) {
+    this.body = wrapper.apply( this.body );
+  }
+
+  /**
+   * Add an action which is run when this response gets closed
+   * @param hook Action to run
+   */
+  public void addCloseHook( Runnable hook ) {
+    this.closeHooks.add( hook );
+  }
+
+  @Override
+  public void close() {
+    if( !this.closed.compareAndSet( false, true ) )
+      return;
+
+    try {
+      this.body.close();
+    } catch ( IOException ignored ) {}
+
+    for( Runnable hook : this.closeHooks )
+      hook.run();
+  }
+}
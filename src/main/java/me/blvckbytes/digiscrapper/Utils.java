@@ -5,8 +5,13 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
+import java.io.File;
+
 public class Utils {
 
+  // With many requests a bit of latency needs to be tolerated
+  public static final int TIMEOUT_SECONDS = 5;
+
   /**
    * Creates a client that can be used in multithreading environments, thus
    * it can handle a lot of requests in short amounts of time without timeouting
@@ -14,22 +19,103 @@ public class Utils {
    */
   public static CloseableHttpClient createFastClient() {
     PoolingHttpClientConnectionManager pm = new PoolingHttpClientConnectionManager();
-    pm.setMaxTotal( 100 );
-    pm.setDefaultMaxPerRoute( 30 );
-
-    // With many requests a bit of latency needs to be tolerated
-    int timeout = 5;
-    RequestConfig config = RequestConfig.custom()
-      .setConnectTimeout( timeout * 1000 )
-      .setConnectionRequestTimeout( timeout * 1000 )
-      .setSocketTimeout( timeout * 1000 ).build();
+    pm.setMaxTotal( maxConnections() );
+    pm.setDefaultMaxPerRoute( HostLimiter.get().getMaxPermits() );
 
     // Create client
     return HttpClients.custom()
       .setConnectionManager( pm )
-      .setDefaultRequestConfig( config )
+      .setDefaultRequestConfig( createRequestConfig() )
       .disableContentCompression()
       .build();
   }
 
+  /**
+   * Creates the request config with the tolerated timeouts
+   * @return RequestConfig for further use
+   */
+  public static RequestConfig createRequestConfig() {
+    return RequestConfig.custom()
+      .setConnectTimeout( TIMEOUT_SECONDS * 1000 )
+      .setConnectionRequestTimeout( TIMEOUT_SECONDS * 1000 )
+      .setSocketTimeout( TIMEOUT_SECONDS * 1000 ).build();
+  }
+
+  /**
+   * Get the number of connections over all hosts (digi4school.at, kat. and a.)
+   * @return Maximum total connections
+   */
+  public static int maxConnections() {
+    return Math.max( 100, HostLimiter.get().getMaxPermits() * 3 );
+  }
+
+  /**
+   * Creates the transport all requests are sent through, -Ddigiscrapper.transport=async
+   * selects the non-blocking engine, the pooled blocking client is the default
+   * @return Transport for further use
+   */
+  public static Transport createTransport() {
+    Transport transport;
+    if( Config.getString( "transport", "blocking" ).equalsIgnoreCase( "async" ) )
+      transport = new AsyncTransport();
+    else
+      transport = new BlockingTransport();
+
+    // Retries wait outside of the host limits, so pausing requests don't hold slots
+    return ResilientTransport.fromConfig( new LimitedTransport( new MeteredTransport( transport, Metrics.get() ), HostLimiter.get() ) );
+  }
+
+  /**
+   * Get the folder the jar is located in, all files of the scrapper are kept there.
+   * The setting basePath moves them somewhere else
+   * @return Path of the folder
+   */
+  public static String getBasePath() {
+    String configured = Config.getString( "basePath", null );
+    if( configured != null )
+      return configured;
+
+    try {
+      String basePath = Utils.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
+
+      // Remove file if exists
+      if( basePath.endsWith( ".jar" ) )
+        basePath = basePath.substring( 0, basePath.lastIndexOf( "/" ) );
+      return basePath;
+    } catch ( Exception e ) {
+      e.printStackTrace();
+      return new File( "" ).getAbsolutePath();
+    }
+  }
+
+  /**
+   * Convert bytes to a lower case hex string
+   * @param bytes Bytes to convert
+   * @return Hex string
+   */
+  public static String toHex( byte[] bytes ) {
+    StringBuilder sb = new StringBuilder( bytes.length * 2 );
+    for( byte b : bytes )
+      sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+    return sb.toString();
+  }
+
+  /**
+   * Replace the file name of an image reference, keeping its folder, extension and query
+   * @param imgName Image reference from within the page, f.e. img/1.png
+   * @param identifier New file name without extension
+   * @return Renamed reference, f.e. img/[identifier].png
+   */
+  public static String renameImage( String imgName, String identifier ) {
+    int query = imgName.indexOf( '?' );
+    int end = query < 0 ? imgName.length() : query;
+    int slash = imgName.lastIndexOf( '/', end - 1 );
+    int dot = imgName.lastIndexOf( '.', end - 1 );
+
+    // No extension, the whole name gets replaced
+    if( dot <= slash )
+      dot = end;
+
+    return imgName.substring( 0, slash + 1 ) + identifier + imgName.substring( dot );
+  }
 }
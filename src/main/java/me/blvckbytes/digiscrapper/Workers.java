@@ -0,0 +1,85 @@
+package me.blvckbytes.digiscrapper;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class Workers {
+
+  private static Boolean virtual;
+  private static ExecutorService shared;
+
+  /**
+   * Create an executor for blocking I/O work. In virtual mode every task gets
+   * its own virtual thread and concurrency is bounded by the host limiter instead
+   * of the pool size, otherwise a classic fixed pool is created
+   * @param poolSize Size of the fixed pool in pooled mode
+   * @return Executor to submit tasks to
+   */
+  public static ExecutorService create( int poolSize ) {
+    if( isVirtual() ) {
+      try {
+        Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+        return ( ExecutorService ) factory.invoke( null );
+      } catch ( Exception e ) {
+        e.printStackTrace();
+      }
+    }
+
+    return Executors.newFixedThreadPool( poolSize );
+  }
+
+  /**
+   * Get the executor which all blocking transports share. It's sized to the
+   * connections over all hosts, so adding sessions doesn't add threads. Idle
+   * threads die off and none of them keep the JVM alive, as it's never shut down
+   * @return Shared executor
+   */
+  public static synchronized ExecutorService shared() {
+    if( shared != null )
+      return shared;
+
+    if( isVirtual() ) {
+      shared = create( Utils.maxConnections() );
+      return shared;
+    }
+
+    int size = Utils.maxConnections();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor( size, size, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread t = new Thread( r, "transport-worker" );
+      t.setDaemon( true );
+      return t;
+    } );
+    pool.allowCoreThreadTimeOut( true );
+
+    shared = pool;
+    return shared;
+  }
+
+  /**
+   * Check whether virtual threads are requested and supported by the running JVM
+   * @return True if tasks run on virtual threads
+   */
+  public static synchronized boolean isVirtual() {
+    if( virtual != null )
+      return virtual;
+
+    virtual = false;
+    if( !Config.getString( "mode", "pooled" ).equalsIgnoreCase( "virtual" ) )
+      return false;
+
+    // Virtual threads are only available from java 21 on
+    try {
+      Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+      virtual = true;
+      System.out.println( "Running on virtual threads" );
+    } catch ( NoSuchMethodException e ) {
+      System.out.println( "Virtual threads are not supported by this JVM, falling back to pools" );
+    }
+
+    return virtual;
+  }
+}
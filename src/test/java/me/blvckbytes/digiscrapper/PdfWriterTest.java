@@ -0,0 +1,166 @@
+package me.blvckbytes.digiscrapper;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PdfWriterTest {
+
+  @Test
+  public void pageSizeFollowsViewBox() throws Exception {
+    try ( PDDocument pdf = render( name -> null, "gradient.svg", "text.svg" ) ) {
+      assertEquals( 2, pdf.getNumberOfPages() );
+
+      // Css pixels of the view box in points, the relative width doesn't count
+      assertEquals( 300, pdf.getPage( 0 ).getMediaBox().getWidth(), 0.5 );
+      assertEquals( 150, pdf.getPage( 0 ).getMediaBox().getHeight(), 0.5 );
+      assertEquals( "Fixtures", pdf.getDocumentInformation().getTitle() );
+    }
+  }
+
+  @Test
+  public void gradientsKeepTheirStops() throws Exception {
+    try ( PDDocument pdf = render( name -> null, "gradient.svg" ) ) {
+      BufferedImage page = new PDFRenderer( pdf ).renderImage( 0 );
+      Color left = pixel( page, 0.02, 0.5 ), middle = pixel( page, 0.5, 0.5 ), right = pixel( page, 0.98, 0.5 );
+
+      assertTrue( "left should be red: " + left, left.getRed() > 200 && left.getBlue() < 60 );
+      assertTrue( "middle should be mixed: " + middle, middle.getRed() > 80 && middle.getBlue() > 80 );
+      assertTrue( "right should be blue: " + right, right.getBlue() > 200 && right.getRed() < 60 );
+    }
+  }
+
+  @Test
+  public void textKeepsCharactersOutsideWinAnsi() throws Exception {
+    try ( PDDocument pdf = render( name -> null, "text.svg" ) ) {
+      String text = new PDFTextStripper().getText( pdf );
+      assertTrue( text, text.contains( "Gr\u00fc\u00dfe \u20ac" ) );
+
+      // Scripts beyond latin need a system font which covers them
+      Assume.assumeTrue( hasFontFor( "\u03b1\u03b2\u03b3 \u041f\u0440\u0438\u0432\u0435\u0442" ) );
+      assertTrue( text, text.contains( "\u03b1\u03b2\u03b3 \u041f\u0440\u0438\u0432\u0435\u0442" ) );
+    }
+  }
+
+  @Test
+  public void imagesAreSharedAndPlainHrefsResolved() throws Exception {
+    byte[] green = png( Color.GREEN );
+    Set< String > requested = new HashSet<>();
+    Function< String, byte[] > resources = name -> {
+      requested.add( name );
+      return name.equals( "img/green.png" ) ? green : null;
+    };
+
+    try ( PDDocument pdf = render( resources, "images.svg", "images.svg" ) ) {
+      BufferedImage page = new PDFRenderer( pdf ).renderImage( 1 );
+
+      // Xlink and plain href, a missing image is left out and the data uri is decoded
+      assertEquals( Color.GREEN, pixel( page, 0.125, 0.25 ) );
+      assertEquals( Color.GREEN, pixel( page, 0.375, 0.25 ) );
+      assertEquals( Color.WHITE, pixel( page, 0.625, 0.25 ) );
+      assertEquals( Color.MAGENTA, pixel( page, 0.875, 0.25 ) );
+
+      // Both pages draw the same image objects
+      assertEquals( 2, images( pdf.getPage( 0 ) ).size() );
+      assertEquals( images( pdf.getPage( 0 ) ), images( pdf.getPage( 1 ) ) );
+    }
+
+    assertTrue( requested.contains( "img/green.png" ) );
+    assertTrue( requested.contains( "shade/missing.png" ) );
+  }
+
+  @Test
+  public void malformedPagesAreRejected() {
+    try {
+      PdfWriter.parse( "<svg xmlns=\"http://www.w3.org/2000/svg\"><rect".getBytes(), 1 );
+      fail( "Parsed a truncated page" );
+    } catch ( IOException e ) {
+      assertTrue( e.getMessage().startsWith( "Malformed svg" ) );
+    }
+  }
+
+  /**
+   * Render fixtures as consecutive pages of one pdf
+   */
+  private static PDDocument render( Function< String, byte[] > resources, String... fixtures ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try ( PdfWriter pdf = new PdfWriter( out, "Fixtures", resources ) ) {
+      for( int i = 0; i < fixtures.length; i++ )
+        pdf.addPage( PdfWriter.parse( fixture( fixtures[ i ] ), i + 1 ) );
+      pdf.finish();
+    }
+    return PDDocument.load( out.toByteArray() );
+  }
+
+  private static byte[] fixture( String name ) throws IOException {
+    try ( InputStream in = PdfWriterTest.class.getResourceAsStream( "/fixtures/" + name ) ) {
+      if( in == null )
+        throw new IOException( "Missing fixture " + name );
+      return in.readAllBytes();
+    }
+  }
+
+  private static byte[] png( Color color ) throws IOException {
+    BufferedImage image = new BufferedImage( 4, 4, BufferedImage.TYPE_INT_RGB );
+    for( int y = 0; y < 4; y++ ) {
+      for( int x = 0; x < 4; x++ )
+        image.setRGB( x, y, color.getRGB() );
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write( image, "png", out );
+    return out.toByteArray();
+  }
+
+  private static Color pixel( BufferedImage image, double x, double y ) {
+    return new Color( image.getRGB( ( int ) ( image.getWidth() * x ), ( int ) ( image.getHeight() * y ) ) );
+  }
+
+  /**
+   * Image objects a page draws, by identity
+   */
+  private static Set< COSBase > images( PDPage page ) throws IOException {
+    Set< COSBase > images = Collections.newSetFromMap( new IdentityHashMap<>() );
+    PDResources resources = page.getResources();
+    for( COSName name : resources.getXObjectNames() ) {
+      PDXObject object = resources.getXObject( name );
+      if( object instanceof PDImageXObject )
+        images.add( object.getCOSObject() );
+    }
+    return images;
+  }
+
+  private static boolean hasFontFor( String text ) {
+    for( Font font : GraphicsEnvironment.getLocalGraphicsEnvironment().getAllFonts() ) {
+      if( font.canDisplayUpTo( text ) < 0 )
+        return true;
+    }
+    return false;
+  }
+}